@@ -0,0 +1,68 @@
+package com.rocks.benchmark;
+
+import com.rocks.utils.CountMapCache;
+import com.rocks.utils.JobCounterCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个对象结束时的成功/失败计数：CountMapCache.countNum 与迁移持有的 JobCounters，单线程和多个迁移线程同时计数
+ * @author zhuang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CountBenchmark {
+    private final String uuid = "bench-count";
+    private JobCounterCache.JobCounters counters;
+
+    @Setup
+    public void setup() {
+        CountMapCache.addTotalNumToMap(uuid, Integer.MAX_VALUE);
+        counters = JobCounterCache.start(uuid + "-counters");
+    }
+
+    @TearDown
+    public void tearDown() {
+        JobCounterCache.removeCache(uuid + "-counters");
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void countNum() {
+        CountMapCache.countNum(uuid, "s");
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void countNumContended() {
+        CountMapCache.countNum(uuid, "s");
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void jobCounters() {
+        counters.succeeded();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void jobCountersContended() {
+        counters.succeeded();
+    }
+}
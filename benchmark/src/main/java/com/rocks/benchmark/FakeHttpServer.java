@@ -0,0 +1,432 @@
+package com.rocks.benchmark;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 假对象存储用的 HTTP/1.1 服务端：长连接、每个连接一个线程、支持 Expect: 100-continue 和 chunked 请求体。
+ * 不用 JDK 自带的 com.sun.net.httpserver，因为它会把响应头名改写成 Content-length 这样的形式，
+ * S3 SDK 把源端响应头原样带到目的端请求里时会和自己的 Content-Length 重复，与真实服务端的行为不同
+ * @author zhuang
+ */
+class FakeHttpServer {
+    private static final Logger logger = Logger.getLogger("FakeHttpServer.class");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String name;
+    private final Handler handler;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private volatile boolean stopped;
+
+    FakeHttpServer(String name, Handler handler) throws IOException {
+        this.name = name;
+        this.handler = handler;
+        this.serverSocket = new ServerSocket(0, 4096, InetAddress.getLoopbackAddress());
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, name + "-http-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    void start() {
+        executor.execute(this::accept);
+    }
+
+    void stop() {
+        stopped = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            logger.debug(name + " close server socket error.", e);
+        }
+        for (Socket socket : sockets) {
+            closeQuietly(socket);
+        }
+        executor.shutdownNow();
+    }
+
+    private void accept() {
+        while (!stopped) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                sockets.add(socket);
+                executor.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!stopped) {
+                    logger.error(name + " accept error.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 处理一个连接上的全部请求
+     */
+    private void serve(Socket socket) {
+        try (InputStream in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+             OutputStream out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE)) {
+            Exchange exchange;
+            while (!stopped && (exchange = Exchange.read(in, out)) != null) {
+                handler.handle(exchange);
+                exchange.close();
+                if (!exchange.keepAlive) {
+                    break;
+                }
+            }
+        } catch (SocketException e) {
+            // 客户端断开
+        } catch (IOException | RuntimeException e) {
+            if (!stopped) {
+                logger.debug(name + " connection error.", e);
+            }
+        } finally {
+            sockets.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+
+    interface Handler {
+        void handle(Exchange exchange) throws IOException;
+    }
+
+    /**
+     * 一次请求和响应。响应头名按设置时的原样输出
+     */
+    static class Exchange {
+        private final String method;
+        private final String rawPath;
+        private final String rawQuery;
+        private final Map<String, String> requestHeaders;
+        private final InputStream requestBody;
+        private final OutputStream out;
+        private final Map<String, String> responseHeaders = new LinkedHashMap<>();
+        private boolean keepAlive;
+        private boolean responseSent;
+        private long responseRemaining;
+
+        private Exchange(String method, String target, Map<String, String> requestHeaders, InputStream in, OutputStream out) throws IOException {
+            this.method = method;
+            int queryIndex = target.indexOf('?');
+            this.rawPath = queryIndex < 0 ? target : target.substring(0, queryIndex);
+            this.rawQuery = queryIndex < 0 ? null : target.substring(queryIndex + 1);
+            this.requestHeaders = requestHeaders;
+            this.out = out;
+            this.keepAlive = !"close".equalsIgnoreCase(requestHeaders.get("Connection"));
+            if ("chunked".equalsIgnoreCase(requestHeaders.get("Transfer-Encoding"))) {
+                this.requestBody = new ChunkedInputStream(in);
+            } else {
+                String contentLength = requestHeaders.get("Content-Length");
+                this.requestBody = new BoundedInputStream(in, contentLength == null ? 0 : Long.parseLong(contentLength.trim()));
+            }
+            if ("100-continue".equalsIgnoreCase(requestHeaders.get("Expect"))) {
+                out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+            }
+        }
+
+        /**
+         * 读取下一个请求的请求行和请求头，连接关闭时返回 null
+         */
+        static Exchange read(InputStream in, OutputStream out) throws IOException {
+            String requestLine;
+            do {
+                requestLine = readLine(in);
+                if (requestLine == null) {
+                    return null;
+                }
+            } while (requestLine.isEmpty());
+            String[] parts = requestLine.split(" ", 3);
+            if (parts.length < 2) {
+                throw new IOException("bad request line: " + requestLine);
+            }
+            Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            String line;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                int index = line.indexOf(':');
+                if (index > 0) {
+                    headers.put(line.substring(0, index).trim(), line.substring(index + 1).trim());
+                }
+            }
+            return new Exchange(parts[0], parts[1], headers, in, out);
+        }
+
+        String getRequestMethod() {
+            return method;
+        }
+
+        String getRawPath() {
+            return rawPath;
+        }
+
+        String getRawQuery() {
+            return rawQuery;
+        }
+
+        /** 请求头，名称不区分大小写，没有时为 null */
+        String getRequestHeader(String headerName) {
+            return requestHeaders.get(headerName);
+        }
+
+        InputStream getRequestBody() {
+            return requestBody;
+        }
+
+        void setResponseHeader(String headerName, String value) {
+            responseHeaders.put(headerName, value);
+        }
+
+        /**
+         * 发送状态行和响应头
+         * @param length 响应体长度，-1 表示没有响应体（已设置 Content-Length 时保留，用于 HEAD）
+         */
+        void sendResponseHeaders(int status, long length) throws IOException {
+            if (responseSent) {
+                throw new IllegalStateException("response already sent");
+            }
+            responseSent = true;
+            if (length >= 0 || !responseHeaders.containsKey("Content-Length")) {
+                responseHeaders.put("Content-Length", String.valueOf(Math.max(0, length)));
+            }
+            boolean head = "HEAD".equals(method);
+            responseRemaining = head ? 0 : Math.max(0, length);
+            StringBuilder header = new StringBuilder(256).append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+            header.append("Server: FakeObjectStore\r\n");
+            for (Map.Entry<String, String> entry : responseHeaders.entrySet()) {
+                header.append(entry.getKey()).append(": ").append(entry.getValue()).append("\r\n");
+            }
+            if (!keepAlive) {
+                header.append("Connection: close\r\n");
+            }
+            header.append("\r\n");
+            out.write(header.toString().getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        /**
+         * 响应体，写入的长度应与 sendResponseHeaders 的长度一致，关闭时只刷新
+         */
+        OutputStream getResponseBody() {
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    responseRemaining -= len;
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void write(int b) throws IOException {
+                    responseRemaining--;
+                    out.write(b);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    out.flush();
+                }
+            };
+        }
+
+        /**
+         * 结束本次请求：读完未读的请求体以便复用连接，刷新响应。
+         * 没有发送响应或响应体不完整时不再复用连接
+         */
+        void close() throws IOException {
+            if (!responseSent) {
+                keepAlive = false;
+                sendResponseHeaders(500, -1);
+            }
+            if (responseRemaining != 0) {
+                keepAlive = false;
+            }
+            if (keepAlive) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                while (requestBody.read(buffer) > 0) {
+                    // 丢弃
+                }
+            }
+            out.flush();
+        }
+
+        private static String reason(int status) {
+            switch (status) {
+                case 100:
+                    return "Continue";
+                case 200:
+                    return "OK";
+                case 204:
+                    return "No Content";
+                case 206:
+                    return "Partial Content";
+                case 400:
+                    return "Bad Request";
+                case 404:
+                    return "Not Found";
+                case 405:
+                    return "Method Not Allowed";
+                case 501:
+                    return "Not Implemented";
+                case 503:
+                    return "Slow Down";
+                default:
+                    return status >= 500 ? "Internal Server Error" : "Unknown";
+            }
+        }
+    }
+
+    /**
+     * 读取一行（去掉 CRLF），流结束且没有内容时返回 null
+     */
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        if (b < 0 && line.size() == 0) {
+            return null;
+        }
+        return line.toString("ISO-8859-1");
+    }
+
+    /**
+     * Content-Length 限定长度的请求体，关闭时不关闭连接
+     */
+    private static class BoundedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0) {
+                throw new IOException("unexpected end of request body");
+            }
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Transfer-Encoding: chunked 的请求体
+     */
+    private static class ChunkedInputStream extends InputStream {
+        private final InputStream in;
+        private long chunkRemaining;
+        private boolean finished;
+
+        ChunkedInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        private boolean nextChunk() throws IOException {
+            if (finished) {
+                return false;
+            }
+            if (chunkRemaining == 0) {
+                String sizeLine = readLine(in);
+                if (sizeLine == null) {
+                    throw new IOException("unexpected end of chunked body");
+                }
+                if (sizeLine.isEmpty()) {
+                    // 上一块末尾的 CRLF
+                    sizeLine = readLine(in);
+                }
+                chunkRemaining = Long.parseLong(sizeLine.split(";", 2)[0].trim(), 16);
+                if (chunkRemaining == 0) {
+                    String trailer;
+                    while ((trailer = readLine(in)) != null && !trailer.isEmpty()) {
+                        // 忽略 trailer
+                    }
+                    finished = true;
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!nextChunk()) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, chunkRemaining));
+            if (n < 0) {
+                throw new IOException("unexpected end of chunked body");
+            }
+            chunkRemaining -= n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,588 @@
+package com.rocks.benchmark;
+
+import com.rocks.utils.BandwidthLimiter;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 进程内的假对象存储，同时兼容 S3 和 OSS 的请求：列举、GET（含 Range）、HEAD、PUT、分段上传、取消分段上传。
+ * 请求不校验签名。可配置每个请求的延迟、整体带宽和限流（按比例返回 503）。
+ * 源端对象的内容按种子生成，不占内存；目的端只记录大小和 ETag，不保存内容
+ * @author zhuang
+ */
+public class FakeObjectStore {
+    private static final Logger logger = Logger.getLogger("FakeObjectStore.class");
+    /** 生成内容的循环块 */
+    private static final byte[] PATTERN = new byte[64 * 1024];
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    static {
+        ThreadLocalRandom.current().nextBytes(PATTERN);
+    }
+
+    private final String name;
+    private final FakeHttpServer server;
+    private final Map<String, NavigableMap<String, FakeObject>> buckets = new ConcurrentHashMap<>();
+    private final Map<String, Map<Integer, FakeObject>> uploads = new ConcurrentHashMap<>();
+    private final AtomicLong uploadIdSequence = new AtomicLong();
+    /** 每个请求的延迟，毫秒 */
+    private volatile long latencyMillis;
+    /** 返回 503 的比例 */
+    private volatile double throttleRate;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final LongAdder requestNum = new LongAdder();
+    private final LongAdder throttledNum = new LongAdder();
+    private final LongAdder receivedBytes = new LongAdder();
+    private final LongAdder sentBytes = new LongAdder();
+    /** 对象完整写入时的回调，用于统计单个对象的迁移耗时 */
+    private volatile ObjectListener objectListener;
+    /** 对象第一次被读取时的回调 */
+    private volatile ObjectListener firstReadListener;
+    private final Set<String> readKeys = ConcurrentHashMap.newKeySet();
+
+    public FakeObjectStore(String name) throws IOException {
+        this.name = name;
+        this.bandwidthLimiter = new BandwidthLimiter(name, 0);
+        this.server = new FakeHttpServer(name, this::handle);
+    }
+
+    public void start() {
+        server.start();
+        logger.info(name + " fake object store started at " + getEndpoint());
+    }
+
+    public void stop() {
+        server.stop();
+    }
+
+    /** 地址，如 127.0.0.1:12345 */
+    public String getEndpoint() {
+        return "127.0.0.1:" + server.getPort();
+    }
+
+    public void createBucket(String bucket) {
+        buckets.computeIfAbsent(bucket, k -> new ConcurrentSkipListMap<>());
+    }
+
+    /**
+     * 放入按种子生成内容的对象
+     */
+    public void putGenerated(String bucket, String key, long size) {
+        long seed = key.hashCode() & 0xFFFFL;
+        // 大对象不计算 MD5，使用分段上传形式的 ETag，SDK 不校验
+        String eTag = size <= 64 * 1024 * 1024 ? md5Hex(seed, size) : md5Hex(seed, 0) + "-1";
+        buckets.computeIfAbsent(bucket, k -> new ConcurrentSkipListMap<>()).put(key, new FakeObject(size, eTag, seed));
+    }
+
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    public void setThrottleRate(double throttleRate) {
+        this.throttleRate = throttleRate;
+    }
+
+    /**
+     * @param bytesPerSecond 整体带宽，0 表示不限
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        bandwidthLimiter.setRate(bytesPerSecond);
+    }
+
+    public void setObjectListener(ObjectListener objectListener) {
+        this.objectListener = objectListener;
+    }
+
+    public void setFirstReadListener(ObjectListener firstReadListener) {
+        this.firstReadListener = firstReadListener;
+    }
+
+    public int getObjectCount(String bucket) {
+        NavigableMap<String, FakeObject> objects = buckets.get(bucket);
+        return objects == null ? 0 : objects.size();
+    }
+
+    public long getTotalSize(String bucket) {
+        NavigableMap<String, FakeObject> objects = buckets.get(bucket);
+        return objects == null ? 0 : objects.values().stream().mapToLong(o -> o.size).sum();
+    }
+
+    public long getRequestNum() {
+        return requestNum.sum();
+    }
+
+    public long getThrottledNum() {
+        return throttledNum.sum();
+    }
+
+    private void handle(FakeHttpServer.Exchange exchange) throws IOException {
+        requestNum.increment();
+        try {
+            if (latencyMillis > 0) {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            }
+            Request request = parse(exchange);
+            if (throttleRate > 0 && request.key != null && ThreadLocalRandom.current().nextDouble() < throttleRate) {
+                throttledNum.increment();
+                drain(exchange.getRequestBody());
+                sendError(exchange, 503, "SlowDown", "Please reduce your request rate.");
+                return;
+            }
+            NavigableMap<String, FakeObject> objects = request.bucket == null ? null : buckets.get(request.bucket);
+            if (request.bucket != null && objects == null) {
+                drain(exchange.getRequestBody());
+                sendError(exchange, 404, "NoSuchBucket", "The specified bucket does not exist.");
+                return;
+            }
+            String method = exchange.getRequestMethod();
+            if (request.bucket == null) {
+                listBuckets(exchange);
+            } else if (request.key == null) {
+                if ("GET".equals(method)) {
+                    listObjects(exchange, request.bucket, objects, request.params);
+                } else {
+                    send(exchange, 200, new byte[0]);
+                }
+            } else if ("GET".equals(method) || "HEAD".equals(method)) {
+                getObject(exchange, objects, request);
+            } else if ("PUT".equals(method)) {
+                putObject(exchange, objects, request);
+            } else if ("POST".equals(method) && request.params.containsKey("uploads")) {
+                initiateMultipartUpload(exchange, request);
+            } else if ("POST".equals(method) && request.params.containsKey("uploadId")) {
+                completeMultipartUpload(exchange, objects, request);
+            } else if ("DELETE".equals(method)) {
+                if (request.params.containsKey("uploadId")) {
+                    uploads.remove(request.params.get("uploadId"));
+                } else {
+                    objects.remove(request.key);
+                }
+                send(exchange, 204, null);
+            } else {
+                drain(exchange.getRequestBody());
+                sendError(exchange, 405, "MethodNotAllowed", method);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.debug(name + " request error.", e);
+        } catch (RuntimeException e) {
+            logger.error(name + " request error.", e);
+            sendError(exchange, 500, "InternalError", String.valueOf(e.getMessage()));
+        }
+    }
+
+    private void listBuckets(FakeHttpServer.Exchange exchange) throws IOException {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><ListAllMyBucketsResult>"
+                + "<Owner><ID>fake</ID><DisplayName>fake</DisplayName></Owner><Buckets>");
+        for (String bucket : new TreeSet<>(buckets.keySet())) {
+            xml.append("<Bucket><Name>").append(bucket).append("</Name><CreationDate>").append(isoDate(new Date()))
+                    .append("</CreationDate></Bucket>");
+        }
+        xml.append("</Buckets></ListAllMyBucketsResult>");
+        sendXml(exchange, 200, xml.toString());
+    }
+
+    private void listObjects(FakeHttpServer.Exchange exchange, String bucket, NavigableMap<String, FakeObject> objects, Map<String, String> params) throws IOException {
+        String prefix = params.getOrDefault("prefix", "");
+        String marker = params.getOrDefault("marker", "");
+        String delimiter = params.get("delimiter");
+        int maxKeys = Integer.parseInt(params.getOrDefault("max-keys", "1000"));
+        StringBuilder contents = new StringBuilder();
+        Set<String> commonPrefixes = new TreeSet<>();
+        int count = 0;
+        String lastKey = null;
+        boolean truncated = false;
+        NavigableMap<String, FakeObject> tail = marker.isEmpty() ? objects : objects.tailMap(marker, false);
+        if (!prefix.isEmpty() && prefix.compareTo(marker) > 0) {
+            tail = objects.tailMap(prefix, true);
+        }
+        for (Map.Entry<String, FakeObject> entry : tail.entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(prefix)) {
+                break;
+            }
+            if (count >= maxKeys) {
+                truncated = true;
+                break;
+            }
+            if (delimiter != null && !delimiter.isEmpty()) {
+                int index = key.indexOf(delimiter, prefix.length());
+                if (index >= 0) {
+                    String commonPrefix = key.substring(0, index + delimiter.length());
+                    if (commonPrefixes.add(commonPrefix)) {
+                        count++;
+                    }
+                    lastKey = key;
+                    continue;
+                }
+            }
+            FakeObject object = entry.getValue();
+            contents.append("<Contents><Key>").append(escape(key)).append("</Key><LastModified>").append(isoDate(new Date(object.lastModified)))
+                    .append("</LastModified><ETag>&quot;").append(object.eTag).append("&quot;</ETag><Size>").append(object.size)
+                    .append("</Size><StorageClass>STANDARD</StorageClass><Type>Normal</Type>")
+                    .append("<Owner><ID>fake</ID><DisplayName>fake</DisplayName></Owner></Contents>");
+            count++;
+            lastKey = key;
+        }
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><ListBucketResult><Name>")
+                .append(escape(bucket))
+                .append("</Name><Prefix>").append(escape(prefix)).append("</Prefix><Marker>").append(escape(marker))
+                .append("</Marker><MaxKeys>").append(maxKeys).append("</MaxKeys>");
+        if (delimiter != null) {
+            xml.append("<Delimiter>").append(escape(delimiter)).append("</Delimiter>");
+        }
+        xml.append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+        if (truncated && lastKey != null) {
+            xml.append("<NextMarker>").append(escape(lastKey)).append("</NextMarker>");
+        }
+        xml.append(contents);
+        for (String commonPrefix : commonPrefixes) {
+            xml.append("<CommonPrefixes><Prefix>").append(escape(commonPrefix)).append("</Prefix></CommonPrefixes>");
+        }
+        xml.append("</ListBucketResult>");
+        sendXml(exchange, 200, xml.toString());
+    }
+
+    private void getObject(FakeHttpServer.Exchange exchange, NavigableMap<String, FakeObject> objects, Request request) throws IOException {
+        FakeObject object = objects.get(request.key);
+        if (object == null) {
+            sendError(exchange, 404, "NoSuchKey", "The specified key does not exist.");
+            return;
+        }
+        long start = 0;
+        long end = object.size - 1;
+        String range = exchange.getRequestHeader("Range");
+        boolean partial = range != null && range.startsWith("bytes=") && object.size > 0;
+        if (partial) {
+            String[] bounds = range.substring("bytes=".length()).split("-", 2);
+            start = Long.parseLong(bounds[0]);
+            if (bounds.length > 1 && !bounds[1].isEmpty()) {
+                end = Math.min(end, Long.parseLong(bounds[1]));
+            }
+        }
+        long length = Math.max(0, end - start + 1);
+        exchange.setResponseHeader("ETag", "\"" + object.eTag + "\"");
+        exchange.setResponseHeader("Last-Modified", httpDate(new Date(object.lastModified)));
+        exchange.setResponseHeader("Content-Type", "application/octet-stream");
+        exchange.setResponseHeader("Accept-Ranges", "bytes");
+        if (partial) {
+            exchange.setResponseHeader("Content-Range", "bytes " + start + "-" + end + "/" + object.size);
+        }
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.setResponseHeader("Content-Length", String.valueOf(object.size));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        ObjectListener listener = firstReadListener;
+        if (listener != null && readKeys.add(request.key)) {
+            listener.onObject(request.key, object.size, System.nanoTime());
+        }
+        exchange.sendResponseHeaders(partial ? 206 : 200, length == 0 ? -1 : length);
+        if (length == 0) {
+            return;
+        }
+        try (OutputStream out = exchange.getResponseBody()) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long position = start;
+            while (position <= end) {
+                int n = (int) Math.min(buffer.length, end - position + 1);
+                object.fill(buffer, position, n);
+                throttle(n);
+                out.write(buffer, 0, n);
+                position += n;
+            }
+            sentBytes.add(length);
+        }
+    }
+
+    private void putObject(FakeHttpServer.Exchange exchange, NavigableMap<String, FakeObject> objects, Request request) throws IOException {
+        if (exchange.getRequestHeader("x-amz-copy-source") != null || exchange.getRequestHeader("x-oss-copy-source") != null) {
+            drain(exchange.getRequestBody());
+            sendError(exchange, 501, "NotImplemented", "copy is not supported by the fake store");
+            return;
+        }
+        MessageDigest md5 = newMd5();
+        long size = readBody(exchange, md5);
+        String eTag = toHex(md5.digest());
+        if (request.params.containsKey("uploadId")) {
+            Map<Integer, FakeObject> parts = uploads.get(request.params.get("uploadId"));
+            if (parts == null) {
+                sendError(exchange, 404, "NoSuchUpload", "The specified upload does not exist.");
+                return;
+            }
+            parts.put(Integer.parseInt(request.params.get("partNumber")), new FakeObject(size, eTag, 0));
+        } else {
+            objects.put(request.key, new FakeObject(size, eTag, 0));
+            ObjectListener listener = objectListener;
+            if (listener != null) {
+                listener.onObject(request.key, size, System.nanoTime());
+            }
+        }
+        exchange.setResponseHeader("ETag", "\"" + eTag + "\"");
+        send(exchange, 200, null);
+    }
+
+    private void initiateMultipartUpload(FakeHttpServer.Exchange exchange, Request request) throws IOException {
+        drain(exchange.getRequestBody());
+        String uploadId = name + "-" + uploadIdSequence.incrementAndGet();
+        uploads.put(uploadId, new ConcurrentHashMap<>());
+        sendXml(exchange, 200, "<?xml version=\"1.0\" encoding=\"UTF-8\"?><InitiateMultipartUploadResult><Bucket>" + escape(request.bucket)
+                + "</Bucket><Key>" + escape(request.key) + "</Key><UploadId>" + uploadId + "</UploadId></InitiateMultipartUploadResult>");
+    }
+
+    private void completeMultipartUpload(FakeHttpServer.Exchange exchange, NavigableMap<String, FakeObject> objects, Request request) throws IOException {
+        drain(exchange.getRequestBody());
+        Map<Integer, FakeObject> parts = uploads.remove(request.params.get("uploadId"));
+        if (parts == null) {
+            sendError(exchange, 404, "NoSuchUpload", "The specified upload does not exist.");
+            return;
+        }
+        long size = 0;
+        MessageDigest md5 = newMd5();
+        for (int i = 1; i <= parts.size(); i++) {
+            FakeObject part = parts.get(i);
+            if (part == null) {
+                sendError(exchange, 400, "InvalidPart", "part " + i + " is missing");
+                return;
+            }
+            size += part.size;
+            md5.update(part.eTag.getBytes(StandardCharsets.UTF_8));
+        }
+        String eTag = toHex(md5.digest()) + "-" + parts.size();
+        objects.put(request.key, new FakeObject(size, eTag, 0));
+        ObjectListener listener = objectListener;
+        if (listener != null) {
+            listener.onObject(request.key, size, System.nanoTime());
+        }
+        sendXml(exchange, 200, "<?xml version=\"1.0\" encoding=\"UTF-8\"?><CompleteMultipartUploadResult><Location>http://" + getEndpoint()
+                + "/" + escape(request.bucket) + "/" + escape(request.key) + "</Location><Bucket>" + escape(request.bucket)
+                + "</Bucket><Key>" + escape(request.key) + "</Key><ETag>&quot;" + eTag + "&quot;</ETag></CompleteMultipartUploadResult>");
+    }
+
+    /**
+     * 读取请求体并计算 MD5，支持 S3 的 aws-chunked 编码
+     * @return 内容长度
+     */
+    private long readBody(FakeHttpServer.Exchange exchange, MessageDigest md5) throws IOException {
+        String contentSha256 = exchange.getRequestHeader("x-amz-content-sha256");
+        InputStream in = exchange.getRequestBody();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+        if (contentSha256 != null && contentSha256.startsWith("STREAMING-")) {
+            while (true) {
+                String chunkHeader = FakeHttpServer.readLine(in);
+                if (chunkHeader == null) {
+                    throw new IOException("unexpected end of aws-chunked body");
+                }
+                int chunkSize = Integer.parseInt(chunkHeader.split(";", 2)[0].trim(), 16);
+                if (chunkSize == 0) {
+                    drain(in);
+                    break;
+                }
+                int remaining = chunkSize;
+                while (remaining > 0) {
+                    int n = in.read(buffer, 0, Math.min(buffer.length, remaining));
+                    if (n < 0) {
+                        throw new IOException("unexpected end of aws-chunked body");
+                    }
+                    md5.update(buffer, 0, n);
+                    throttle(n);
+                    remaining -= n;
+                }
+                size += chunkSize;
+                FakeHttpServer.readLine(in);
+            }
+        } else {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                md5.update(buffer, 0, n);
+                throttle(n);
+                size += n;
+            }
+        }
+        receivedBytes.add(size);
+        return size;
+    }
+
+    private void throttle(int bytes) throws IOException {
+        try {
+            bandwidthLimiter.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (in.read(buffer) > 0) {
+            // 丢弃
+        }
+    }
+
+    private Request parse(FakeHttpServer.Exchange exchange) throws UnsupportedEncodingException {
+        Request request = new Request();
+        String path = decode(exchange.getRawPath());
+        String host = exchange.getRequestHeader("Host");
+        String hostName = host == null ? "" : host.split(":")[0];
+        if (!hostName.isEmpty() && !Character.isDigit(hostName.charAt(0)) && !"localhost".equals(hostName) && hostName.contains(".")) {
+            // 虚拟主机形式：bucket.host/key
+            request.bucket = hostName.substring(0, hostName.indexOf('.'));
+            request.key = path.length() > 1 ? path.substring(1) : null;
+        } else {
+            String[] bucketAndKey = path.length() > 1 ? path.substring(1).split("/", 2) : new String[0];
+            request.bucket = bucketAndKey.length > 0 && !bucketAndKey[0].isEmpty() ? bucketAndKey[0] : null;
+            request.key = bucketAndKey.length > 1 && !bucketAndKey[1].isEmpty() ? bucketAndKey[1] : null;
+        }
+        String query = exchange.getRawQuery();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                if (param.isEmpty()) {
+                    continue;
+                }
+                String[] nameAndValue = param.split("=", 2);
+                request.params.put(decode(nameAndValue[0]), nameAndValue.length > 1 ? decode(nameAndValue[1]) : "");
+            }
+        }
+        return request;
+    }
+
+    private static String decode(String value) throws UnsupportedEncodingException {
+        return URLDecoder.decode(value.replace("+", "%2B"), "UTF-8");
+    }
+
+    private void sendXml(FakeHttpServer.Exchange exchange, int status, String xml) throws IOException {
+        exchange.setResponseHeader("Content-Type", "application/xml");
+        send(exchange, status, xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void sendError(FakeHttpServer.Exchange exchange, int status, String code, String message) throws IOException {
+        sendXml(exchange, status, "<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>" + code + "</Code><Message>" + escape(message)
+                + "</Message><RequestId>" + Long.toHexString(System.nanoTime()) + "</RequestId><HostId>" + name + "</HostId></Error>");
+    }
+
+    private static void send(FakeHttpServer.Exchange exchange, int status, byte[] body) throws IOException {
+        String requestId = Long.toHexString(System.nanoTime());
+        exchange.setResponseHeader("x-amz-request-id", requestId);
+        exchange.setResponseHeader("x-oss-request-id", requestId);
+        if (body == null || body.length == 0) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static String isoDate(Date date) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+
+    private static String httpDate(Date date) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+
+    private static String md5Hex(long seed, long size) {
+        MessageDigest md5 = newMd5();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        FakeObject object = new FakeObject(size, "", seed);
+        for (long position = 0; position < size; position += buffer.length) {
+            int n = (int) Math.min(buffer.length, size - position);
+            object.fill(buffer, position, n);
+            md5.update(buffer, 0, n);
+        }
+        return toHex(md5.digest());
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * 对象事件回调
+     */
+    public interface ObjectListener {
+        /**
+         * @param nanoTime 事件时间，System.nanoTime()
+         */
+        void onObject(String key, long size, long nanoTime);
+    }
+
+    private static class Request {
+        private String bucket;
+        private String key;
+        private final Map<String, String> params = new HashMap<>();
+    }
+
+    /**
+     * 对象：内容按种子从 PATTERN 生成，种子为 0 的目的端对象不再读取内容
+     */
+    private static class FakeObject {
+        private final long size;
+        private final String eTag;
+        private final long seed;
+        private final long lastModified = System.currentTimeMillis();
+
+        FakeObject(long size, String eTag, long seed) {
+            this.size = size;
+            this.eTag = eTag;
+            this.seed = seed;
+        }
+
+        void fill(byte[] buffer, long position, int length) {
+            int offset = (int) ((position + seed) % PATTERN.length);
+            int filled = 0;
+            while (filled < length) {
+                int n = Math.min(length - filled, PATTERN.length - offset);
+                System.arraycopy(PATTERN, offset, buffer, filled, n);
+                filled += n;
+                offset = 0;
+            }
+        }
+    }
+}
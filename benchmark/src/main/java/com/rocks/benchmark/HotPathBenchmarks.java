@@ -0,0 +1,36 @@
+package com.rocks.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 运行每个对象热路径的 JMH 基准，默认带分配统计（-prof gc），关注 gc.alloc.rate.norm：单个对象分配的字节数。
+ * 参数与 JMH 命令行相同，如只运行元数据转换：
+ * <pre>
+ * java com.rocks.benchmark.HotPathBenchmarks MetadataConvertBenchmark -p userMetadataNum=4
+ * </pre>
+ * @author zhuang
+ */
+public class HotPathBenchmarks {
+    private static final String[] DEFAULT_INCLUDES = {
+            "MetadataConvertBenchmark", "KeyRewriteBenchmark", "SubmitBenchmark", "CountBenchmark", "LogBenchmark"
+    };
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        if (commandLine.getIncludes().isEmpty()) {
+            for (String include : DEFAULT_INCLUDES) {
+                builder.include(include);
+            }
+        }
+        if (commandLine.getProfilers().isEmpty()) {
+            builder.addProfiler(GCProfiler.class);
+        }
+        Options options = builder.parent(commandLine).build();
+        new Runner(options).run();
+    }
+}
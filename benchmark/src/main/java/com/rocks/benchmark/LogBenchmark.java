@@ -0,0 +1,75 @@
+package com.rocks.benchmark;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.WriterAppender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个对象的日志：迁移代码中 logger.debug(uuid + " ... key: " + key) 形式的拼接，
+ * 级别关闭时拼接仍然执行；级别打开时再加上格式化和输出（输出到空 Writer，不计磁盘）
+ * @author zhuang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogBenchmark {
+    private static final int KEY_NUM = 1024;
+
+    private final Logger disabled = Logger.getLogger("LogBenchmark.disabled");
+    private final Logger enabled = Logger.getLogger("LogBenchmark.enabled");
+    private final String uuid = "3f1c2a9e-5b7d-4e0a-9c61-2d8f4b7e1a05";
+    private final String[] keys = new String[KEY_NUM];
+    private int index;
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < KEY_NUM; i++) {
+            keys[i] = "user" + (i % 37) + "/photos/IMG_" + (100000 + i) + ".jpg";
+        }
+        disabled.setLevel(Level.INFO);
+        disabled.setAdditivity(false);
+        enabled.setLevel(Level.DEBUG);
+        enabled.setAdditivity(false);
+        enabled.addAppender(new WriterAppender(new PatternLayout("%d %-5p [%t] %c - %m%n"), Writer.nullWriter()));
+    }
+
+    private String nextKey() {
+        index = (index + 1) & (KEY_NUM - 1);
+        return keys[index];
+    }
+
+    @Benchmark
+    public void debugDisabled() {
+        disabled.debug(uuid + " serverSideCopy success. key: " + nextKey());
+    }
+
+    @Benchmark
+    public void debugDisabledGuarded() {
+        String key = nextKey();
+        if (disabled.isDebugEnabled()) {
+            disabled.debug(uuid + " serverSideCopy success. key: " + key);
+        }
+    }
+
+    @Benchmark
+    public void debugEnabled() {
+        enabled.debug(uuid + " serverSideCopy success. key: " + nextKey());
+    }
+}
@@ -0,0 +1,259 @@
+package com.rocks.benchmark;
+
+import com.rocks.service.oto.MossToMoss;
+import com.rocks.service.oto.MossToOss;
+import com.rocks.service.oto.ObjectToObjectBase;
+import com.rocks.service.oto.OssToMoss;
+import com.rocks.service.oto.OssToOss;
+import com.rocks.service.oto.SharedClientCache;
+import com.rocks.utils.PrometheusExporter;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 端到端迁移吞吐基准：启动两个进程内的假对象存储作为源端和目的端，按标准负载填充源端，
+ * 用 MossToMoss、OssToMoss、OssToOss、MossToOss 迁移，输出 对象数/秒、MB/秒 和单个对象迁移耗时的 p50/p99/max。
+ * 单个对象的耗时从源端第一次读取该对象到目的端完整写入该对象。
+ * <pre>
+ * java com.rocks.benchmark.MigrateBenchmark --pair all --workload all --objects 100000 --workNum 64 \
+ *     --latency 1 --bandwidth 0 --throttle 0
+ * </pre>
+ * @author zhuang
+ */
+public class MigrateBenchmark {
+    private static final String ORG_BUCKET = "org";
+    private static final String TARGET_BUCKET = "target";
+    private static final long MB = 1024 * 1024L;
+
+    private final Map<String, String> options;
+
+    public MigrateBenchmark(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        Logger.getRootLogger().setLevel(Level.toLevel(options.getOrDefault("log", "WARN")));
+        if (options.containsKey("metricsPort")) {
+            PrometheusExporter.start("127.0.0.1", Integer.parseInt(options.get("metricsPort")));
+        }
+        MigrateBenchmark benchmark = new MigrateBenchmark(options);
+        List<String> pairs = expand(options.getOrDefault("pair", "all"), "MossToMoss", "OssToMoss", "OssToOss", "MossToOss");
+        List<String> workloads = expand(options.getOrDefault("workload", "all"), "tiny", "mixed", "huge");
+        System.out.println(Result.header());
+        for (String workload : workloads) {
+            for (String pair : pairs) {
+                System.out.println(benchmark.run(pair, Workload.valueOf(workload.toUpperCase())));
+            }
+        }
+        System.exit(0);
+    }
+
+    private static List<String> expand(String value, String... all) {
+        return "all".equals(value) ? Arrays.asList(all) : Arrays.asList(value.split(","));
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(options.getOrDefault(name, String.valueOf(defaultValue)));
+    }
+
+    /**
+     * 运行一组 迁移类型 × 负载
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public Result run(String pair, Workload workload) throws Exception {
+        int workNum = intOption("workNum", 64);
+        FakeObjectStore org = new FakeObjectStore("org");
+        FakeObjectStore target = new FakeObjectStore("target");
+        try {
+            for (FakeObjectStore store : Arrays.asList(org, target)) {
+                store.setLatencyMillis(Long.parseLong(options.getOrDefault("latency", "0")));
+                store.setBandwidth(Long.parseLong(options.getOrDefault("bandwidth", "0")) * MB);
+                store.setThrottleRate(Double.parseDouble(options.getOrDefault("throttle", "0")));
+                store.start();
+            }
+            target.createBucket(TARGET_BUCKET);
+            int objectNum = workload.populate(org, ORG_BUCKET, intOption("objects", workload.defaultObjects));
+            long totalBytes = org.getTotalSize(ORG_BUCKET);
+
+            // 单个对象耗时：源端第一次读取到目的端写入完成
+            Map<String, Long> firstRead = new ConcurrentHashMap<>();
+            long[] latencies = new long[objectNum];
+            AtomicInteger latencyNum = new AtomicInteger();
+            org.setFirstReadListener((key, size, nanoTime) -> firstRead.putIfAbsent(key, nanoTime));
+            target.setObjectListener((key, size, nanoTime) -> {
+                Long start = firstRead.get(key);
+                int index = latencyNum.getAndIncrement();
+                if (start != null && index < latencies.length) {
+                    latencies[index] = nanoTime - start;
+                }
+            });
+
+            String uuid = "bench-" + pair + "-" + workload.name().toLowerCase() + "-" + UUID.randomUUID().toString().substring(0, 8);
+            boolean orgOss = pair.startsWith("Oss");
+            boolean targetOss = pair.endsWith("ToOss");
+            int maxConnections = workNum * 2 + 64;
+            SharedClientCache.Lease<?> orgLease = orgOss
+                    ? SharedClientCache.acquireOss(org.getEndpoint(), "ak", "sk", "http", maxConnections)
+                    : SharedClientCache.acquireS3(org.getEndpoint(), "ak", "sk", "http", maxConnections);
+            SharedClientCache.Lease<?> targetLease = targetOss
+                    ? SharedClientCache.acquireOss(target.getEndpoint(), "ak", "sk", "http", maxConnections)
+                    : SharedClientCache.acquireS3(target.getEndpoint(), "ak", "sk", "http", maxConnections);
+            ObjectToObjectBase oto = newMigrate(pair);
+            oto.setWorkNum(workNum);
+            oto.setCopyMode(false);
+            oto.setJournalDir(null);
+            oto.setFailedLogDir(null);
+            oto.setVirtualThreads(Boolean.parseBoolean(options.getOrDefault("virtualThreads", "false")));
+            oto.setAdaptiveConcurrency(Boolean.parseBoolean(options.getOrDefault("adaptive", "false")));
+            oto.setOrgClient(orgLease.getClient());
+            oto.setTargetClient(targetLease.getClient());
+            oto.addClientLease(orgLease);
+            oto.addClientLease(targetLease);
+
+            long begin = System.nanoTime();
+            oto.start(ORG_BUCKET, TARGET_BUCKET, null, null, uuid, "", "");
+            oto.getJobTracker().getCompletion().get(intOption("timeout", 3600), TimeUnit.SECONDS);
+            long elapsed = System.nanoTime() - begin;
+
+            int migrated = target.getObjectCount(TARGET_BUCKET);
+            long[] recorded = Arrays.copyOf(latencies, Math.min(latencyNum.get(), latencies.length));
+            Arrays.sort(recorded);
+            return new Result(pair, workload, objectNum, migrated, totalBytes, elapsed, recorded,
+                    org.getThrottledNum() + target.getThrottledNum());
+        } finally {
+            org.stop();
+            target.stop();
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static ObjectToObjectBase newMigrate(String pair) {
+        switch (pair) {
+            case "MossToMoss":
+                return new MossToMoss();
+            case "MossToOss":
+                return new MossToOss();
+            case "OssToMoss":
+                return new OssToMoss();
+            case "OssToOss":
+                return new OssToOss();
+            default:
+                throw new IllegalArgumentException("unknown pair: " + pair);
+        }
+    }
+
+    /**
+     * 标准负载
+     */
+    public enum Workload {
+        /** 大量 1KB 的小对象 */
+        TINY(1000000) {
+            @Override
+            int populate(FakeObjectStore store, String bucket, int objects) {
+                for (int i = 0; i < objects; i++) {
+                    store.putGenerated(bucket, String.format("tiny/%08d", i), 1024);
+                }
+                return objects;
+            }
+        },
+        /** 大小混合：多数几十 KB，部分几 MB，少量超过分段阈值 */
+        MIXED(10000) {
+            @Override
+            int populate(FakeObjectStore store, String bucket, int objects) {
+                for (int i = 0; i < objects; i++) {
+                    long size;
+                    if (i % 1000 == 999) {
+                        size = 1100 * MB;
+                    } else if (i % 10 == 9) {
+                        size = 4 * MB + i;
+                    } else {
+                        size = 16 * 1024 + (i * 131L) % (112 * 1024);
+                    }
+                    store.putGenerated(bucket, String.format("mixed/%08d", i), size);
+                }
+                return objects;
+            }
+        },
+        /** 少量超大对象，全部分段迁移 */
+        HUGE(4) {
+            @Override
+            int populate(FakeObjectStore store, String bucket, int objects) {
+                for (int i = 0; i < objects; i++) {
+                    store.putGenerated(bucket, String.format("huge/%04d", i), 4096 * MB);
+                }
+                return objects;
+            }
+        };
+
+        private final int defaultObjects;
+
+        Workload(int defaultObjects) {
+            this.defaultObjects = defaultObjects;
+        }
+
+        /**
+         * 填充源端
+         * @return 对象数
+         */
+        abstract int populate(FakeObjectStore store, String bucket, int objects);
+    }
+
+    /**
+     * 一组的结果
+     */
+    public static class Result {
+        private final String pair;
+        private final Workload workload;
+        private final int objects;
+        private final int migrated;
+        private final long bytes;
+        private final long elapsedNanos;
+        private final long[] sortedLatencies;
+        private final long throttled;
+
+        Result(String pair, Workload workload, int objects, int migrated, long bytes, long elapsedNanos, long[] sortedLatencies, long throttled) {
+            this.pair = pair;
+            this.workload = workload;
+            this.objects = objects;
+            this.migrated = migrated;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+            this.sortedLatencies = sortedLatencies;
+            this.throttled = throttled;
+        }
+
+        static String header() {
+            return String.format("%-10s %-6s %9s %9s %10s %10s %10s %9s %9s %9s %9s",
+                    "pair", "load", "objects", "migrated", "seconds", "objects/s", "MB/s", "p50(ms)", "p99(ms)", "max(ms)", "throttled");
+        }
+
+        private double percentileMillis(double percentile) {
+            if (sortedLatencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.min(sortedLatencies.length - 1, Math.ceil(percentile * sortedLatencies.length) - 1);
+            return sortedLatencies[Math.max(0, index)] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            return String.format("%-10s %-6s %9d %9d %10.2f %10.1f %10.1f %9.1f %9.1f %9.1f %9d",
+                    pair, workload.name().toLowerCase(), objects, migrated, seconds, migrated / seconds, bytes / (double) MB / seconds,
+                    percentileMillis(0.5), percentileMillis(0.99), percentileMillis(1.0), throttled);
+        }
+    }
+}
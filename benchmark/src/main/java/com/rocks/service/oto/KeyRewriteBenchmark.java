@@ -0,0 +1,70 @@
+package com.rocks.service.oto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 源端对象名到目的端对象名的改写：toTargetKey 和各迁移 moveObject 中的 replaceFirst(originalDir, "")。
+ * replaceFirst 每次调用都编译一次正则；prefix 为前缀改写，作为不走正则时的对照
+ * @author zhuang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeyRewriteBenchmark {
+    private static final int KEY_NUM = 1024;
+
+    /** 源端目录，空串为整桶迁移 */
+    @Param({"", "data/2024/"})
+    private String originalDir;
+
+    private final String targetDir = "backup/";
+    private String[] keys;
+    private ObjectToObjectBase<?, ?> migrate;
+    private int index;
+
+    @Setup
+    public void setup() {
+        keys = new String[KEY_NUM];
+        for (int i = 0; i < KEY_NUM; i++) {
+            keys[i] = originalDir + "user" + (i % 37) + "/photos/IMG_" + (100000 + i) + ".jpg";
+        }
+        migrate = new MossToMoss();
+    }
+
+    private String nextKey() {
+        index = (index + 1) & (KEY_NUM - 1);
+        return keys[index];
+    }
+
+    @Benchmark
+    public String toTargetKey() {
+        return migrate.toTargetKey(nextKey(), originalDir, targetDir);
+    }
+
+    @Benchmark
+    public String replaceFirst() {
+        return targetDir + nextKey().replaceFirst(originalDir, "");
+    }
+
+    @Benchmark
+    public void prefix(Blackhole blackhole) {
+        String key = nextKey();
+        blackhole.consume(key.startsWith(originalDir) ? targetDir + key.substring(originalDir.length()) : targetDir + key);
+    }
+}
@@ -0,0 +1,73 @@
+package com.rocks.service.oto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 跨厂商迁移每个对象的元数据转换：OssToMoss.toS3ObjectMetadata、MossToOss.toOssObjetMetadata。
+ * 元数据取典型的 GET 响应头，用户元数据个数可调
+ * @author zhuang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetadataConvertBenchmark {
+    @Param({"0", "4", "16"})
+    private int userMetadataNum;
+
+    private com.aliyun.oss.model.ObjectMetadata ossMetadata;
+    private com.amazonaws.services.s3.model.ObjectMetadata s3Metadata;
+
+    @Setup
+    public void setup() {
+        Date lastModified = new Date(1700000000000L);
+        ossMetadata = new com.aliyun.oss.model.ObjectMetadata();
+        ossMetadata.setContentLength(123456L);
+        ossMetadata.setContentType("application/octet-stream");
+        ossMetadata.setLastModified(lastModified);
+        ossMetadata.setHeader("ETag", "\"9b2cf535f27731c974343645a3985328\"");
+        ossMetadata.setHeader("x-oss-request-id", "5C3D9175B6FC201293AD4890");
+        ossMetadata.setHeader("x-oss-object-type", "Normal");
+        ossMetadata.setHeader("x-oss-storage-class", "Standard");
+        ossMetadata.setHeader("x-oss-hash-crc64ecma", "316181249502703710");
+
+        s3Metadata = new com.amazonaws.services.s3.model.ObjectMetadata();
+        s3Metadata.setContentLength(123456L);
+        s3Metadata.setContentType("application/octet-stream");
+        s3Metadata.setLastModified(lastModified);
+        s3Metadata.setHeader("ETag", "9b2cf535f27731c974343645a3985328");
+        s3Metadata.setHeader("x-amz-request-id", "tx00000000000000000001-0065a0b0c0");
+        s3Metadata.setHeader("Accept-Ranges", "bytes");
+        s3Metadata.setHeader("x-amz-storage-class", "STANDARD");
+
+        for (int i = 0; i < userMetadataNum; i++) {
+            ossMetadata.addUserMetadata("meta-" + i, "value-" + i);
+            s3Metadata.addUserMetadata("meta-" + i, "value-" + i);
+        }
+    }
+
+    @Benchmark
+    public com.amazonaws.services.s3.model.ObjectMetadata ossToS3() {
+        return OssToMoss.toS3ObjectMetadata(ossMetadata);
+    }
+
+    @Benchmark
+    public com.aliyun.oss.model.ObjectMetadata s3ToOss() {
+        return MossToOss.toOssObjetMetadata(s3Metadata);
+    }
+}
@@ -0,0 +1,102 @@
+package com.rocks.service.oto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个对象的提交开销：捕获对象信息的 lambda、线程池入队出队、完成通知。
+ * 每次调用提交一批空任务并等待全部执行完，结果为单个对象的提交到完成的耗时
+ * @author zhuang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubmitBenchmark {
+    private static final int BATCH = 10000;
+
+    @Param({"8", "64"})
+    private int workNum;
+
+    private ThreadPoolExecutor executor;
+    private TransferLane lane;
+    private TransferLane virtualLane;
+    private final Long size = 1024L;
+    private final String[] keys = new String[BATCH];
+
+    @Setup(Level.Trial)
+    public void setup() {
+        for (int i = 0; i < BATCH; i++) {
+            keys[i] = "dir/object-" + i;
+        }
+        executor = new ThreadPoolExecutor(workNum, workNum, 3000L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(BATCH));
+        lane = new TransferLane("bench", "small", workNum, BATCH);
+        virtualLane = new TransferLane("bench", "small-v", workNum, BATCH, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+        lane.shutdown();
+        virtualLane.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void threadPoolExecutor() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            String key = keys[i];
+            executor.execute(() -> {
+                if (key != null) {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void transferLane() throws InterruptedException {
+        submitBatch(lane);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void transferLaneVirtual() throws InterruptedException {
+        submitBatch(virtualLane);
+    }
+
+    private void submitBatch(TransferLane target) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            String key = keys[i];
+            target.execute(() -> {
+                if (key != null) {
+                    latch.countDown();
+                }
+            }, size);
+        }
+        latch.await();
+    }
+}
@@ -7,11 +7,14 @@ import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.ListObjectsRequest;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.rocks.constant.Constant;
+import com.rocks.constant.EngineTypeEnum;
 import com.rocks.constant.StorageTypeEnum;
 import com.rocks.service.ClientConfig;
 import com.rocks.service.ObjectService;
 import com.rocks.service.oto.*;
 import com.rocks.utils.CountMapCache;
+import com.rocks.utils.PrometheusExporter;
 import com.rocks.utils.SSHClient;
 import com.rocks.vo.ClientEntity;
 import com.rocks.vo.ClientEntityMap;
@@ -20,6 +23,7 @@ import org.apache.log4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.http.HttpClient;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -32,6 +36,7 @@ import java.util.concurrent.*;
 import java.util.stream.Collectors;
 
 public class Demo {
+    private static final Logger logger = Logger.getLogger("Demo.class");
 
     /**
      * 对象存储 迁移 对象存储
@@ -47,6 +52,21 @@ public class Demo {
                            String protocolType, List<String> failedList, String uuid, String originalType,
                            String targetType, String workNum, String multipartOverSize, String multipartSize,
                            String marker, String originalDir, String targetDir) {
+        moveObject(originalAddress, originalAk, originalSk, orgBucket, targetAddress, targetAk, targetSk, targetBucket,
+                protocolType, failedList, uuid, originalType, targetType, workNum, multipartOverSize, multipartSize,
+                marker, originalDir, targetDir, EngineTypeEnum.SYNC.getCode());
+    }
+
+    /**
+     * 对象存储 迁移 对象存储
+     *
+     * @param engineType 迁移引擎类型，见 EngineTypeEnum，异步引擎需要 Java 11 及以上
+     */
+    public void moveObject(String originalAddress, String originalAk, String originalSk, String orgBucket,
+                           String targetAddress, String targetAk, String targetSk, String targetBucket,
+                           String protocolType, List<String> failedList, String uuid, String originalType,
+                           String targetType, String workNum, String multipartOverSize, String multipartSize,
+                           String marker, String originalDir, String targetDir, String engineType) {
         int num;
         long migrateMaxSize;
         long migratePartSize;
@@ -62,35 +82,45 @@ public class Demo {
 
         ObjectToObjectBase oto = null;
         Object orgClient = null, targetClient = null;
-
-        ClientConfiguration clientConfiguration = new ClientConfiguration();
-        clientConfiguration.setSocketTimeout(360000);
+        // 共用的客户端，同一地址、AK、协议的迁移使用同一个连接池
+        SharedClientCache.Lease<?> orgLease = null, targetLease = null;
+        // 连接数：小对象通道、大对象通道的分段和分片列举同时使用
+        int maxConnections = num + Constant.LARGE_LANE_THREAD_SIZE * Constant.MIGRATE_PART_THREAD_SIZE + Constant.LIST_THREAD_SIZE;
 
         // moss 到 moss
         if (StorageTypeEnum.MOSS.getCode().equals(originalType) && StorageTypeEnum.MOSS.getCode().equals(targetType)) {
-            orgClient = ClientConfig.getS3Client(originalAddress, originalAk, originalSk, false, protocolType);
-            targetClient = ClientConfig.getS3Client(targetAddress, targetAk, targetSk, false, protocolType);
+            orgLease = SharedClientCache.acquireS3(originalAddress, originalAk, originalSk, protocolType, maxConnections);
+            targetLease = SharedClientCache.acquireS3(targetAddress, targetAk, targetSk, protocolType, maxConnections);
             oto = new MossToMoss();
-            oto.uuidAmazonS3ClientMap.put(uuid, (AmazonS3Client) targetClient);
+            oto.setCopyMode(ObjectToObjectBase.canServerSideCopy(originalAddress, targetAddress));
         }
         // moss 到 oss
         else if (StorageTypeEnum.MOSS.getCode().equals(originalType) && StorageTypeEnum.OSS.getCode().equals(targetType)) {
-            orgClient = ClientConfig.getS3Client(originalAddress, originalAk, originalSk, false, protocolType);
-            targetClient = new OSSClient(targetAddress, targetAk, targetSk);
+            orgLease = SharedClientCache.acquireS3(originalAddress, originalAk, originalSk, protocolType, maxConnections);
+            targetLease = SharedClientCache.acquireOss(targetAddress, targetAk, targetSk, protocolType, maxConnections);
             oto = new MossToOss();
         }
         // oss 到 moss
         else if (StorageTypeEnum.OSS.getCode().equals(originalType) && StorageTypeEnum.MOSS.getCode().equals(targetType)) {
-            orgClient = new OSSClient(originalAddress, originalAk, originalSk);
-            targetClient = ClientConfig.getS3Client(targetAddress, targetAk, targetSk, false, protocolType);
+            orgLease = SharedClientCache.acquireOss(originalAddress, originalAk, originalSk, protocolType, maxConnections);
+            targetLease = SharedClientCache.acquireS3(targetAddress, targetAk, targetSk, protocolType, maxConnections);
             oto = new OssToMoss();
-            oto.uuidAmazonS3ClientMap.put(uuid, (AmazonS3Client) targetClient);
         }
         // oss 到 oss
         else if (StorageTypeEnum.OSS.getCode().equals(originalType) && StorageTypeEnum.OSS.getCode().equals(targetType)) {
-            orgClient = new OSSClient(originalAddress, originalAk, originalSk, clientConfiguration);
-            targetClient = new OSSClient(targetAddress, targetAk, targetSk, clientConfiguration);
+            orgLease = SharedClientCache.acquireOss(originalAddress, originalAk, originalSk, protocolType, maxConnections);
+            targetLease = SharedClientCache.acquireOss(targetAddress, targetAk, targetSk, protocolType, maxConnections);
             oto = new OssToOss();
+            oto.setCopyMode(ObjectToObjectBase.canServerSideCopy(originalAddress, targetAddress));
+        }
+        if (orgLease != null && targetLease != null) {
+            orgClient = orgLease.getClient();
+            targetClient = targetLease.getClient();
+            oto.addClientLease(orgLease);
+            oto.addClientLease(targetLease);
+            if (targetClient instanceof AmazonS3Client) {
+                oto.uuidAmazonS3ClientMap.put(uuid, (AmazonS3Client) targetClient);
+            }
         }
         if (oto == null || orgClient == null || targetClient == null) {
             logger.error(uuid + " :moveObject(): oto or orgClient, targetClient is null. originalType: " + originalType + " targetType: " + targetType);
@@ -98,12 +128,38 @@ public class Demo {
         }
         ClientEntity clientEntity = new ClientEntity(originalAddress, originalAk, originalSk, protocolType, targetAddress, targetAk, targetSk, protocolType);
         ClientEntityMap.put(uuid, clientEntity);
+        startMetricsExporter(uuid);
         oto.setWorkNum(num);
         oto.setMigrateMaxSize(migrateMaxSize);
         oto.setMigratePartSize(migratePartSize);
         oto.setOrgClient(orgClient);
         oto.setTargetClient(targetClient);
+        if (EngineTypeEnum.ASYNC.getCode().equals(engineType)) {
+            ExecutorService ioExecutor = AsyncTransferEngine.newIoExecutor(uuid);
+            HttpClient httpClient = AsyncTransferEngine.newHttpClient(ioExecutor);
+            IAsyncOSS asyncOrg = StorageTypeEnum.OSS.getCode().equals(originalType)
+                    ? new AsyncOssObjectService(httpClient, originalAddress, originalAk, originalSk)
+                    : new AsyncMossObjectService(httpClient, originalAddress, originalAk, originalSk);
+            IAsyncOSS asyncTarget = StorageTypeEnum.OSS.getCode().equals(targetType)
+                    ? new AsyncOssObjectService(httpClient, targetAddress, targetAk, targetSk)
+                    : new AsyncMossObjectService(httpClient, targetAddress, targetAk, targetSk);
+            oto.setAsyncEngine(new AsyncTransferEngine(uuid, asyncOrg, asyncTarget, ioExecutor, Constant.ASYNC_MAX_CONCURRENCY));
+            logger.info(uuid + " :moveObject() use async engine.");
+        }
         oto.start(orgBucket, targetBucket, failedList, marker, uuid, originalDir, targetDir);
     }
-}
 
+    /**
+     * 启动迁移指标接口，进程内只启动一次。端口被占用等启动失败只记录日志，不影响迁移，下次迁移开始时再尝试
+     */
+    private static void startMetricsExporter(String uuid) {
+        if (Constant.METRICS_PORT <= 0) {
+            return;
+        }
+        try {
+            PrometheusExporter.start(Constant.METRICS_HOST, Constant.METRICS_PORT);
+        } catch (IOException e) {
+            logger.warn(uuid + " :moveObject() start metrics exporter failed. " + Constant.METRICS_HOST + ":" + Constant.METRICS_PORT, e);
+        }
+    }
+}
@@ -3,14 +3,84 @@ package com.rocks.constant;
 public class Constant {
     /** 分段迁移 超过该值采用分段 */
     public static final long MIGRATE_MAX_SIZE = 1024 * 1024 * 1024L;
+    /** S3 单次 CopyObject 的对象大小上限，超过时只能分段复制 */
+    public static final long S3_COPY_OBJECT_MAX_SIZE = 5 * 1024 * 1024 * 1024L;
+    /** OSS 单次 CopyObject 的对象大小上限，超过时只能分段复制 */
+    public static final long OSS_COPY_OBJECT_MAX_SIZE = 1024 * 1024 * 1024L;
     /** 分段迁移 每段大小 */
     public static final long MIGRATE_PART_SIZE = 200 * 1024 * 1024L;
+    /** 分段迁移 单个对象同时迁移的分段数 */
+    public static final int MIGRATE_PART_THREAD_SIZE = 4;
     /** 分段迁移 上传超时时间: 单位秒 */
     public static final int MIGRATE_UPLOAD_TIMEOUT = 2 * 60 * 60;
     /** 分段下载和分段上传重试次数 */
     public static final int RETRY_COUNT = 5;
     /** 默认线程数 */
     public static final int THREAD_SIZE = 10;
+    /** 自适应并发控制的最小线程数 */
+    public static final int MIN_THREAD_SIZE = 2;
+    /** 自适应并发控制的最大线程数 */
+    public static final int MAX_THREAD_SIZE = 200;
+    /** 大对象通道的线程数 */
+    public static final int LARGE_LANE_THREAD_SIZE = 4;
+    /** 不小于该值的对象走大对象通道 */
+    public static final long LARGE_OBJECT_SIZE = 100 * 1024 * 1024L;
+    /** 小对象通道队列长度 */
+    public static final int SMALL_LANE_QUEUE_SIZE = 100;
+    /** 大对象通道队列长度。大对象少，队列取大一些，避免列举线程阻塞在大对象通道上而使小对象通道空闲 */
+    public static final int LARGE_LANE_QUEUE_SIZE = 10000;
+    /** 迁移结束时等待通道线程退出的时间: 单位秒 */
+    public static final int LANE_TERMINATION_TIMEOUT = 60;
+    /** 全局调度器的总并发数，所有迁移共用 */
+    public static final int GLOBAL_THREAD_SIZE = 200;
+    /** 全局调度器同时迁移的总字节数上限 */
+    public static final long GLOBAL_MAX_INFLIGHT_BYTES = 8 * 1024 * 1024 * 1024L;
+    /** 全局调度时迁移的默认权重 */
+    public static final int DEFAULT_JOB_WEIGHT = 1;
+    /** 异步引擎同时迁移的对象数上限 */
+    public static final int ASYNC_MAX_CONCURRENCY = 10000;
+    /** 异步引擎 HttpClient 的线程数 */
+    public static final int ASYNC_IO_THREAD_SIZE = 4;
+    /** 异步引擎连接超时时间: 单位秒 */
+    public static final int ASYNC_CONNECT_TIMEOUT = 30;
+    /** 列举预取的分页数 */
+    public static final int LIST_PREFETCH_PAGE_SIZE = 2;
+    /** 并发列举的线程数 */
+    public static final int LIST_THREAD_SIZE = 8;
+    /** 平铺桶是否按键范围分片并发列举 */
+    public static final boolean LIST_SHARD = false;
+    /** 平铺桶按键范围分片的分界字符 */
+    public static final String LIST_SHARD_ALPHABET = "-.0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz";
+    /** 从失败对象日志重试时每批读取的数量 */
+    public static final int RETRY_BATCH_SIZE = 1000;
+    /** 共用客户端的连接池最小连接数 */
+    public static final int CLIENT_MIN_CONNECTIONS = 50;
+    /** 共用客户端的连接池最大连接数 */
+    public static final int CLIENT_MAX_CONNECTIONS = 2048;
+    /** 客户端读超时时间: 单位毫秒 */
+    public static final int CLIENT_SOCKET_TIMEOUT = 360000;
+    /** 连接池中连接的最大空闲时间: 单位秒 */
+    public static final int CLIENT_CONNECTION_IDLE_TIME = 60;
+    /** 无人使用的共用客户端的关闭时间: 单位秒 */
+    public static final int CLIENT_IDLE_TIMEOUT = 300;
+    /** 检查空闲客户端的间隔: 单位秒 */
+    public static final int CLIENT_EVICT_INTERVAL = 60;
+    /** 空闲超过该时间的共用客户端再次使用前检查服务端是否可达: 单位秒 */
+    public static final int CLIENT_HEALTH_CHECK_INTERVAL = 60;
+    /** 迁移计数同步到 CountMapCache 的间隔: 单位毫秒 */
+    public static final long COUNT_PUBLISH_INTERVAL = 1000;
+    /** 迁移进度估计的采样间隔: 单位秒 */
+    public static final int PROGRESS_SAMPLE_INTERVAL = 5;
+    /** 迁移吞吐指数加权平均的时间窗口，约为该时间内的平均: 单位秒 */
+    public static final double PROGRESS_EWMA_WINDOW = 60;
+    /** 有未完成的对象却超过该时间没有进展，视为停滞: 单位秒 */
+    public static final int PROGRESS_STALL_TIME = 300;
+    /** 是否默认在传输时校验 MD5/CRC64 */
+    public static final boolean VERIFY_CHECKSUM = true;
+    /** 迁移指标接口（Prometheus 格式，路径 /metrics）的监听地址，默认只允许本机访问 */
+    public static final String METRICS_HOST = "127.0.0.1";
+    /** 迁移指标接口的端口，不大于 0 时不启动 */
+    public static final int METRICS_PORT = 9464;
     /** 默认返回失败文件数 */
     public static final int RETURN_FAILED_DOC_SIZE = 1000;
 }
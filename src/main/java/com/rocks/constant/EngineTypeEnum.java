@@ -0,0 +1,21 @@
+package com.rocks.constant;
+
+/**
+ * 迁移引擎类型
+ */
+public enum EngineTypeEnum {
+    SYNC("0", "同步引擎，SDK 阻塞读写"),
+    ASYNC("1", "异步引擎，非阻塞 HTTP 客户端");
+
+    private String index;
+    private String name;
+
+    EngineTypeEnum(String index, String name) {
+        this.index = index;
+        this.name = name;
+    }
+
+    public String getCode() {
+        return index;
+    }
+}
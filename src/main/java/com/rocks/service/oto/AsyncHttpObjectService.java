@@ -0,0 +1,269 @@
+package com.rocks.service.oto;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 基于 java.net.http.HttpClient 的异步对象存储操作，S3 和 OSS 的请求格式相同，只有地址和签名方式不同，由子类实现
+ * @author zhuang
+ */
+public abstract class AsyncHttpObjectService implements IAsyncOSS {
+    private static final Pattern CODE_PATTERN = Pattern.compile("<Code>(.*?)</Code>");
+    private static final Pattern UPLOAD_ID_PATTERN = Pattern.compile("<UploadId>(.*?)</UploadId>");
+
+    protected final HttpClient client;
+    /** 服务地址，如 http://127.0.0.1:9000 */
+    protected final URI endpoint;
+    protected final String accessKey;
+    protected final String secretKey;
+
+    protected AsyncHttpObjectService(HttpClient client, String endpoint, String accessKey, String secretKey) {
+        this.client = client;
+        this.endpoint = URI.create(endpoint.contains("://") ? endpoint : "http://" + endpoint);
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+    }
+
+    /**
+     * 构造已签名的请求
+     * @param method 请求方法
+     * @param subResources 子资源，如 uploads、partNumber、uploadId，值为空字符串表示无值
+     * @param headers 参与签名的请求头，名字小写，如 Content-Type 和用户元数据
+     */
+    protected abstract HttpRequest.Builder newRequest(String method, String bucket, String key, TreeMap<String, String> subResources,
+                                                      TreeMap<String, String> headers);
+
+    /** 用户元数据请求头的前缀，如 x-amz-meta- */
+    protected abstract String userMetaPrefix();
+
+    private HttpRequest.Builder newRequest(String method, String bucket, String key, TreeMap<String, String> subResources) {
+        return newRequest(method, bucket, key, subResources, new TreeMap<>());
+    }
+
+    @Override
+    public CompletableFuture<AsyncObject> getObject(String bucket, String key) {
+        return get(newRequest("GET", bucket, key, new TreeMap<>()).GET());
+    }
+
+    @Override
+    public CompletableFuture<AsyncObject> getObjectRange(String bucket, String key, long start, long end) {
+        return get(newRequest("GET", bucket, key, new TreeMap<>()).header("Range", "bytes=" + start + "-" + end).GET());
+    }
+
+    private CompletableFuture<AsyncObject> get(HttpRequest.Builder builder) {
+        HttpResponse.BodyHandler<Flow.Publisher<List<ByteBuffer>>> handler = info -> {
+            if (info.statusCode() / 100 == 2) {
+                return HttpResponse.BodySubscribers.ofPublisher();
+            }
+            return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8), body -> {
+                throw toException("GET", info.statusCode(), body);
+            });
+        };
+        return client.sendAsync(builder.build(), handler).thenApply(response -> {
+            long contentLength = response.headers().firstValueAsLong("Content-Length").orElse(-1L);
+            AsyncObject object = new AsyncObject(contentLength, new FlattenPublisher(response.body()),
+                    AsyncObjectMetadata.of(response.headers().map(), userMetaPrefix()));
+            if (contentLength < 0) {
+                // 分块传输等没有 Content-Length 的响应无法作为定长请求体上传，按失败处理
+                object.discard();
+                throw new AsyncObjectException("GET no Content-Length.", response.statusCode(), null);
+            }
+            return object;
+        });
+    }
+
+    @Override
+    public CompletableFuture<AsyncObjectMetadata> headObject(String bucket, String key) {
+        HttpRequest.Builder builder = newRequest("HEAD", bucket, key, new TreeMap<>()).method("HEAD", HttpRequest.BodyPublishers.noBody());
+        return client.sendAsync(builder.build(), HttpResponse.BodyHandlers.discarding()).thenApply(response -> {
+            if (response.statusCode() / 100 != 2) {
+                // HEAD 响应没有响应体，没有错误码
+                throw new AsyncObjectException("HEAD failed.", response.statusCode(), null);
+            }
+            return AsyncObjectMetadata.of(response.headers().map(), userMetaPrefix());
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> putObject(String bucket, String key, AsyncObject object) {
+        HttpRequest.Builder builder = newRequest("PUT", bucket, key, new TreeMap<>(), object.getMetadata().toRequestHeaders(userMetaPrefix()))
+                .PUT(bodyOf(object));
+        return send("PUT", builder).thenApply(response -> null);
+    }
+
+    @Override
+    public CompletableFuture<String> initiateMultipartUpload(String bucket, String key, AsyncObjectMetadata metadata) {
+        TreeMap<String, String> subResources = new TreeMap<>();
+        subResources.put("uploads", "");
+        HttpRequest.Builder builder = newRequest("POST", bucket, key, subResources, metadata.toRequestHeaders(userMetaPrefix()))
+                .POST(HttpRequest.BodyPublishers.noBody());
+        return send("POST", builder).thenApply(response -> {
+            Matcher matcher = UPLOAD_ID_PATTERN.matcher(response.body());
+            if (!matcher.find()) {
+                throw new AsyncObjectException("initiateMultipartUpload no UploadId. body:" + response.body(), response.statusCode(), null);
+            }
+            return matcher.group(1);
+        });
+    }
+
+    @Override
+    public CompletableFuture<String> multiPartUpload(String bucket, String key, String uploadId, int partNumber, AsyncObject part) {
+        TreeMap<String, String> subResources = new TreeMap<>();
+        subResources.put("partNumber", String.valueOf(partNumber));
+        subResources.put("uploadId", uploadId);
+        HttpRequest.Builder builder = newRequest("PUT", bucket, key, subResources).PUT(bodyOf(part));
+        return send("PUT", builder).thenApply(response -> response.headers().firstValue("ETag")
+                .orElseThrow(() -> new AsyncObjectException("multiPartUpload no ETag. partNumber:" + partNumber, response.statusCode(), null)));
+    }
+
+    @Override
+    public CompletableFuture<Void> completeMultipartUpload(String bucket, String key, String uploadId, List<String> eTags) {
+        TreeMap<String, String> subResources = new TreeMap<>();
+        subResources.put("uploadId", uploadId);
+        StringBuilder xml = new StringBuilder("<CompleteMultipartUpload>");
+        for (int i = 0; i < eTags.size(); i++) {
+            xml.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>").append(eTags.get(i)).append("</ETag></Part>");
+        }
+        xml.append("</CompleteMultipartUpload>");
+        HttpRequest.Builder builder = newRequest("POST", bucket, key, subResources)
+                .POST(HttpRequest.BodyPublishers.ofString(xml.toString(), StandardCharsets.UTF_8));
+        return send("POST", builder).thenApply(response -> {
+            // 完成分段上传可能在 200 响应体中返回错误
+            if (response.body().contains("<Error>")) {
+                throw toException("completeMultipartUpload", response.statusCode(), response.body());
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> abortMultipartUpload(String bucket, String key, String uploadId) {
+        TreeMap<String, String> subResources = new TreeMap<>();
+        subResources.put("uploadId", uploadId);
+        HttpRequest.Builder builder = newRequest("DELETE", bucket, key, subResources).DELETE();
+        return send("DELETE", builder).thenApply(response -> null);
+    }
+
+    private CompletableFuture<HttpResponse<String>> send(String method, HttpRequest.Builder builder) {
+        return client.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)).thenApply(response -> {
+            if (response.statusCode() / 100 != 2) {
+                throw toException(method, response.statusCode(), response.body());
+            }
+            return response;
+        });
+    }
+
+    /**
+     * 上传的请求体：直接使用下载内容的 Publisher。空对象不能使用 fromPublisher，丢弃下载内容后发送空请求体
+     */
+    private static HttpRequest.BodyPublisher bodyOf(AsyncObject object) {
+        if (object.getContentLength() < 0) {
+            object.discard();
+            throw new AsyncObjectException("unknown content length.", 0, null);
+        }
+        if (object.getContentLength() == 0) {
+            object.getContent().subscribe(new Flow.Subscriber<ByteBuffer>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(ByteBuffer item) {
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            });
+            return HttpRequest.BodyPublishers.noBody();
+        }
+        return HttpRequest.BodyPublishers.fromPublisher(object.getContent(), object.getContentLength());
+    }
+
+    private static AsyncObjectException toException(String method, int statusCode, String body) {
+        Matcher matcher = CODE_PATTERN.matcher(body == null ? "" : body);
+        return new AsyncObjectException(method + " failed.", statusCode, matcher.find() ? matcher.group(1) : null);
+    }
+
+    /**
+     * 查询串，按子资源名排序，值为空字符串时只有名字
+     * @param encode 是否对名字和值编码
+     */
+    protected static String toQuery(Map<String, String> params, boolean encode) {
+        StringBuilder query = new StringBuilder();
+        for (Map.Entry<String, String> entry : params.entrySet()) {
+            if (query.length() > 0) {
+                query.append('&');
+            }
+            query.append(encode ? encode(entry.getKey()) : entry.getKey());
+            if (!entry.getValue().isEmpty() || encode) {
+                query.append('=').append(encode ? encode(entry.getValue()) : entry.getValue());
+            }
+        }
+        return query.toString();
+    }
+
+    /**
+     * 按 RFC 3986 编码
+     */
+    protected static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8").replace("+", "%20").replace("*", "%2A").replace("%7E", "~");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 编码对象名，保留路径分隔符
+     */
+    protected static String encodePath(String key) {
+        return encode(key).replace("%2F", "/");
+    }
+
+    /**
+     * 设置参与签名的请求头
+     */
+    protected static HttpRequest.Builder withHeaders(HttpRequest.Builder builder, Map<String, String> headers) {
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            builder.header(entry.getKey(), entry.getValue());
+        }
+        return builder;
+    }
+
+    /**
+     * 签名时的请求头的值：去掉首尾空白，连续空白合并为一个空格
+     */
+    protected static String canonicalValue(String value) {
+        return value.trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * 请求中的 Host，非默认端口时带端口
+     */
+    protected static String hostOf(URI uri) {
+        int port = uri.getPort();
+        if (port == -1 || ("http".equals(uri.getScheme()) && port == 80) || ("https".equals(uri.getScheme()) && port == 443)) {
+            return uri.getHost();
+        }
+        return uri.getHost() + ":" + port;
+    }
+}
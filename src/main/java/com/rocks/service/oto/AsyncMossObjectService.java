@@ -0,0 +1,104 @@
+package com.rocks.service.oto;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * moss 储存的异步操作：S3 协议，路径方式访问桶，AWS Signature V4 签名，请求体不参与签名（UNSIGNED-PAYLOAD），可以流式上传。
+ * Content-Type 和用户元数据等请求头都参与签名
+ * @author zhuang
+ */
+public class AsyncMossObjectService extends AsyncHttpObjectService {
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+    private static final String USER_META_PREFIX = "x-amz-meta-";
+    private static final DateTimeFormatter AMZ_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+    /** 默认区域 */
+    public static final String DEFAULT_REGION = "us-east-1";
+
+    private final String region;
+
+    public AsyncMossObjectService(HttpClient client, String endpoint, String accessKey, String secretKey) {
+        this(client, endpoint, accessKey, secretKey, DEFAULT_REGION);
+    }
+
+    public AsyncMossObjectService(HttpClient client, String endpoint, String accessKey, String secretKey, String region) {
+        super(client, endpoint, accessKey, secretKey);
+        this.region = region;
+    }
+
+    @Override
+    protected HttpRequest.Builder newRequest(String method, String bucket, String key, TreeMap<String, String> subResources,
+                                             TreeMap<String, String> headers) {
+        String amzDate = ZonedDateTime.now(ZoneOffset.UTC).format(AMZ_DATE_FORMAT);
+        String canonicalUri = "/" + bucket + "/" + encodePath(key);
+        String canonicalQuery = toQuery(subResources, true);
+        URI uri = URI.create(endpoint.getScheme() + "://" + hostOf(endpoint) + canonicalUri
+                + (canonicalQuery.isEmpty() ? "" : "?" + canonicalQuery));
+        TreeMap<String, String> signedHeaders = new TreeMap<>(headers);
+        signedHeaders.put("x-amz-date", amzDate);
+        signedHeaders.put("x-amz-content-sha256", UNSIGNED_PAYLOAD);
+        String authorization = sign(method, canonicalUri, canonicalQuery, hostOf(endpoint), signedHeaders, amzDate);
+        // Host 由 HttpClient 设置
+        return withHeaders(HttpRequest.newBuilder(uri), signedHeaders)
+                .header("Authorization", authorization);
+    }
+
+    @Override
+    protected String userMetaPrefix() {
+        return USER_META_PREFIX;
+    }
+
+    /**
+     * AWS Signature V4
+     * @param headers 除 Host 外参与签名的请求头，名字小写
+     * @return Authorization 请求头
+     */
+    String sign(String method, String canonicalUri, String canonicalQuery, String host, TreeMap<String, String> headers, String amzDate) {
+        String date = amzDate.substring(0, 8);
+        TreeMap<String, String> allHeaders = new TreeMap<>(headers);
+        allHeaders.put("host", host);
+        StringBuilder canonicalHeaders = new StringBuilder();
+        for (Map.Entry<String, String> entry : allHeaders.entrySet()) {
+            canonicalHeaders.append(entry.getKey()).append(':').append(canonicalValue(entry.getValue())).append('\n');
+        }
+        String signedHeaders = String.join(";", allHeaders.keySet());
+        String canonicalRequest = method + "\n" + canonicalUri + "\n" + canonicalQuery + "\n"
+                + canonicalHeaders + "\n" + signedHeaders + "\n" + UNSIGNED_PAYLOAD;
+        String scope = date + "/" + region + "/s3/aws4_request";
+        try {
+            String stringToSign = ALGORITHM + "\n" + amzDate + "\n" + scope + "\n"
+                    + hex(MessageDigest.getInstance("SHA-256").digest(canonicalRequest.getBytes(StandardCharsets.UTF_8)));
+            byte[] signingKey = hmac(hmac(hmac(hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date), region), "s3"), "aws4_request");
+            String signature = hex(hmac(signingKey, stringToSign));
+            return ALGORITHM + " Credential=" + accessKey + "/" + scope + ", SignedHeaders=" + signedHeaders + ", Signature=" + signature;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("sign request failed.", e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String data) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,51 @@
+package com.rocks.service.oto;
+
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+
+/**
+ * 异步下载得到的对象：大小、流式内容和需要保留的元数据
+ * @author zhuang
+ */
+@Getter
+public class AsyncObject {
+    private final long contentLength;
+    private final Flow.Publisher<ByteBuffer> content;
+    private final AsyncObjectMetadata metadata;
+
+    public AsyncObject(long contentLength, Flow.Publisher<ByteBuffer> content) {
+        this(contentLength, content, new AsyncObjectMetadata());
+    }
+
+    public AsyncObject(long contentLength, Flow.Publisher<ByteBuffer> content, AsyncObjectMetadata metadata) {
+        this.contentLength = contentLength;
+        this.content = content;
+        this.metadata = metadata;
+    }
+
+    /**
+     * 丢弃内容：取消下载，连接不再复用
+     */
+    public void discard() {
+        content.subscribe(new Flow.Subscriber<ByteBuffer>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.cancel();
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+    }
+}
@@ -0,0 +1,22 @@
+package com.rocks.service.oto;
+
+import lombok.Getter;
+
+/**
+ * 异步请求的服务端错误
+ * @author zhuang
+ */
+@Getter
+public class AsyncObjectException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    /** 服务端返回的错误码，如 SlowDown、NoSuchKey */
+    private final String errorCode;
+
+    public AsyncObjectException(String message, int statusCode, String errorCode) {
+        super(message + " statusCode:" + statusCode + " errorCode:" + errorCode);
+        this.statusCode = statusCode;
+        this.errorCode = errorCode;
+    }
+}
@@ -0,0 +1,66 @@
+package com.rocks.service.oto;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 迁移时保留的对象元数据：Content-Type 等标准头和用户自定义元数据。
+ * S3 和 OSS 的用户元数据前缀不同（x-amz-meta- / x-oss-meta-），这里只保存去掉前缀的名字，上传时按目的端加前缀
+ * @author zhuang
+ */
+@Getter
+public class AsyncObjectMetadata {
+    /** 保留的标准头，名字小写 */
+    static final List<String> STANDARD_HEADERS = Collections.unmodifiableList(Arrays.asList(
+            "cache-control", "content-disposition", "content-encoding", "content-type"));
+
+    /** 标准头，名字小写 */
+    private final TreeMap<String, String> headers = new TreeMap<>();
+    /** 用户元数据，名字小写且不含前缀 */
+    private final TreeMap<String, String> userMetadata = new TreeMap<>();
+
+    /**
+     * 从响应头中取出需要保留的元数据
+     * @param metaPrefix 源端用户元数据的前缀
+     */
+    static AsyncObjectMetadata of(Map<String, List<String>> responseHeaders, String metaPrefix) {
+        AsyncObjectMetadata metadata = new AsyncObjectMetadata();
+        for (Map.Entry<String, List<String>> entry : responseHeaders.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                continue;
+            }
+            String name = entry.getKey().toLowerCase(Locale.ROOT);
+            String value = String.join(",", entry.getValue());
+            if (STANDARD_HEADERS.contains(name)) {
+                metadata.headers.put(name, value);
+            } else if (name.startsWith(metaPrefix) && name.length() > metaPrefix.length()) {
+                metadata.userMetadata.put(name.substring(metaPrefix.length()), value);
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * 上传时的请求头
+     * @param metaPrefix 目的端用户元数据的前缀
+     * @return 名字小写，按名字排序
+     */
+    TreeMap<String, String> toRequestHeaders(String metaPrefix) {
+        TreeMap<String, String> requestHeaders = new TreeMap<>(headers);
+        for (Map.Entry<String, String> entry : userMetadata.entrySet()) {
+            requestHeaders.put(metaPrefix + entry.getKey(), entry.getValue());
+        }
+        return requestHeaders;
+    }
+
+    @Override
+    public String toString() {
+        return "headers:" + headers + " userMetadata:" + userMetadata;
+    }
+}
@@ -0,0 +1,69 @@
+package com.rocks.service.oto;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * oss 储存的异步操作：二级域名方式访问桶，OSS V1 签名放在 URL 中（Expires 代替 Date 请求头，HttpClient 不允许设置 Date）。
+ * Content-Type 和 x-oss- 开头的请求头参与签名
+ * @author zhuang
+ */
+public class AsyncOssObjectService extends AsyncHttpObjectService {
+    /** 签名有效期，秒 */
+    private static final long EXPIRE_TIME = 3600L;
+    private static final String OSS_HEADER_PREFIX = "x-oss-";
+    private static final String USER_META_PREFIX = "x-oss-meta-";
+
+    public AsyncOssObjectService(HttpClient client, String endpoint, String accessKey, String secretKey) {
+        super(client, endpoint, accessKey, secretKey);
+    }
+
+    @Override
+    protected HttpRequest.Builder newRequest(String method, String bucket, String key, TreeMap<String, String> subResources,
+                                             TreeMap<String, String> headers) {
+        long expires = System.currentTimeMillis() / 1000 + EXPIRE_TIME;
+        String query = toQuery(subResources, false);
+        String resource = "/" + bucket + "/" + key + (query.isEmpty() ? "" : "?" + query);
+        String signature = sign(method, headers, expires, resource);
+        URI uri = URI.create(endpoint.getScheme() + "://" + bucket + "." + hostOf(endpoint) + "/" + encodePath(key)
+                + "?" + (query.isEmpty() ? "" : query + "&")
+                + "OSSAccessKeyId=" + encode(accessKey) + "&Expires=" + expires + "&Signature=" + encode(signature));
+        return withHeaders(HttpRequest.newBuilder(uri), headers);
+    }
+
+    @Override
+    protected String userMetaPrefix() {
+        return USER_META_PREFIX;
+    }
+
+    /**
+     * OSS V1 签名，Content-MD5 不设置，为空
+     * @param headers 请求头，名字小写，Content-Type 和 x-oss- 开头的参与签名
+     * @param resource /bucket/key?子资源
+     */
+    String sign(String method, TreeMap<String, String> headers, long expires, String resource) {
+        StringBuilder canonicalizedHeaders = new StringBuilder();
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            if (entry.getKey().startsWith(OSS_HEADER_PREFIX)) {
+                canonicalizedHeaders.append(entry.getKey()).append(':').append(canonicalValue(entry.getValue())).append('\n');
+            }
+        }
+        String contentType = headers.getOrDefault("content-type", "");
+        String stringToSign = method + "\n\n" + contentType + "\n" + expires + "\n" + canonicalizedHeaders + resource;
+        try {
+            Mac mac = Mac.getInstance("HmacSHA1");
+            mac.init(new SecretKeySpec(secretKey.getBytes(StandardCharsets.UTF_8), "HmacSHA1"));
+            return Base64.getEncoder().encodeToString(mac.doFinal(stringToSign.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("sign request failed.", e);
+        }
+    }
+}
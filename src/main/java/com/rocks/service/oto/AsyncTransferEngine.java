@@ -0,0 +1,269 @@
+package com.rocks.service.oto;
+
+import com.rocks.constant.Constant;
+import org.apache.log4j.Logger;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 异步迁移引擎：下载的响应体直接作为上传的请求体，请求全部异步，少量 HttpClient 线程即可同时迁移大量对象。
+ * 同时进行的对象数由信号量限制，达到上限时提交阻塞，与线程池队列满时的行为一致
+ * @author zhuang
+ */
+public class AsyncTransferEngine {
+    private static final Logger logger = Logger.getLogger("AsyncTransferEngine.class");
+
+    private final String uuid;
+    private final IAsyncOSS orgService;
+    private final IAsyncOSS targetService;
+    private final ExecutorService ioExecutor;
+    private final Semaphore permits;
+    private final LongAdder submittedNum = new LongAdder();
+    private final LongAdder completedNum = new LongAdder();
+    /** 正在迁移的对象，停止时直接以失败结束 */
+    private final Set<CompletableFuture<Void>> running = ConcurrentHashMap.newKeySet();
+    private volatile boolean aborted;
+
+    /**
+     * @param maxConcurrency 同时迁移的对象数上限
+     */
+    public AsyncTransferEngine(String uuid, IAsyncOSS orgService, IAsyncOSS targetService, ExecutorService ioExecutor, int maxConcurrency) {
+        this.uuid = uuid;
+        this.orgService = orgService;
+        this.targetService = targetService;
+        this.ioExecutor = ioExecutor;
+        this.permits = new Semaphore(maxConcurrency);
+    }
+
+    /**
+     * 创建异步 HTTP 客户端使用的线程池，线程数少且固定
+     */
+    public static ExecutorService newIoExecutor(String uuid) {
+        AtomicInteger threadIndex = new AtomicInteger();
+        return Executors.newFixedThreadPool(Constant.ASYNC_IO_THREAD_SIZE, r -> {
+            Thread thread = new Thread(r, uuid + "-async-io-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 创建异步 HTTP 客户端，源端和目的端可共用
+     */
+    public static HttpClient newHttpClient(ExecutorService ioExecutor) {
+        return HttpClient.newBuilder()
+                .executor(ioExecutor)
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(Constant.ASYNC_CONNECT_TIMEOUT))
+                .build();
+    }
+
+    /**
+     * 迁移一个对象，同时迁移的对象数达到上限时阻塞
+     * @param length 对象大小
+     * @param partSize 不小于 maxSize 时分段迁移的每段大小
+     * @param maxSize 分段迁移的阈值
+     * @param partWorkNum 单个对象同时迁移的分段数
+     */
+    public CompletableFuture<Void> migrate(String orgBucket, String orgKey, String targetBucket, String targetKey,
+                                           long length, long maxSize, long partSize, int partWorkNum) throws InterruptedException {
+        permits.acquire();
+        submittedNum.increment();
+        CompletableFuture<Void> future;
+        try {
+            if (aborted) {
+                throw new CancellationException(uuid + " async migrate aborted");
+            }
+            if (length >= maxSize) {
+                future = multiPartMigrate(orgBucket, orgKey, targetBucket, targetKey, length, partSize, partWorkNum);
+            } else {
+                future = orgService.getObject(orgBucket, orgKey)
+                        .thenApply(object -> checkLength(object, length, orgKey))
+                        .thenCompose(object -> targetService.putObject(targetBucket, targetKey, object));
+            }
+        } catch (RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        running.add(result);
+        future.whenComplete((v, e) -> {
+            if (e == null) {
+                result.complete(null);
+            } else {
+                result.completeExceptionally(e);
+            }
+        });
+        return result.whenComplete((v, e) -> {
+            running.remove(result);
+            completedNum.increment();
+            permits.release();
+        });
+    }
+
+    /**
+     * 停止迁移：之后提交的对象直接失败，正在迁移的对象立即以失败结束，分段迁移不再开始新的分段并取消分段上传。
+     * 已发出的请求不等待，由 HttpClient 继续完成后丢弃
+     */
+    public void abort() {
+        aborted = true;
+        for (CompletableFuture<Void> future : running) {
+            future.completeExceptionally(new CancellationException(uuid + " async migrate aborted"));
+        }
+        logger.info(uuid + " async engine abort. submitted:" + getSubmittedNum() + " completed:" + getCompletedNum());
+    }
+
+    /**
+     * 分段迁移：先查询源对象的元数据用于初始化分段上传，分段下载直接作为分段上传的请求体，最多 partWorkNum 个分段同时进行，
+     * 单个分段失败重试 RETRY_COUNT 次，仍失败则不再开始新的分段，并取消分段上传
+     */
+    private CompletableFuture<Void> multiPartMigrate(String orgBucket, String orgKey, String targetBucket, String targetKey,
+                                                     long total, long partSize, int partWorkNum) {
+        int partCount = (int) ((total + partSize - 1) / partSize);
+        return orgService.headObject(orgBucket, orgKey)
+                .thenCompose(metadata -> targetService.initiateMultipartUpload(targetBucket, targetKey, metadata)).thenCompose(uploadId -> {
+            logger.info(uuid + " async multiPartMigrate() key:" + orgKey + " targetKey:" + targetKey + " total:" + total + " uploadId:" + uploadId);
+            PartState state = new PartState(orgBucket, orgKey, targetBucket, targetKey, uploadId, total, partSize, partCount);
+            List<CompletableFuture<Void>> workers = new ArrayList<>(partWorkNum);
+            for (int i = 0; i < Math.min(partWorkNum, partCount); i++) {
+                workers.add(nextPart(state));
+            }
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            CompletableFuture.allOf(workers.toArray(CompletableFuture<?>[]::new)).thenCompose(v -> {
+                if (state.failure.get() != null) {
+                    throw new CompletionException(state.failure.get());
+                }
+                List<String> eTagList = new ArrayList<>(partCount);
+                for (int i = 0; i < partCount; i++) {
+                    eTagList.add(state.eTags.get(i));
+                }
+                return targetService.completeMultipartUpload(targetBucket, targetKey, uploadId, eTagList);
+            }).whenComplete((v, e) -> {
+                if (e == null) {
+                    result.complete(null);
+                    return;
+                }
+                logger.error(uuid + " async multiPartMigrate() failed, abort. targetKey:" + targetKey + " uploadId:" + uploadId, e);
+                targetService.abortMultipartUpload(targetBucket, targetKey, uploadId).whenComplete((a, abortError) -> {
+                    if (abortError != null) {
+                        logger.error(uuid + " async abortMultipartUpload error. targetKey:" + targetKey, abortError);
+                    }
+                    result.completeExceptionally(e);
+                });
+            });
+            return result;
+        });
+    }
+
+    /**
+     * 开始下一个分段，一个分段结束后继续下一个，直到所有分段结束或有分段失败
+     */
+    private CompletableFuture<Void> nextPart(PartState state) {
+        if (aborted) {
+            state.failure.compareAndSet(null, new CancellationException(uuid + " async migrate aborted"));
+        }
+        int partNumber = state.nextPart.incrementAndGet();
+        if (partNumber > state.partCount || state.failure.get() != null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return migratePart(state, partNumber, 1).thenCompose(v -> nextPart(state));
+    }
+
+    private CompletableFuture<Void> migratePart(PartState state, int partNumber, int attempt) {
+        long start = (partNumber - 1) * state.partSize;
+        long end = Math.min(state.total, start + state.partSize) - 1;
+        return orgService.getObjectRange(state.orgBucket, state.orgKey, start, end)
+                .thenApply(part -> checkLength(part, end - start + 1, state.orgKey))
+                .thenCompose(part -> targetService.multiPartUpload(state.targetBucket, state.targetKey, state.uploadId, partNumber, part))
+                .handle((eTag, e) -> {
+                    if (e == null) {
+                        state.eTags.set(partNumber - 1, eTag);
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    logger.error(uuid + " async multiPartUpload failed. targetKey:" + state.targetKey + " partNum:" + partNumber
+                            + " attempt:" + attempt, e);
+                    if (attempt < Constant.RETRY_COUNT && state.failure.get() == null) {
+                        return migratePart(state, partNumber, attempt + 1);
+                    }
+                    state.failure.compareAndSet(null, e);
+                    return CompletableFuture.<Void>completedFuture(null);
+                })
+                .thenCompose(f -> f);
+    }
+
+    /**
+     * 下载得到的大小须与列举的大小或请求的范围一致，否则丢弃内容并按失败处理，避免上传不完整的对象
+     */
+    private static AsyncObject checkLength(AsyncObject object, long expected, String key) {
+        if (object.getContentLength() != expected) {
+            object.discard();
+            throw new AsyncObjectException("GET length mismatch. key:" + key + " expected:" + expected
+                    + " actual:" + object.getContentLength(), 0, null);
+        }
+        return object;
+    }
+
+    /**
+     * 一个对象分段迁移的状态
+     */
+    private static class PartState {
+        private final String orgBucket;
+        private final String orgKey;
+        private final String targetBucket;
+        private final String targetKey;
+        private final String uploadId;
+        private final long total;
+        private final long partSize;
+        private final int partCount;
+        private final AtomicInteger nextPart = new AtomicInteger();
+        private final AtomicReferenceArray<String> eTags;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        PartState(String orgBucket, String orgKey, String targetBucket, String targetKey, String uploadId,
+                  long total, long partSize, int partCount) {
+            this.orgBucket = orgBucket;
+            this.orgKey = orgKey;
+            this.targetBucket = targetBucket;
+            this.targetKey = targetKey;
+            this.uploadId = uploadId;
+            this.total = total;
+            this.partSize = partSize;
+            this.partCount = partCount;
+            this.eTags = new AtomicReferenceArray<>(partCount);
+        }
+    }
+
+    /** 所有已提交的对象是否都已结束 */
+    public boolean isIdle() {
+        return completedNum.sum() == submittedNum.sum();
+    }
+
+    public long getSubmittedNum() {
+        return submittedNum.sum();
+    }
+
+    public long getCompletedNum() {
+        return completedNum.sum();
+    }
+
+    /** 关闭 HttpClient 线程池 */
+    public void shutdown() {
+        ioExecutor.shutdown();
+        logger.info(uuid + " async engine shutdown. submitted:" + getSubmittedNum() + " completed:" + getCompletedNum());
+    }
+}
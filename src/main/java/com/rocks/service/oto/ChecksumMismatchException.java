@@ -0,0 +1,13 @@
+package com.rocks.service.oto;
+
+/**
+ * 迁移的数据与源端校验值或目的端返回的校验值不一致，对象按迁移失败处理
+ * @author zhuang
+ */
+public class ChecksumMismatchException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public ChecksumMismatchException(String message) {
+        super(message);
+    }
+}
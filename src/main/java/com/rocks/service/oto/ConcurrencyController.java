@@ -0,0 +1,167 @@
+package com.rocks.service.oto;
+
+import com.aliyun.oss.OSSException;
+import com.amazonaws.AmazonServiceException;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+
+/**
+ * 自适应并发控制（AIMD）：按采样窗口统计请求耗时、错误率和限流响应，调整单个迁移的并发数。
+ * 窗口内出现限流或错误率过高时乘性减小，耗时明显高于基线时小幅减小，否则加性增大，始终在 [min, max] 之间
+ * @author zhuang
+ */
+public class ConcurrencyController {
+    private static final Logger logger = Logger.getLogger("ConcurrencyController.class");
+    /** 采样窗口，毫秒 */
+    private static final long WINDOW_TIME = 1000L;
+    /** 窗口内最少样本数，样本过少不调整 */
+    private static final int MIN_SAMPLE_SIZE = 10;
+    /** 限流时的减小比例 */
+    private static final double BACKOFF_RATIO = 0.7;
+    /** 耗时超过基线的倍数视为过载 */
+    private static final double LATENCY_TOLERANCE = 2.0;
+    /** 错误率超过该值视为过载 */
+    private static final double ERROR_RATE_LIMIT = 0.1;
+
+    /** 请求结果 */
+    public enum Signal {
+        /** 成功 */
+        SUCCESS,
+        /** 限流：503 SlowDown、OSS 限流等 */
+        THROTTLED,
+        /** 其他错误 */
+        ERROR
+    }
+
+    private final String uuid;
+    private final int minLimit;
+    private final int maxLimit;
+    private final IntConsumer onLimitChange;
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile int limit;
+
+    private long windowStart = System.currentTimeMillis();
+    private int sampleNum;
+    private int latencySampleNum;
+    private long latencySum;
+    private int throttledNum;
+    private int errorNum;
+    /** 无压力时的耗时基线，取窗口平均耗时的最小值并缓慢回升，适应负载变化 */
+    private double baseLatency = -1;
+
+    /**
+     * @param initLimit 初始并发数
+     * @param onLimitChange 并发数变化时的回调，在内部锁内调用，不能再调用 record
+     */
+    public ConcurrencyController(String uuid, int initLimit, int minLimit, int maxLimit, IntConsumer onLimitChange) {
+        this.uuid = uuid;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initLimit));
+        this.onLimitChange = onLimitChange;
+    }
+
+    /** 当前并发数 */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * 记录一次请求结果
+     * @param latency 请求耗时，毫秒，小于 0 表示耗时不可比（如大对象），只统计结果
+     */
+    public void record(long latency, Signal signal) {
+        lock.lock();
+        try {
+            sampleNum++;
+            if (latency >= 0 && signal == Signal.SUCCESS) {
+                latencySampleNum++;
+                latencySum += latency;
+            }
+            if (signal == Signal.THROTTLED) {
+                throttledNum++;
+            } else if (signal == Signal.ERROR) {
+                errorNum++;
+            }
+            long now = System.currentTimeMillis();
+            // 有限流时不要求最少样本数，每个窗口最多减小一次
+            boolean windowEnd = now - windowStart >= WINDOW_TIME && (sampleNum >= MIN_SAMPLE_SIZE || throttledNum > 0);
+            if (!windowEnd) {
+                return;
+            }
+            int newLimit = adjust();
+            windowStart = now;
+            sampleNum = 0;
+            latencySampleNum = 0;
+            latencySum = 0;
+            throttledNum = 0;
+            errorNum = 0;
+            if (newLimit == limit) {
+                return;
+            }
+            logger.info(uuid + " concurrency limit " + limit + " -> " + newLimit + " baseLatency:" + (long) baseLatency + "ms");
+            limit = newLimit;
+            // 在锁内回调，两个窗口先后调整时通道按相同顺序生效，不会被较早的结果覆盖
+            onLimitChange.accept(newLimit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int adjust() {
+        if (throttledNum > 0 || (double) errorNum / sampleNum > ERROR_RATE_LIMIT) {
+            return Math.max(minLimit, (int) (limit * BACKOFF_RATIO));
+        }
+        if (latencySampleNum == 0) {
+            return limit;
+        }
+        double avgLatency = (double) latencySum / latencySampleNum;
+        if (baseLatency < 0 || avgLatency < baseLatency) {
+            baseLatency = avgLatency;
+        } else {
+            baseLatency = baseLatency * 0.95 + avgLatency * 0.05;
+        }
+        if (avgLatency > baseLatency * LATENCY_TOLERANCE) {
+            return Math.max(minLimit, limit - 1);
+        }
+        return Math.min(maxLimit, limit + 1);
+    }
+
+    /**
+     * 判断异常是否为服务端限流：S3 的 503/SlowDown/429，OSS 的 ServerBusy、QpsLimitExceeded 等。
+     * ErrorType 只区分失败原因，不区分限流，因此按异常链中的状态码和错误码判断
+     */
+    public static Signal classify(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof AmazonServiceException) {
+                AmazonServiceException ase = (AmazonServiceException) cause;
+                if (ase.getStatusCode() == 503 || ase.getStatusCode() == 429 || isThrottleCode(ase.getErrorCode())) {
+                    return Signal.THROTTLED;
+                }
+            } else if (cause instanceof OSSException) {
+                if (isThrottleCode(((OSSException) cause).getErrorCode())) {
+                    return Signal.THROTTLED;
+                }
+            } else if (cause instanceof AsyncObjectException) {
+                AsyncObjectException aoe = (AsyncObjectException) cause;
+                if (aoe.getStatusCode() == 503 || aoe.getStatusCode() == 429 || isThrottleCode(aoe.getErrorCode())) {
+                    return Signal.THROTTLED;
+                }
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return Signal.ERROR;
+    }
+
+    private static boolean isThrottleCode(String code) {
+        if (code == null) {
+            return false;
+        }
+        return code.contains("SlowDown") || code.contains("Throttl") || code.contains("ServerBusy")
+                || code.contains("LimitExceeded") || code.contains("ServiceUnavailable");
+    }
+}
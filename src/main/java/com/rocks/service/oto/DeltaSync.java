@@ -0,0 +1,150 @@
+package com.rocks.service.oto;
+
+import com.rocks.utils.TaskConfig;
+import com.rocks.vo.ObjectInfo;
+import org.apache.log4j.Logger;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 增量同步：按字典序平铺列举源端和目的端，归并比较两个有序列表，
+ * 只迁移目的端不存在或大小、ETag、最后修改时间有变化的对象，可选地报告只存在于目的端的对象。
+ * 两端都是流式列举，再次同步一个桶的代价是两次列举而不是重新迁移
+ * @author zhuang
+ */
+class DeltaSync {
+    private static final Logger logger = Logger.getLogger("DeltaSync.class");
+
+    private final ObjectToObjectBase<?, ?> oto;
+    private final String uuid;
+    private final AtomicLong newCount = new AtomicLong();
+    private final AtomicLong changedCount = new AtomicLong();
+    private final AtomicLong sameCount = new AtomicLong();
+    private final AtomicLong targetOnlyCount = new AtomicLong();
+
+    DeltaSync(ObjectToObjectBase<?, ?> oto) {
+        this.oto = oto;
+        this.uuid = oto.uuid;
+    }
+
+    /**
+     * 增量同步
+     * @param nextMarker 源端的断点 marker
+     */
+    void sync(String orgBucket, String targetBucket, String nextMarker, String originalDir, String targetDir) throws InterruptedException {
+        String orgMarker = (nextMarker == null || nextMarker.isEmpty()) ? null : nextMarker;
+        if (KeyRange.isComposite(orgMarker)) {
+            // 分片迁移留下的断点不是单一的有序位置，增量同步从头比较
+            logger.info(uuid + " sync() ignore sharded marker, sync from the beginning. orgBucket:" + orgBucket);
+            orgMarker = null;
+        }
+        String targetPrefix = oto.toTargetKey(originalDir, originalDir, targetDir);
+        String targetMarker = orgMarker == null ? null : oto.toTargetKey(orgMarker, originalDir, targetDir);
+
+        PrefetchLister<ObjectInfo> orgLister = new PrefetchLister<>(uuid, orgMarker,
+                marker -> oto.listOrgObjects(orgBucket, originalDir, marker));
+        PrefetchLister<ObjectInfo> targetLister = new PrefetchLister<>(uuid, targetMarker,
+                marker -> oto.listTargetObjects(targetBucket, targetPrefix, marker));
+        PageCheckpoint checkpoint = new PageCheckpoint(orgMarker, marker -> {
+            oto.journalMarker(0, marker);
+            TaskConfig.setUuidInfo(uuid, marker, oto.counters.getSuccessSize(), oto.counters.getFailedSize());
+        });
+        orgLister.start();
+        targetLister.start();
+        try {
+            TargetCursor target = new TargetCursor(targetLister);
+            ListPage<ObjectInfo> page;
+            while ((page = orgLister.take()) != null) {
+                List<ObjectInfo> objects = page.getSummaries();
+                PageCheckpoint.Page checkpointPage = checkpoint.register(objects.size(), page.getNextMarker());
+                for (ObjectInfo obj : objects) {
+                    if (originalDir.equals(obj.getKey())) {
+                        checkpointPage.run();
+                        continue;
+                    }
+                    String targetKey = oto.toTargetKey(obj.getKey(), originalDir, targetDir);
+                    // 目的端中排在 targetKey 之前的对象源端都没有
+                    while (target.current != null && KeyRange.compareKey(target.current.getKey(), targetKey) < 0) {
+                        targetOnly(targetBucket, target.current);
+                        target.next();
+                    }
+                    if (target.current != null && target.current.getKey().equals(targetKey)) {
+                        boolean changed = isChanged(obj, target.current);
+                        target.next();
+                        if (!changed) {
+                            sameCount.incrementAndGet();
+                            checkpointPage.run();
+                            continue;
+                        }
+                        changedCount.incrementAndGet();
+                    } else {
+                        newCount.incrementAndGet();
+                    }
+                    oto.submitMigrate(obj, targetBucket, targetKey, checkpointPage);
+                }
+            }
+            while (target.current != null) {
+                targetOnly(targetBucket, target.current);
+                target.next();
+            }
+        } finally {
+            orgLister.stop();
+            targetLister.stop();
+        }
+        logger.info(uuid + " sync() list end. orgBucket:" + orgBucket + " targetBucket:" + targetBucket + " new:" + newCount.get()
+                + " changed:" + changedCount.get() + " same:" + sameCount.get() + " targetOnly:" + targetOnlyCount.get());
+    }
+
+    /**
+     * 源端对象相对目的端是否有变化：大小不同则有变化；大小相同时 ETag 相同则无变化，
+     * ETag 不同（跨厂商或分段大小不同时 ETag 不可比）则以源端在目的端之后修改为有变化
+     */
+    static boolean isChanged(ObjectInfo org, ObjectInfo target) {
+        if (!Objects.equals(org.getSize(), target.getSize())) {
+            return true;
+        }
+        if (org.getETag() != null && org.getETag().equalsIgnoreCase(target.getETag())) {
+            return false;
+        }
+        if (org.getLastModified() == null || target.getLastModified() == null) {
+            return true;
+        }
+        return org.getLastModified().after(target.getLastModified());
+    }
+
+    private void targetOnly(String targetBucket, ObjectInfo obj) {
+        targetOnlyCount.incrementAndGet();
+        if (oto.isReportTargetOnly()) {
+            logger.info(uuid + " sync() target only. targetBucket:" + targetBucket + " key:" + obj.getKey());
+        }
+    }
+
+    /**
+     * 目的端有序列举的游标
+     */
+    private static class TargetCursor {
+        private final PrefetchLister<ObjectInfo> lister;
+        private Iterator<ObjectInfo> iterator;
+        private ObjectInfo current;
+
+        TargetCursor(PrefetchLister<ObjectInfo> lister) throws InterruptedException {
+            this.lister = lister;
+            next();
+        }
+
+        void next() throws InterruptedException {
+            while (iterator == null || !iterator.hasNext()) {
+                ListPage<ObjectInfo> page = lister.take();
+                if (page == null) {
+                    current = null;
+                    return;
+                }
+                iterator = page.getSummaries().iterator();
+            }
+            current = iterator.next();
+        }
+    }
+}
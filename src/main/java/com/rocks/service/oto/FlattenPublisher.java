@@ -0,0 +1,137 @@
+package com.rocks.service.oto;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 将下载响应体的 Publisher&lt;List&lt;ByteBuffer&gt;&gt; 展开为上传请求体需要的 Publisher&lt;ByteBuffer&gt;。
+ * 按下游的请求量逐批向上游请求，不额外缓冲数据，下载和上传的背压直接传递
+ * @author zhuang
+ */
+class FlattenPublisher implements Flow.Processor<List<ByteBuffer>, ByteBuffer> {
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private volatile Flow.Subscription upstream;
+    private volatile Flow.Subscriber<? super ByteBuffer> downstream;
+    /** 已向上游请求且未收到的批次 */
+    private volatile boolean requested;
+    private volatile boolean done;
+    private volatile boolean cancelled;
+    private volatile Throwable error;
+    private boolean terminated;
+
+    FlattenPublisher(Flow.Publisher<List<ByteBuffer>> source) {
+        source.subscribe(this);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("object content can only be subscribed once"));
+            return;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    error = new IllegalArgumentException("non-positive request: " + n);
+                    done = true;
+                } else {
+                    demand.getAndAccumulate(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                Flow.Subscription s = upstream;
+                if (s != null) {
+                    s.cancel();
+                }
+            }
+        });
+        downstream = subscriber;
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        upstream = subscription;
+        if (cancelled) {
+            subscription.cancel();
+            return;
+        }
+        drain();
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> items) {
+        buffers.addAll(items);
+        requested = false;
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        error = throwable;
+        done = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        done = true;
+        drain();
+    }
+
+    /**
+     * 串行地向下游发送数据、向上游请求下一批
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            Flow.Subscriber<? super ByteBuffer> subscriber = downstream;
+            if (subscriber != null && !terminated && !cancelled) {
+                while (demand.get() > 0 && !buffers.isEmpty()) {
+                    ByteBuffer buffer = buffers.poll();
+                    if (buffer.hasRemaining()) {
+                        demand.decrementAndGet();
+                        subscriber.onNext(buffer);
+                    }
+                }
+                if (done && (buffers.isEmpty() || error != null)) {
+                    // 出错时丢弃未发送的数据
+                    buffers.clear();
+                    terminated = true;
+                    if (error != null) {
+                        subscriber.onError(error);
+                    } else {
+                        subscriber.onComplete();
+                    }
+                } else if (buffers.isEmpty() && demand.get() > 0 && !requested && upstream != null) {
+                    requested = true;
+                    upstream.request(1);
+                }
+            }
+        } while (wip.decrementAndGet() != 0);
+    }
+}
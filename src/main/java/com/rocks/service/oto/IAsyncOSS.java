@@ -0,0 +1,50 @@
+package com.rocks.service.oto;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 基础操作的异步版本：基于非阻塞 HTTP 客户端，请求不占用线程，
+ * 下载得到的对象内容是流式的 Publisher，可以直接作为上传的请求体，数据不落内存
+ * @author zhuang
+ */
+public interface IAsyncOSS {
+    /** 普通下载，对象内容需被订阅（上传或丢弃），否则连接不会释放 */
+    CompletableFuture<AsyncObject> getObject(String bucket, String key);
+
+    /**
+     * 分段下载
+     * @param start 下载对象的起始位置
+     * @param end 下载对象的结束位置（含）
+     */
+    CompletableFuture<AsyncObject> getObjectRange(String bucket, String key, long start, long end);
+
+    /** 查询对象需要保留的元数据 */
+    CompletableFuture<AsyncObjectMetadata> headObject(String bucket, String key);
+
+    /** 普通上传，对象大小须与内容一致，对象的元数据一并写入 */
+    CompletableFuture<Void> putObject(String bucket, String key, AsyncObject object);
+
+    /**
+     * 初始化分段上传
+     * @param metadata 写入对象的元数据
+     * @return uploadId
+     */
+    CompletableFuture<String> initiateMultipartUpload(String bucket, String key, AsyncObjectMetadata metadata);
+
+    /**
+     * 分段上传
+     * @param partNumber 第几个分段
+     * @return 该分段的 ETag
+     */
+    CompletableFuture<String> multiPartUpload(String bucket, String key, String uploadId, int partNumber, AsyncObject part);
+
+    /**
+     * 完成分段上传
+     * @param eTags 按分段编号排序的 ETag
+     */
+    CompletableFuture<Void> completeMultipartUpload(String bucket, String key, String uploadId, List<String> eTags);
+
+    /** 取消分段上传，删除已上传的分段 */
+    CompletableFuture<Void> abortMultipartUpload(String bucket, String key, String uploadId);
+}
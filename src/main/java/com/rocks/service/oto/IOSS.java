@@ -1,5 +1,7 @@
 package com.rocks.service.oto;
 
+import com.rocks.vo.ObjectInfo;
+
 import java.io.InputStream;
 import java.util.List;
 
@@ -17,6 +19,15 @@ public interface IOSS<O, T, M, B, P> {
     /** 桶的对象总数 */
     int getObjectCount(O orgClient, String orgBucket, String dir);
 
+    /**
+     * 平铺列举一页（不使用 delimiter），按字典序返回
+     * @param client 存储服务
+     * @param prefix 前缀
+     * @param marker 从该 marker 之后开始列举
+     * @return 该页的对象及列举元数据
+     */
+    ListPage<ObjectInfo> listObjects(O client, String bucket, String prefix, String marker);
+
     /** 桶是否存在  */
     boolean bucketExist(T client, String bucket);
 
@@ -64,4 +75,24 @@ public interface IOSS<O, T, M, B, P> {
      */
     void putObject(T client, String bucket, String obj, InputStream input, M metadata);
 
+    /** 删除对象 */
+    void deleteObject(T client, String bucket, String key);
+
+    /**
+     * 服务端复制，数据不经过本服务，源端和目的端需在同一集群/地域
+     * @param client 目的端存储服务
+     */
+    void copyObject(T client, String orgBucket, String orgKey, String bucket, String obj);
+
+    /**
+     * 分段迁移的服务端分段复制
+     * @param client 目的端存储服务
+     * @param start 复制源对象的起始位置
+     * @param end 复制源对象的结束位置
+     * @param partNumber 第几个分段
+     * @return 分段编号和 ETag
+     */
+    P multiPartCopy(T client, String orgBucket, String orgKey, String bucketName, String key,
+                    String uploadId, long start, long end, int partNumber);
+
 }
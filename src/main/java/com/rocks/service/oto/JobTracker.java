@@ -0,0 +1,73 @@
+package com.rocks.service.oto;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 迁移的生命周期：提交前登记、结束后注销，精确计数正在迁移的对象。
+ * 列举结束且正在迁移的对象数归零时 completion 立即完成，迁移结束不需要轮询线程池
+ * @author zhuang
+ */
+public class JobTracker {
+    private final String uuid;
+    /** 已提交未结束的对象数，加上列举未结束时的 1 */
+    private final AtomicLong pending = new AtomicLong(1);
+    private final AtomicLong submittedNum = new AtomicLong();
+    private volatile boolean listing = true;
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    public JobTracker(String uuid) {
+        this.uuid = uuid;
+    }
+
+    /**
+     * 提交一个对象前调用
+     */
+    public void begin() {
+        if (completion.isDone()) {
+            throw new IllegalStateException(uuid + " job already completed");
+        }
+        pending.incrementAndGet();
+        submittedNum.incrementAndGet();
+    }
+
+    /**
+     * 一个对象迁移结束（成功或失败）后调用
+     */
+    public void end() {
+        if (pending.decrementAndGet() == 0) {
+            completion.complete(null);
+        }
+    }
+
+    /**
+     * 列举和提交结束后调用，之后不再有新对象
+     */
+    public void listFinished() {
+        if (listing) {
+            listing = false;
+            end();
+        }
+    }
+
+    /**
+     * 列举结束且所有对象迁移结束时完成
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    /** 正在迁移的对象数 */
+    public long getInFlight() {
+        return Math.max(0, pending.get() - (listing ? 1 : 0));
+    }
+
+    public long getSubmittedNum() {
+        return submittedNum.get();
+    }
+
+    @Override
+    public String toString() {
+        return uuid + " job submitted:" + getSubmittedNum() + " inFlight:" + getInFlight() + " completed:" + completion.isDone();
+    }
+}
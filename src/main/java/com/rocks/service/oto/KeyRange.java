@@ -0,0 +1,191 @@
+package com.rocks.service.oto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * 键空间的一个范围 (lower, upper]，用于平铺桶按键范围分片并发列举。
+ * lower 不含，正好作为 listObjects 的起始 marker；upper 含，列举到大于 upper 的键即结束
+ * @author zhuang
+ */
+@Getter
+public class KeyRange {
+    /** 多个分片断点编码后的前缀 */
+    private static final String SHARD_MARKER_PREFIX = "shards:";
+    private static final String NULL_VALUE = "~";
+    private static final String ENCODING = "UTF-8";
+
+    /** 下界（不含），null 表示从前缀开始 */
+    private final String lower;
+    /** 上界（含），null 表示到前缀结束 */
+    private final String upper;
+    /** 断点 marker，该范围从此 marker 之后继续列举 */
+    @Setter
+    private volatile String marker;
+
+    public KeyRange(String lower, String upper, String marker) {
+        this.lower = lower;
+        this.upper = upper;
+        this.marker = marker;
+    }
+
+    /** 整个前缀作为一个范围，即不分片 */
+    public static List<KeyRange> single(String marker) {
+        List<KeyRange> ranges = new ArrayList<>(1);
+        ranges.add(new KeyRange(null, null, marker));
+        return ranges;
+    }
+
+    /**
+     * 按分界字符切分前缀下的键空间，每个字符 c 以 prefix + c 作为分界
+     * @param prefix 列举前缀
+     * @param alphabet 分界字符
+     */
+    public static List<KeyRange> split(String prefix, String alphabet) {
+        List<String> boundaries = new ArrayList<>();
+        String dir = prefix == null ? "" : prefix;
+        alphabet.codePoints().forEach(c -> boundaries.add(dir + new String(Character.toChars(c))));
+        return split(boundaries);
+    }
+
+    /**
+     * 按分界键切分键空间，分界键可以是采样得到的真实键
+     * @param boundaries 分界键
+     */
+    public static List<KeyRange> split(List<String> boundaries) {
+        TreeSet<String> sorted = new TreeSet<>(KeyRange::compareKey);
+        sorted.addAll(boundaries);
+        List<KeyRange> ranges = new ArrayList<>(sorted.size() + 1);
+        String lower = null;
+        for (String boundary : sorted) {
+            ranges.add(new KeyRange(lower, boundary, lower));
+            lower = boundary;
+        }
+        ranges.add(new KeyRange(lower, null, lower));
+        return ranges;
+    }
+
+    /**
+     * 根据保存的断点恢复各范围的 marker
+     * @param ranges 切分好的范围
+     * @param marker TaskConfig 保存的断点，可以是 encode() 的结果，也可以是未分片时的普通 marker
+     */
+    public static List<KeyRange> resume(List<KeyRange> ranges, String marker) {
+        if (marker == null || marker.isEmpty()) {
+            return ranges;
+        }
+        if (marker.startsWith(SHARD_MARKER_PREFIX)) {
+            return decode(marker);
+        }
+        // 普通 marker：marker 之前的范围已完成，包含 marker 的范围从 marker 继续
+        for (KeyRange range : ranges) {
+            if (range.upper != null && compareKey(range.upper, marker) <= 0) {
+                range.marker = range.upper;
+            } else if (range.lower == null || compareKey(range.lower, marker) < 0) {
+                range.marker = marker;
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * 将各范围的断点编码为一个 marker，用于 TaskConfig.setUuidInfo。不分片时即为普通 marker
+     */
+    public static String encode(List<KeyRange> ranges) {
+        if (ranges.size() == 1 && ranges.get(0).lower == null && ranges.get(0).upper == null) {
+            return ranges.get(0).marker;
+        }
+        StringBuilder builder = new StringBuilder(SHARD_MARKER_PREFIX);
+        for (int i = 0; i < ranges.size(); i++) {
+            KeyRange range = ranges.get(i);
+            if (i > 0) {
+                builder.append(';');
+            }
+            builder.append(encodeValue(range.lower)).append(',')
+                    .append(encodeValue(range.upper)).append(',')
+                    .append(encodeValue(range.marker));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 键是否在该范围 (lower, upper] 内
+     */
+    public boolean contains(String key) {
+        return (lower == null || compareKey(key, lower) > 0) && (upper == null || compareKey(key, upper) <= 0);
+    }
+
+    /**
+     * marker 是否为分片断点
+     */
+    public static boolean isComposite(String marker) {
+        return marker != null && marker.startsWith(SHARD_MARKER_PREFIX);
+    }
+
+    private static List<KeyRange> decode(String marker) {
+        String[] items = marker.substring(SHARD_MARKER_PREFIX.length()).split(";");
+        List<KeyRange> ranges = new ArrayList<>(items.length);
+        for (String item : items) {
+            String[] values = item.split(",", -1);
+            ranges.add(new KeyRange(decodeValue(values[0]), decodeValue(values[1]), decodeValue(values[2])));
+        }
+        return ranges;
+    }
+
+    /** 键是否超出该范围的上界 */
+    public boolean beyond(String key) {
+        return upper != null && compareKey(key, upper) > 0;
+    }
+
+    /**
+     * 按对象存储的列举顺序（UTF-8 字节序，即 Unicode 码点序）比较两个键
+     */
+    public static int compareKey(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(j);
+            if (ca != cb) {
+                return Integer.compare(ca, cb);
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    private static String encodeValue(String value) {
+        if (value == null) {
+            return NULL_VALUE;
+        }
+        try {
+            return URLEncoder.encode(value, ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decodeValue(String value) {
+        if (NULL_VALUE.equals(value)) {
+            return null;
+        }
+        try {
+            return URLDecoder.decode(value, ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "(" + lower + ", " + upper + "] marker:" + marker;
+    }
+}
@@ -0,0 +1,48 @@
+package com.rocks.service.oto;
+
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * listObjects 的一页列举结果
+ * @author zhuang
+ * @param <S> S3ObjectSummary/OSSObjectSummary
+ */
+@Getter
+public class ListPage<S> {
+    /** 本页的对象 */
+    private final List<S> summaries;
+    /** 列举本页使用的 marker */
+    private final String marker;
+    /** 列举下一页使用的 marker */
+    private final String nextMarker;
+    /** 是否还有下一页 */
+    private final boolean truncated;
+    /** 所属的列举源（键范围分片）编号 */
+    private final int shard;
+    /** 按 delimiter 列举时本页的子目录 */
+    private final List<String> commonPrefixes;
+
+    public ListPage(List<S> summaries, String marker, String nextMarker, boolean truncated) {
+        this(summaries, marker, nextMarker, truncated, 0);
+    }
+
+    public ListPage(List<S> summaries, String marker, String nextMarker, boolean truncated, int shard) {
+        this(summaries, marker, nextMarker, truncated, shard, Collections.emptyList());
+    }
+
+    public ListPage(List<S> summaries, String marker, String nextMarker, boolean truncated, List<String> commonPrefixes) {
+        this(summaries, marker, nextMarker, truncated, 0, commonPrefixes);
+    }
+
+    private ListPage(List<S> summaries, String marker, String nextMarker, boolean truncated, int shard, List<String> commonPrefixes) {
+        this.summaries = summaries;
+        this.marker = marker;
+        this.nextMarker = nextMarker;
+        this.truncated = truncated;
+        this.shard = shard;
+        this.commonPrefixes = commonPrefixes == null ? Collections.emptyList() : commonPrefixes;
+    }
+}
@@ -0,0 +1,59 @@
+package com.rocks.service.oto;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 列举一页
+ * @author zhuang
+ */
+@Name("com.rocks.ListPage")
+@Label("List Page")
+@Category({"Rocks", "Listing"})
+@Description("One page listed from the source bucket")
+@StackTrace(false)
+class ListPageEvent extends jdk.jfr.Event {
+    @Label("Job")
+    String uuid;
+
+    @Label("Source")
+    @Description("Key range shard or directory being listed")
+    String source;
+
+    @Label("Marker")
+    String marker;
+
+    @Label("Objects")
+    int objects;
+
+    @Label("Truncated")
+    boolean truncated;
+
+    @Label("Outcome")
+    String outcome;
+
+    @Label("Error")
+    String error;
+
+    /**
+     * 列举结束后提交，事件未开启时不设置字段
+     * @param objects 列举出的对象数，失败时为 0
+     * @param error 失败原因，成功时为 null
+     */
+    static void commit(ListPageEvent event, String uuid, String source, String marker, int objects, boolean truncated, Exception error) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.uuid = uuid;
+            event.source = source;
+            event.marker = marker;
+            event.objects = objects;
+            event.truncated = truncated;
+            event.outcome = error == null ? "success" : "failed";
+            event.error = error == null ? null : String.valueOf(error.getMessage());
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.rocks.service.oto;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * 单个对象的迁移，从通道线程开始执行到迁移结束。
+ * 大对象的下载和上传耗时记录在各分段的 MigratePartEvent 中
+ * @author zhuang
+ */
+@Name("com.rocks.MigrateObject")
+@Label("Migrate Object")
+@Category({"Rocks", "Migration"})
+@Description("One object migrated by migrate(), with the time spent in each kind of request")
+@StackTrace(false)
+class MigrateObjectEvent extends jdk.jfr.Event {
+    @Label("Job")
+    String uuid;
+
+    @Label("Source Bucket")
+    String bucket;
+
+    @Label("Key")
+    String key;
+
+    @Label("Target Bucket")
+    String targetBucket;
+
+    @Label("Size")
+    @DataAmount
+    long size;
+
+    @Label("Mode")
+    @Description("copy, multipart or single")
+    String mode;
+
+    @Label("Queue Wait")
+    @Description("Time between submission and the start of migrate() on a lane thread")
+    @Timespan
+    long queueWait;
+
+    @Label("Head")
+    @Timespan
+    long head;
+
+    @Label("Get First Byte")
+    @Timespan
+    long getFirstByte;
+
+    @Label("Put")
+    @Description("Includes reading the source stream")
+    @Timespan
+    long put;
+
+    @Label("Copy")
+    @Timespan
+    long copy;
+
+    @Label("Outcome")
+    String outcome;
+
+    @Label("Error")
+    String error;
+}
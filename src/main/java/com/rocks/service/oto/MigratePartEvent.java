@@ -0,0 +1,58 @@
+package com.rocks.service.oto;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * 大对象的一个分段的迁移，包括该分段的所有重试
+ * @author zhuang
+ */
+@Name("com.rocks.MigratePart")
+@Label("Migrate Part")
+@Category({"Rocks", "Migration"})
+@Description("One part of a multipart migration or copy, including its retries")
+@StackTrace(false)
+class MigratePartEvent extends jdk.jfr.Event {
+    @Label("Job")
+    String uuid;
+
+    @Label("Target Bucket")
+    String bucket;
+
+    @Label("Key")
+    String key;
+
+    @Label("Part Number")
+    int partNumber;
+
+    @Label("Size")
+    @DataAmount
+    long size;
+
+    @Label("Attempts")
+    int attempts;
+
+    @Label("Get First Byte")
+    @Timespan
+    long getFirstByte;
+
+    @Label("Upload Part")
+    @Description("Includes reading the source range")
+    @Timespan
+    long uploadPart;
+
+    @Label("Copy")
+    @Timespan
+    long copy;
+
+    @Label("Outcome")
+    String outcome;
+
+    @Label("Error")
+    String error;
+}
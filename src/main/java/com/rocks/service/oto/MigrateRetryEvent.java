@@ -0,0 +1,54 @@
+package com.rocks.service.oto;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 一次失败后的重试或回退：分段重试、列举重试、服务端复制回退到普通迁移
+ * @author zhuang
+ */
+@Name("com.rocks.MigrateRetry")
+@Label("Migrate Retry")
+@Category({"Rocks", "Migration"})
+@Description("A failed attempt that is retried or falls back")
+@StackTrace(false)
+class MigrateRetryEvent extends jdk.jfr.Event {
+    @Label("Job")
+    String uuid;
+
+    @Label("Stage")
+    @Description("part, list or copy")
+    String stage;
+
+    @Label("Key")
+    @Description("Object key, or the marker for listing")
+    String key;
+
+    @Label("Part Number")
+    int partNumber;
+
+    @Label("Attempt")
+    int attempt;
+
+    @Label("Error")
+    String error;
+
+    /**
+     * 记录一次失败的尝试，事件未开启时不创建字符串
+     */
+    static void emit(String uuid, String stage, String key, int partNumber, int attempt, Throwable e) {
+        MigrateRetryEvent event = new MigrateRetryEvent();
+        if (event.shouldCommit()) {
+            event.uuid = uuid;
+            event.stage = stage;
+            event.key = key;
+            event.partNumber = partNumber;
+            event.attempt = attempt;
+            event.error = String.valueOf(e);
+            event.commit();
+        }
+    }
+}
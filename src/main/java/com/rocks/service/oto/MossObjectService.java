@@ -3,34 +3,50 @@ package com.rocks.service.oto;
 import com.amazonaws.SdkClientException;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.*;
+import com.rocks.utils.JobMetrics;
+import com.rocks.vo.ObjectInfo;
 import org.apache.log4j.Logger;
 
 import java.io.InputStream;
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class MossObjectService implements IOSS<AmazonS3, AmazonS3, ObjectMetadata, S3Object, PartETag> {
     private static final Logger logger = Logger.getLogger("MossObjectService.class");
+    /** 记录请求耗时的迁移指标，为 null 时不记录 */
+    private volatile JobMetrics metrics;
 
+    public void setMetrics(JobMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    private void record(JobMetrics.Operation operation, long beginNanos) {
+        TransferTimings.add(operation, System.nanoTime() - beginNanos);
+        JobMetrics jobMetrics = metrics;
+        if (jobMetrics != null) {
+            jobMetrics.record(operation, beginNanos);
+        }
+    }
+
+    /**
+     * 统计对象数量
+     */
     @Override
     public int getObjectCount(AmazonS3 orgClient, String orgBucket, String dir) {
+        return getObjectCount(orgClient, orgBucket, dir, KeyRange.single(null).get(0));
+    }
+
+    private int getObjectCount(AmazonS3 orgClient, String orgBucket, String dir, KeyRange range) {
         boolean isTruncated = true;
         int totalNum = 0;
-        String countNextMarker = "";
+        String countNextMarker = range.getMarker();
         List<S3ObjectSummary> summaryList;
-        ListObjectsRequest request = new ListObjectsRequest();
-        request.setEncodingType("null");
-        request.setBucketName(orgBucket);
-        request.setPrefix(dir);
         while (isTruncated) {
             try {
-                request.setMarker(countNextMarker);
-                ObjectListing objectListing = orgClient.listObjects(request);
-                countNextMarker = objectListing.getNextMarker();
-                summaryList = objectListing.getObjectSummaries();
-                summaryList = summaryList.stream().filter(s -> !s.getKey().equals(dir)).collect(Collectors.toList());
-                totalNum += summaryList.size();
-                isTruncated = objectListing.isTruncated();
+                ListPage<S3ObjectSummary> page = listRange(orgClient, orgBucket, dir, range, countNextMarker);
+                countNextMarker = page.getNextMarker();
+                summaryList = page.getSummaries();
+                totalNum += (int) summaryList.stream().filter(s -> !s.getKey().equals(dir)).count();
+                isTruncated = page.isTruncated();
             } catch (SdkClientException e) {
                 logger.error("listObjectsCountLoop error.", e);
             }
@@ -38,6 +54,64 @@ public class MossObjectService implements IOSS<AmazonS3, AmazonS3, ObjectMetadat
         return totalNum;
     }
 
+    /**
+     * 在键范围内列举一页，遇到超出范围上界的键即结束
+     * @param marker 从该 marker 之后开始列举
+     */
+    public ListPage<S3ObjectSummary> listRange(AmazonS3 client, String bucket, String prefix, KeyRange range, String marker) {
+        ListObjectsRequest request = new ListObjectsRequest();
+        request.setEncodingType("null");
+        request.setBucketName(bucket);
+        request.setPrefix(prefix);
+        request.setMarker(marker);
+        long begin = System.nanoTime();
+        ObjectListing objectListing;
+        try {
+            objectListing = client.listObjects(request);
+        } finally {
+            record(JobMetrics.Operation.LIST, begin);
+        }
+        List<S3ObjectSummary> summaryList = objectListing.getObjectSummaries();
+        boolean isTruncated = objectListing.isTruncated();
+        String nextMarker = objectListing.getNextMarker();
+        int end = summaryList.size();
+        while (end > 0 && range.beyond(summaryList.get(end - 1).getKey())) {
+            end--;
+        }
+        if (end < summaryList.size()) {
+            // 已列举到范围上界
+            summaryList = summaryList.subList(0, end);
+            isTruncated = false;
+            nextMarker = null;
+        }
+        if (nextMarker == null) {
+            nextMarker = summaryList.isEmpty() ? marker : summaryList.get(summaryList.size() - 1).getKey();
+        }
+        return new ListPage<>(summaryList, marker, nextMarker, isTruncated);
+    }
+
+    @Override
+    public ListPage<ObjectInfo> listObjects(AmazonS3 client, String bucket, String prefix, String marker) {
+        ListObjectsRequest request = new ListObjectsRequest();
+        request.setEncodingType("null");
+        request.setBucketName(bucket);
+        request.setPrefix(prefix);
+        request.setMarker(marker);
+        long begin = System.nanoTime();
+        ObjectListing objectListing;
+        try {
+            objectListing = client.listObjects(request);
+        } finally {
+            record(JobMetrics.Operation.LIST, begin);
+        }
+        List<S3ObjectSummary> summaryList = objectListing.getObjectSummaries();
+        String nextMarker = objectListing.getNextMarker();
+        if (nextMarker == null && !summaryList.isEmpty()) {
+            nextMarker = summaryList.get(summaryList.size() - 1).getKey();
+        }
+        return new ListPage<>(ObjectInfo.fromS3Summaries(summaryList), marker, nextMarker, objectListing.isTruncated());
+    }
+
     @Override
     public boolean bucketExist(AmazonS3 client, String bucket) {
         HeadBucketRequest headBucketRequest = new HeadBucketRequest(bucket);
@@ -51,28 +125,57 @@ public class MossObjectService implements IOSS<AmazonS3, AmazonS3, ObjectMetadat
 
     @Override
     public ObjectMetadata headObject(AmazonS3 client, String bucket, String key) {
-        return client.getObjectMetadata(bucket, key);
+        long begin = System.nanoTime();
+        try {
+            return client.getObjectMetadata(bucket, key);
+        } finally {
+            record(JobMetrics.Operation.HEAD, begin);
+        }
+    }
+
+    /**
+     * 可用于校验内容的 ETag：SSE-KMS 和 SSE-C 加密对象的 ETag 不是内容的 MD5，返回 null
+     */
+    static String contentETag(ObjectMetadata metadata) {
+        if (metadata.getSSEAwsKmsKeyId() != null || metadata.getSSECustomerAlgorithm() != null) {
+            return null;
+        }
+        return metadata.getETag();
     }
 
     @Override
     public S3Object getObject(AmazonS3 client, String bucket, String key) {
-        return client.getObject(bucket, key);
+        // 收到响应头即返回，耗时为首字节时间
+        long begin = System.nanoTime();
+        try {
+            return client.getObject(bucket, key);
+        } finally {
+            record(JobMetrics.Operation.GET, begin);
+        }
     }
 
     @Override
     public S3Object multiPartDownloadRange(AmazonS3 client, String bucket, String key, long start, long end, String uploadId) {
         GetObjectRequest getObjectRequest = new GetObjectRequest(bucket, key);
         getObjectRequest.setRange(start, end);
-        return client.getObject(getObjectRequest);
+        long begin = System.nanoTime();
+        try {
+            return client.getObject(getObjectRequest);
+        } finally {
+            record(JobMetrics.Operation.GET, begin);
+        }
     }
 
     @Override
     public Long getObjectContentLength(AmazonS3 client, String bucket, String key) throws SdkClientException {
         ObjectMetadata objectMetadata;
+        long begin = System.nanoTime();
         try {
             objectMetadata = client.getObjectMetadata(bucket, key);
         } catch (SdkClientException e) {
             throw new SdkClientException(e.getMessage());
+        } finally {
+            record(JobMetrics.Operation.HEAD, begin);
         }
         return objectMetadata.getContentLength();
     }
@@ -88,7 +191,12 @@ public class MossObjectService implements IOSS<AmazonS3, AmazonS3, ObjectMetadat
     @Override
     public void putObject(AmazonS3 client, String bucket, String obj, InputStream input, ObjectMetadata metadata) {
         PutObjectRequest request = new PutObjectRequest(bucket, obj, input, metadata);
-        client.putObject(request);
+        long begin = System.nanoTime();
+        try {
+            client.putObject(request);
+        } finally {
+            record(JobMetrics.Operation.PUT, begin);
+        }
     }
 
     /**
@@ -105,8 +213,52 @@ public class MossObjectService implements IOSS<AmazonS3, AmazonS3, ObjectMetadat
         uploadPartRequest.setInputStream(inputStream);
         uploadPartRequest.setPartSize(curPartSize);
         uploadPartRequest.setPartNumber(partNumber);
-        UploadPartResult uploadPartResult = client.uploadPart(uploadPartRequest);
+        long begin = System.nanoTime();
+        UploadPartResult uploadPartResult;
+        try {
+            uploadPartResult = client.uploadPart(uploadPartRequest);
+        } finally {
+            record(JobMetrics.Operation.UPLOAD_PART, begin);
+        }
         partETagList.add(uploadPartResult.getPartETag());
     }
 
+    @Override
+    public void deleteObject(AmazonS3 client, String bucket, String key) {
+        client.deleteObject(bucket, key);
+    }
+
+    @Override
+    public void copyObject(AmazonS3 client, String orgBucket, String orgKey, String bucket, String obj) {
+        CopyObjectRequest request = new CopyObjectRequest(orgBucket, orgKey, bucket, obj);
+        long begin = System.nanoTime();
+        try {
+            client.copyObject(request);
+        } finally {
+            record(JobMetrics.Operation.COPY, begin);
+        }
+    }
+
+    @Override
+    public PartETag multiPartCopy(AmazonS3 client, String orgBucket, String orgKey, String bucketName, String obj,
+                                  String uploadId, long start, long end, int partNumber) {
+        CopyPartRequest copyPartRequest = new CopyPartRequest();
+        copyPartRequest.setSourceBucketName(orgBucket);
+        copyPartRequest.setSourceKey(orgKey);
+        copyPartRequest.setDestinationBucketName(bucketName);
+        copyPartRequest.setDestinationKey(obj);
+        copyPartRequest.setUploadId(uploadId);
+        copyPartRequest.setFirstByte(start);
+        copyPartRequest.setLastByte(end);
+        copyPartRequest.setPartNumber(partNumber);
+        long begin = System.nanoTime();
+        CopyPartResult copyPartResult;
+        try {
+            copyPartResult = client.copyPart(copyPartRequest);
+        } finally {
+            record(JobMetrics.Operation.COPY, begin);
+        }
+        return copyPartResult.getPartETag();
+    }
+
 }
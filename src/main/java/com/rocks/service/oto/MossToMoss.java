@@ -4,15 +4,15 @@ import com.amazonaws.SdkClientException;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.*;
 import com.rocks.constant.Constant;
-import com.rocks.utils.CountMapCache;
 import com.rocks.utils.TaskConfig;
+import com.rocks.utils.JobMetrics;
+import com.rocks.vo.ObjectInfo;
 import org.apache.log4j.Logger;
 
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * moss 储存 迁移到 moss 储存
@@ -23,6 +23,10 @@ public class MossToMoss extends ObjectToObjectBase<AmazonS3Client, AmazonS3Clien
     private static final Logger logger = Logger.getLogger("MossToMoss.class");
     private final MossObjectService orgObjectService = new MossObjectService();
     private final MossObjectService targetObjectService = orgObjectService;
+    /** 当前迁移的键范围分片及其断点 */
+    private volatile List<KeyRange> ranges;
+    /** 保存断点的锁 */
+    private final ReentrantLock commitLock = new ReentrantLock();
 
     @Override
     protected int getObjectCount(String orgBucket, String dir) {
@@ -30,52 +34,98 @@ public class MossToMoss extends ObjectToObjectBase<AmazonS3Client, AmazonS3Clien
     }
 
     /**
-     * 获取源端的对象并上传到目的端
+     * 获取源端的对象并上传到目的端。
+     * 键空间按范围分片，各分片使用各自的 marker 并发列举并预取后续分页，迁移线程逐页提交，不等待上一页迁移结束；
+     * 每个分片的断点 marker 只在该分片某页及之前所有页的对象都迁移结束后才推进
      */
     @Override
     protected void migrateBatch(String orgBucket, String targetBucket, String nextMarker, String originalDir, String targetDir) {
-        ObjectListing objectListing;
-        List<S3ObjectSummary> summaryList;
-        boolean isTruncated = true;
-        ListObjectsRequest request = new ListObjectsRequest();
-        request.setEncodingType("null");
-        request.setBucketName(orgBucket);
-        request.setPrefix(originalDir);
-        curFinishTaskCount.set(0);
-        while (isTruncated) {
-            logger.debug(uuid + " migrateBatch() truncated. orgBucket:" + orgBucket);
-            try {
-                TaskConfig.setUuidInfo(uuid, nextMarker, CountMapCache.getSuccessSize(uuid), CountMapCache.getFailedSize(uuid));
-                request.setMarker(nextMarker);
-                objectListing = orgClient.listObjects(request);
-                nextMarker = objectListing.getNextMarker();
-                summaryList = objectListing.getObjectSummaries();
-                moveObject(summaryList, originalDir, targetBucket, targetDir);
-                isTruncated = objectListing.isTruncated();
-
-                int i = 0;
-                while (curFinishTaskCount.get() != summaryList.size()) {
-                    try {
-                        if (i++ % 1800 == 0) {
-                            logger.debug(uuid + " migrateBatch() sleep. orgBucket:" + orgBucket + " originalDir:" + originalDir + " nextMarker:" + nextMarker + " isTruncated:" + isTruncated);
-                            logger.debug(uuid + " curFinishTaskCount: " + curFinishTaskCount.get() + "  summaryList: " + summaryList.size());
-                            logger.debug(uuid + " executorInfo: " + uuidThreadPoolExecutorMap.get(uuid));
-                        }
-                        TimeUnit.MILLISECONDS.sleep(100);
-                    } catch (InterruptedException interruptedException) {
-                        interruptedException.printStackTrace();
-                    }
-                }
-                curFinishTaskCount.set(0);
-            } catch (Exception e) {
-                logger.error(uuid + " migrateBatch() failed. orgBucket:" + orgBucket + " nextMarker:" + nextMarker, e);
-                try {
-                    TimeUnit.SECONDS.sleep(2);
-                } catch (InterruptedException interruptedException) {
-                    interruptedException.printStackTrace();
-                }
+        List<KeyRange> ranges = KeyRange.resume(getListShardRanges(originalDir), nextMarker);
+        resumeJournalMarkers(ranges);
+        this.ranges = ranges;
+        logger.info(uuid + " migrateBatch() orgBucket:" + orgBucket + " shards:" + ranges.size());
+        TaskConfig.setUuidInfo(uuid, KeyRange.encode(ranges), counters.getSuccessSize(), counters.getFailedSize());
+        PrefetchLister<S3ObjectSummary> lister = new PrefetchLister<>(uuid, getListWorkNum());
+        List<PageCheckpoint> checkpoints = new ArrayList<>(ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            KeyRange range = ranges.get(i);
+            int shard = i;
+            checkpoints.add(new PageCheckpoint(range.getMarker(), marker -> {
+                range.setMarker(marker);
+                journalMarker(shard, marker);
+                commitMarker(orgBucket, ranges);
+            }));
+            lister.addSource(range.getMarker(), marker -> orgObjectService.listRange(orgClient, orgBucket, originalDir, range, marker));
+        }
+        lister.start();
+        try {
+            ListPage<S3ObjectSummary> page;
+            while ((page = lister.take()) != null) {
+                logger.debug(uuid + " migrateBatch() page. orgBucket:" + orgBucket + " shard:" + page.getShard() + " marker:" + page.getMarker()
+                        + " size:" + page.getSummaries().size() + " lanes: " + getLanes(uuid));
+                PageCheckpoint.Page checkpointPage = checkpoints.get(page.getShard()).register(page.getSummaries().size(), page.getNextMarker());
+                moveObject(ObjectInfo.fromS3Summaries(page.getSummaries()), originalDir, targetBucket, targetDir, checkpointPage);
+            }
+        } catch (InterruptedException e) {
+            logger.error(uuid + " migrateBatch() interrupted. orgBucket:" + orgBucket + " marker:" + KeyRange.encode(ranges), e);
+            Thread.currentThread().interrupt();
+        } finally {
+            // 迁移停止等异常结束时，列举线程阻塞在满的队列上，需要停止
+            lister.stop();
+        }
+    }
+
+    /**
+     * 迁移日志中的分片断点比 TaskConfig 保存的更新时（如掉线前未来得及保存），从日志的断点继续。
+     * 日志断点不在分片范围内（分片方式已改变）时忽略
+     */
+    private void resumeJournalMarkers(List<KeyRange> ranges) {
+        if (journal == null) {
+            return;
+        }
+        for (int i = 0; i < ranges.size(); i++) {
+            KeyRange range = ranges.get(i);
+            String marker = journal.getMarker(i);
+            if (marker == null || !range.contains(marker)) {
+                continue;
+            }
+            if (range.getMarker() == null || KeyRange.compareKey(marker, range.getMarker()) > 0) {
+                logger.info(uuid + " migrateBatch() resume shard " + i + " from journal marker:" + marker);
+                range.setMarker(marker);
+            }
+        }
+    }
+
+    /**
+     * 对象所在分片的断点已越过该对象，掉线恢复时不会再列举到
+     */
+    @Override
+    protected boolean isCheckpointed(String key) {
+        List<KeyRange> curRanges = ranges;
+        if (curRanges == null) {
+            // 增量同步不使用分片
+            return super.isCheckpointed(key);
+        }
+        for (KeyRange range : curRanges) {
+            if (range.contains(key)) {
+                return range.getMarker() != null && KeyRange.compareKey(key, range.getMarker()) <= 0;
             }
         }
+        return false;
+    }
+
+    /**
+     * 保存所有分片的断点，用于掉线恢复
+     */
+    private void commitMarker(String orgBucket, List<KeyRange> ranges) {
+        commitLock.lock();
+        try {
+            String marker = KeyRange.encode(ranges);
+            logger.debug(uuid + " migrateBatch() checkpoint. orgBucket:" + orgBucket + " marker:" + marker);
+            TaskConfig.setUuidInfo(uuid, marker, counters.getSuccessSize(), counters.getFailedSize());
+        } finally {
+            commitLock.unlock();
+        }
     }
 
     /**
@@ -87,15 +137,8 @@ public class MossToMoss extends ObjectToObjectBase<AmazonS3Client, AmazonS3Clien
      */
     @Override
     public void moveObject(String orgBucket, String originalDir, String targetBucket, String targetDir, List<String> failedList) {
-        List<S3ObjectSummary> summaryList = new ArrayList<>();
-        S3ObjectSummary summaryObj;
-        for (String key : failedList) {
-            summaryObj = new S3ObjectSummary();
-            summaryObj.setBucketName(orgBucket);
-            summaryObj.setKey(key);
-            summaryList.add(summaryObj);
-        }
-        moveObject(summaryList, originalDir, targetBucket, targetDir);
+        // 重试的对象没有列举元数据，迁移时 HEAD 获取大小
+        moveObject(ObjectInfo.fromKeys(orgBucket, failedList), originalDir, targetBucket, targetDir, null);
     }
 
     /**
@@ -104,99 +147,115 @@ public class MossToMoss extends ObjectToObjectBase<AmazonS3Client, AmazonS3Clien
      * @param targetBucket 目的端桶名
      */
     public void moveObject(List<S3ObjectSummary> summaryList, String originalDir, String targetBucket, String targetDir) {
-        ThreadPoolExecutor executor = getThreadPoolExecutor();
-        if (summaryList != null && summaryList.size() > 0) {
-            for (S3ObjectSummary obj : summaryList) {
-                executor.execute(() -> {
-                    if (!originalDir.equals(obj.getKey())) {
-                        migrate(obj.getBucketName(), obj.getKey(), targetBucket, targetDir + obj.getKey().replaceFirst(originalDir, ""));
-                    }
-                    curFinishTaskCount.incrementAndGet();
-                });
+        moveObject(ObjectInfo.fromS3Summaries(summaryList), originalDir, targetBucket, targetDir, null);
+    }
+
+    /**
+     * 迁移对象
+     * @param objects 迁移对象
+     * @param targetBucket 目的端桶名
+     * @param onFinish 每个对象迁移结束后的回调，可为 null
+     */
+    private void moveObject(List<ObjectInfo> objects, String originalDir, String targetBucket, String targetDir, Runnable onFinish) {
+        if (objects != null && objects.size() > 0) {
+            for (ObjectInfo obj : objects) {
+                if (!originalDir.equals(obj.getKey())) {
+                    submitMigrate(obj, targetBucket, targetDir + obj.getKey().replaceFirst(originalDir, ""), onFinish);
+                } else if (onFinish != null) {
+                    onFinish.run();
+                }
             }
         }
     }
 
     @Override
     protected void multiPartMigrate(String orgBucket, String orgKey, String targetBucket, String targetKey, long total) throws Exception {
-        long perSize = getMigratePartSize();
-        long startPos;
-        long endPos;
-        long curPartSize;
-        // 上传或者下载 分段是否全部成功
-        boolean isSuccess = false;
-        // 计算分段数量
-        int partCount = (int) (total / perSize);
-        if (total % perSize != 0) {
-            partCount ++;
+        multiPartMigrate(orgBucket, orgKey, targetBucket, targetKey, total, false);
+    }
+
+    @Override
+    protected boolean serverSideCopy(String orgBucket, String orgKey, String targetBucket, String targetKey, long length) throws Exception {
+        // 分段阈值调大时，超过单次复制上限的对象仍须分段复制，否则复制必然失败并最终关闭复制模式
+        if (length >= getMigrateMaxSize() || length > Constant.S3_COPY_OBJECT_MAX_SIZE) {
+            multiPartMigrate(orgBucket, orgKey, targetBucket, targetKey, length, true);
+        } else {
+            targetObjectService.copyObject(targetClient, orgBucket, orgKey, targetBucket, targetKey);
         }
+        return true;
+    }
+
+    /**
+     * 分段迁移
+     * @param copy 是否使用服务端分段复制，否则分段下载后分段上传
+     */
+    private void multiPartMigrate(String orgBucket, String orgKey, String targetBucket, String targetKey, long total, boolean copy) throws Exception {
         InitiateMultipartUploadRequest iniUploadRequest = new InitiateMultipartUploadRequest(targetBucket, targetKey);
         InitiateMultipartUploadResult iniUploadResult = targetClient.initiateMultipartUpload(iniUploadRequest);
         String uploadId = iniUploadResult.getUploadId();
-        List<PartETag> partETagList = new ArrayList<>();
+        List<PartETag> partETagList;
         logger.info(uuid + " multiPartMigrate() orgBucket: " + orgBucket + " key:" + orgKey + "  targetKey:" + targetKey + "  total:" + total);
-        for (int i = 0; i < partCount; i++) {
-            startPos = i * perSize;
-            endPos = (i + 1 == partCount) ? total : startPos + perSize;
-            curPartSize = (i + 1 == partCount) ? total - startPos : perSize;
-            isSuccess = false;
-            for (int k=0; k++<Constant.RETRY_COUNT; ) {
+        MultipartChecksum checksum = newMultipartChecksum(total, false);
+        try {
+            partETagList = parallelPartMigrate(targetBucket, targetKey, total, (partNumber, startPos, curPartSize) -> {
+                if (copy) {
+                    // 服务端分段复制
+                    return targetObjectService.multiPartCopy(targetClient, orgBucket, orgKey, targetBucket, targetKey, uploadId,
+                            startPos, startPos + curPartSize - 1, partNumber);
+                }
                 // 分段迁移的分段下载
-                try (InputStream input = orgObjectService.multiPartDownloadRange(orgClient, orgBucket, orgKey,
-                        startPos, endPos - 1, uploadId).getObjectContent()) {
+                S3Object range = orgObjectService.multiPartDownloadRange(orgClient, orgBucket, orgKey,
+                        startPos, startPos + curPartSize - 1, uploadId);
+                InputStream partInput = checksum.wrap(range.getObjectContent());
+                try (InputStream input = limitBandwidth(partInput)) {
                     logger.debug(uuid + " multiPartDownloadRange success. bucket:" + orgBucket + " orgKey:" + orgKey
-                            + " startPos:" + startPos + " endPos:" + (endPos - 1) + " uploadId:" + uploadId);
-                    // 分段迁移的分段上传
-                    targetObjectService.multiPartUpload(targetClient, targetBucket, targetKey, input, uploadId, partETagList,
-                            curPartSize, i + 1);
-                    isSuccess = true;
-                    logger.debug(uuid + " multiPartUpload success. bucket:" + targetBucket + " targetKey:" + targetKey
-                            + " curPartSize:" + curPartSize + " partNum:" + (i + 1));
-                    break;
-                } catch (Exception e) {
-                    logger.error(uuid + " multiPartUpload failed. bucket:" + targetBucket + " targetKey:" + targetKey
-                            + " curPartSize:" + curPartSize + " partNum:" + (i + 1), e);
+                            + " startPos:" + startPos + " endPos:" + (startPos + curPartSize - 1) + " uploadId:" + uploadId);
+                    // 分段迁移的分段上传，各分段并发执行，PartETag 由 parallelPartMigrate 按分段编号汇总
+                    List<PartETag> partETags = new ArrayList<>(1);
+                    targetObjectService.multiPartUpload(targetClient, targetBucket, targetKey, input, uploadId, partETags,
+                            curPartSize, partNumber);
+                    // 与目的端返回的分段 ETag 对比，不一致时该分段重试
+                    checksum.verifyPart(targetKey, partNumber, curPartSize, partInput, partETags.get(0).getETag());
+                    return partETags.get(0);
                 }
-            }
-            // 上传重试失败
-            if (!isSuccess) {
-                logger.error(uuid + " multiPartMigrate() multiPartUpload retry failed.  bucket:" + targetBucket + " targetKey:" + targetKey
-                        + " curPartSize:" + curPartSize + " partNum:" + (i + 1));
-                break;
-            }
-        }
-
-        // 分段上传或分段下载未成功
-        if (!isSuccess) {
+            });
+            // 全部分段结束后与源端整个对象的校验值对比
+            checksum.verify(targetKey);
+        } catch (Exception e) {
+            // 分段上传或分段下载未成功
             try {
                 // 删除已上传的数据
                 targetClient.abortMultipartUpload(new AbortMultipartUploadRequest(targetBucket, targetKey, uploadId));
             } catch (Exception e1) {
                 logger.error(uuid + " abortMultipartUpload error. targetBucket:" + targetBucket + " targetKey: " + targetKey, e1);
             }
-            throw new Exception(uuid + ":multiPartMigrate() failed.");
-        } else {
+            throw new Exception(uuid + ":multiPartMigrate() failed.", e);
+        }
+
+        try {
+            // 完成分段上传
+            CompleteMultipartUploadRequest completeRequest = new CompleteMultipartUploadRequest(targetBucket, targetKey, uploadId, partETagList);
+            targetClient.completeMultipartUpload(completeRequest);
+            logger.debug(uuid + " CompleteMultipartUpload success. targetKey:" + targetKey);
+        } catch (Exception e) {
+            logger.debug(uuid + " CompleteMultipartUpload error. "  + targetBucket + " : " + targetKey);
             try {
-                // 完成分段上传
-                CompleteMultipartUploadRequest completeRequest = new CompleteMultipartUploadRequest(targetBucket, targetKey, uploadId, partETagList);
-                targetClient.completeMultipartUpload(completeRequest);
-                logger.debug(uuid + " CompleteMultipartUpload success. targetKey:" + targetKey);
-            } catch (Exception e) {
-                logger.debug(uuid + " CompleteMultipartUpload error. "  + targetBucket + " : " + targetKey);
-                try {
-                    targetClient.abortMultipartUpload(new AbortMultipartUploadRequest(targetBucket, targetKey, uploadId));
-                } catch (Exception e1) {
-                    logger.error(uuid + " :multiPartMigrate() " + targetBucket + " : " + targetKey + " abortMultipartUpload error.", e1);
-                }
-                throw e;
+                targetClient.abortMultipartUpload(new AbortMultipartUploadRequest(targetBucket, targetKey, uploadId));
+            } catch (Exception e1) {
+                logger.error(uuid + " :multiPartMigrate() " + targetBucket + " : " + targetKey + " abortMultipartUpload error.", e1);
             }
+            throw e;
         }
     }
 
     @Override
     protected void doMigrate(String orgBucket, String orgKey, String targetBucket, String targetKey)  {
         S3Object object = orgObjectService.getObject(orgClient, orgBucket, orgKey);
+        ObjectMetadata metadata = object.getObjectMetadata();
+        InputStream input = verifying(object.getObjectContent(), metadata.getContentLength(),
+                MossObjectService.contentETag(metadata), null);
+        object.setObjectContent(limitBandwidth(input));
         targetObjectService.putObject(targetClient, targetBucket, targetKey, object);
+        verifyTransferred(input, targetBucket, targetKey);
     }
 
     @Override
@@ -205,6 +264,27 @@ public class MossToMoss extends ObjectToObjectBase<AmazonS3Client, AmazonS3Clien
         targetClient.shutdown();
     }
 
+    @Override
+    protected void deleteTargetObject(String targetBucket, String targetKey) {
+        targetObjectService.deleteObject(targetClient, targetBucket, targetKey);
+    }
+
+    @Override
+    protected void bindMetrics(JobMetrics metrics) {
+        // 源端和目的端使用同一个服务
+        orgObjectService.setMetrics(metrics);
+    }
+
+    @Override
+    protected ListPage<ObjectInfo> listOrgObjects(String orgBucket, String prefix, String marker) {
+        return orgObjectService.listObjects(orgClient, orgBucket, prefix, marker);
+    }
+
+    @Override
+    protected ListPage<ObjectInfo> listTargetObjects(String targetBucket, String prefix, String marker) {
+        return targetObjectService.listObjects(targetClient, targetBucket, prefix, marker);
+    }
+
     @Override
     protected Long getObjectContentLength(String orgBucket, String key) throws SdkClientException {
         return orgObjectService.getObjectContentLength(orgClient, orgBucket, key);
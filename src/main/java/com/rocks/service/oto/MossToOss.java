@@ -9,14 +9,14 @@ import com.amazonaws.services.s3.model.ListObjectsRequest;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
-import com.rocks.constant.Constant;
+import com.rocks.utils.JobMetrics;
+import com.rocks.vo.ObjectInfo;
 import org.apache.log4j.Logger;
 
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 @Deprecated
@@ -27,15 +27,8 @@ public class MossToOss extends ObjectToObjectBase<AmazonS3, OSSClient> {
 
     @Override
     void moveObject(String orgBucket, String originalDir, String targetBucket, String targetDir, List<String> failedList) {
-        List<S3ObjectSummary> summaryList = new ArrayList<>();
-        S3ObjectSummary summaryObj;
-        for (String key : failedList) {
-            summaryObj = new S3ObjectSummary();
-            summaryObj.setBucketName(orgBucket);
-            summaryObj.setKey(key);
-            summaryList.add(summaryObj);
-        }
-        moveObject(summaryList, targetBucket, targetDir);
+        // 重试的对象没有列举元数据，迁移时 HEAD 获取大小
+        moveObjects(ObjectInfo.fromKeys(orgBucket, failedList), targetBucket, targetDir);
     }
 
     @Override
@@ -47,16 +40,28 @@ public class MossToOss extends ObjectToObjectBase<AmazonS3, OSSClient> {
         request.setEncodingType("null");
         request.setBucketName(orgBucket);
         request.setPrefix(originalDir);
+        nextMarker = resumeJournalMarker(nextMarker);
+        // 断点只记录在迁移日志中，某页及之前所有页的对象都迁移结束后推进到该页最后一个对象
+        PageCheckpoint checkpoint = new PageCheckpoint(nextMarker, marker -> journalMarker(0, marker));
         while (isTruncated) {
             try {
                 request.setMarker(nextMarker);
+                long begin = System.nanoTime();
+                ListPageEvent event = new ListPageEvent();
+                event.begin();
                 objectListing = orgClient.listObjects(request);
+                metrics.record(JobMetrics.Operation.LIST, begin);
+                ListPageEvent.commit(event, uuid, originalDir, nextMarker, objectListing.getObjectSummaries().size(), objectListing.isTruncated(), null);
                 nextMarker = objectListing.getNextMarker();
                 summaryList = objectListing.getObjectSummaries();
-                moveObject(summaryList, targetBucket, targetDir);
+                if (!summaryList.isEmpty()) {
+                    Runnable onFinish = checkpoint.register(summaryList.size(), summaryList.get(summaryList.size() - 1).getKey());
+                    moveObjects(ObjectInfo.fromS3Summaries(summaryList), targetBucket, targetDir, onFinish);
+                }
                 isTruncated = objectListing.isTruncated();
             } catch (Exception e) {
                 logger.error(" migrateBatch() failed. uuid:" + uuid + " orgBucket:" + orgBucket + " nextMarker:" + nextMarker, e);
+                MigrateRetryEvent.emit(uuid, "list", nextMarker, 0, 0, e);
                 try {
                     TimeUnit.SECONDS.sleep(2);
                 } catch (InterruptedException interruptedException) {
@@ -72,10 +77,17 @@ public class MossToOss extends ObjectToObjectBase<AmazonS3, OSSClient> {
      * @param targetBucket 目的端桶名
      */
     public void moveObject(List<S3ObjectSummary> summaryList, String targetBucket, String targetDir) {
-        ThreadPoolExecutor executor = getThreadPoolExecutor();
-        if (summaryList != null && summaryList.size() > 0) {
-            for (S3ObjectSummary obj : summaryList) {
-                executor.execute(() -> migrate(obj.getBucketName(), obj.getKey(), targetBucket, targetDir + obj.getKey()));
+        moveObjects(ObjectInfo.fromS3Summaries(summaryList), targetBucket, targetDir);
+    }
+
+    private void moveObjects(List<ObjectInfo> objects, String targetBucket, String targetDir) {
+        moveObjects(objects, targetBucket, targetDir, null);
+    }
+
+    private void moveObjects(List<ObjectInfo> objects, String targetBucket, String targetDir, Runnable onFinish) {
+        if (objects != null && objects.size() > 0) {
+            for (ObjectInfo obj : objects) {
+                submitMigrate(obj, targetBucket, targetDir + obj.getKey(), onFinish);
             }
         }
     }
@@ -92,7 +104,7 @@ public class MossToOss extends ObjectToObjectBase<AmazonS3, OSSClient> {
     }
 
 
-    private ObjectMetadata toOssObjetMetadata(com.amazonaws.services.s3.model.ObjectMetadata objectMetadata) {
+    static ObjectMetadata toOssObjetMetadata(com.amazonaws.services.s3.model.ObjectMetadata objectMetadata) {
         ObjectMetadata metadata = new ObjectMetadata();
         Map<String, Object> rawMetadata = objectMetadata.getRawMetadata();
         Map<String, String> userMetadata = objectMetadata.getUserMetadata();
@@ -117,73 +129,52 @@ public class MossToOss extends ObjectToObjectBase<AmazonS3, OSSClient> {
 
     @Override
     protected void multiPartMigrate(String orgBucket, String orgKey, String targetBucket, String targetKey, long total) throws Exception {
-        long perSize = getMigratePartSize();
-        long startPos;
-        long endPos;
-        long curPartSize;
-        // 上传或者下载 分段是否全部成功
-        boolean isSuccess = false;
-        // 计算分段数量
-        int partCount = (int) (total / perSize);
-        if (total % perSize != 0) {
-            partCount ++;
-        }
         InitiateMultipartUploadRequest iniUploadRequest = new InitiateMultipartUploadRequest(targetBucket, orgKey);
         InitiateMultipartUploadResult iniUploadResult = targetClient.initiateMultipartUpload(iniUploadRequest);
         String uploadId = iniUploadResult.getUploadId();
-        List<PartETag> partETagList = new ArrayList<>();
+        List<PartETag> partETagList;
         logger.debug("multiPartMigrate() orgBucket: " + orgBucket + " key:" + orgKey + "  total:" + total);
-        for (int i = 0; i < partCount; i++) {
-            startPos = i * perSize;
-            endPos = (i + 1 == partCount) ? total : startPos + perSize;
-            curPartSize = (i + 1 == partCount) ? total - startPos : perSize;
-
-            for (int k=0; k++<Constant.RETRY_COUNT; ) {
+        MultipartChecksum checksum = newMultipartChecksum(total, false);
+        try {
+            partETagList = parallelPartMigrate(targetBucket, orgKey, total, (partNumber, startPos, curPartSize) -> {
                 // 分段迁移的分段下载
-                try (InputStream input = orgObjectService.multiPartDownloadRange(orgClient, orgBucket, orgKey,
-                        startPos, endPos - 1, uploadId).getObjectContent()) {
-                    // 分段迁移的分段上传
-                    targetObjectService.multiPartUpload(targetClient, targetBucket, orgKey, input, uploadId, partETagList,
-                            curPartSize, i + 1);
-                    isSuccess = true;
-                    logger.debug("multiPartUpload success. bucket:" + targetBucket + " obj:" + orgKey
-                            + " curPartSize:" + curPartSize + " partNum:" + (i + 1));
-                    break;
-                } catch (Exception e) {
-                    logger.error("multiPartUpload failed. bucket:" + targetBucket + " obj:" + orgKey
-                            + " curPartSize:" + curPartSize + " partNum:" + (i + 1), e);
+                S3Object range = orgObjectService.multiPartDownloadRange(orgClient, orgBucket, orgKey,
+                        startPos, startPos + curPartSize - 1, uploadId);
+                InputStream partInput = checksum.wrap(range.getObjectContent());
+                try (InputStream input = limitBandwidth(partInput)) {
+                    // 分段迁移的分段上传，各分段并发执行，PartETag 由 parallelPartMigrate 按分段编号汇总
+                    List<PartETag> partETags = new ArrayList<>(1);
+                    targetObjectService.multiPartUpload(targetClient, targetBucket, orgKey, input, uploadId, partETags,
+                            curPartSize, partNumber);
+                    // 与目的端返回的分段 ETag 对比，不一致时该分段重试
+                    checksum.verifyPart(orgKey, partNumber, curPartSize, partInput, partETags.get(0).getETag());
+                    return partETags.get(0);
                 }
-            }
-            // 上传重试失败
-            if (!isSuccess) {
-                logger.error("multiPartMigrate() multiPartUpload retry failed.  bucket:" + targetBucket + " obj:" + orgKey
-                        + " curPartSize:" + curPartSize + " partNum:" + (i + 1));
-                break;
-            }
-        }
-
-        // 分段上传或分段下载未成功
-        if (!isSuccess) {
+            });
+            // 全部分段结束后与源端整个对象的校验值对比
+            checksum.verify(orgKey);
+        } catch (Exception e) {
+            // 分段上传或分段下载未成功
             try {
                 // 删除已上传的数据
                 targetClient.abortMultipartUpload(new AbortMultipartUploadRequest(targetBucket, orgKey, uploadId));
             } catch (Exception e1) {
                 logger.error(targetBucket + " : " + orgKey + " abortMultipartUpload error.", e1);
             }
-            throw new Exception("multiPartMigrate() failed.");
-        } else {
+            throw new Exception("multiPartMigrate() failed.", e);
+        }
+
+        try {
+            // 完成分段上传
+            CompleteMultipartUploadRequest completeRequest = new CompleteMultipartUploadRequest(targetBucket, orgKey, uploadId, partETagList);
+            targetClient.completeMultipartUpload(completeRequest);
+        } catch (Exception e) {
             try {
-                // 完成分段上传
-                CompleteMultipartUploadRequest completeRequest = new CompleteMultipartUploadRequest(targetBucket, orgKey, uploadId, partETagList);
-                targetClient.completeMultipartUpload(completeRequest);
-            } catch (Exception e) {
-                try {
-                    targetClient.abortMultipartUpload(new AbortMultipartUploadRequest(targetBucket, orgKey, uploadId));
-                } catch (Exception e1) {
-                    logger.error(targetBucket + " : " + orgKey + " abortMultipartUpload error.", e1);
-                }
-                throw e;
+                targetClient.abortMultipartUpload(new AbortMultipartUploadRequest(targetBucket, orgKey, uploadId));
+            } catch (Exception e1) {
+                logger.error(targetBucket + " : " + orgKey + " abortMultipartUpload error.", e1);
             }
+            throw e;
         }
     }
 
@@ -193,10 +184,43 @@ public class MossToOss extends ObjectToObjectBase<AmazonS3, OSSClient> {
         S3Object s3Object = orgObjectService.getObject(orgClient, orgBucket, orgKey);
         // 上传对象
         if (s3Object != null) {
+            InputStream input = verifying(s3Object.getObjectContent(), s3Object.getObjectMetadata().getContentLength(),
+                    MossObjectService.contentETag(s3Object.getObjectMetadata()), null);
+            s3Object.setObjectContent(limitBandwidth(input));
             targetObjectService.putObject(targetClient, targetBucket, targetKey, toOssObject(s3Object));
+            verifyTransferred(input, targetBucket, targetKey);
         }
     }
 
+    @Override
+    protected void deleteTargetObject(String targetBucket, String targetKey) {
+        targetObjectService.deleteObject(targetClient, targetBucket, targetKey);
+    }
+
+    @Override
+    protected void bindMetrics(JobMetrics metrics) {
+        orgObjectService.setMetrics(metrics);
+        targetObjectService.setMetrics(metrics);
+    }
+
+    @Override
+    protected ListPage<ObjectInfo> listOrgObjects(String orgBucket, String prefix, String marker) {
+        return orgObjectService.listObjects(orgClient, orgBucket, prefix, marker);
+    }
+
+    @Override
+    protected ListPage<ObjectInfo> listTargetObjects(String targetBucket, String prefix, String marker) {
+        return targetObjectService.listObjects(targetClient, targetBucket, prefix, marker);
+    }
+
+    /**
+     * 与 migrateBatch 一致，目的端对象名为 targetDir + 源端对象名
+     */
+    @Override
+    protected String toTargetKey(String orgKey, String originalDir, String targetDir) {
+        return targetDir + orgKey;
+    }
+
     @Override
     protected Long getObjectContentLength(String orgBucket, String key) throws SdkClientException {
         return orgObjectService.getObjectContentLength(orgClient, orgBucket, key);
@@ -0,0 +1,95 @@
+package com.rocks.service.oto;
+
+import com.aliyun.oss.common.utils.CRC64;
+import com.rocks.utils.ChecksumInputStream;
+
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分段迁移的校验：每个分段边读边计算 MD5，与目的端返回的分段 ETag 对比，不一致时该分段重试；
+ * 源端有 CRC64 时同时计算各分段的 CRC64，全部分段结束后按顺序合并，与源端整个对象的 CRC64 对比
+ * @author zhuang
+ */
+class MultipartChecksum {
+    private final boolean enabled;
+    private final boolean crc64;
+    private final long total;
+    private final long partSize;
+    private final AtomicLongArray partCrcs;
+    private volatile Long sourceCrc64;
+
+    /**
+     * @param enabled 是否校验，不校验时各方法不做任何事
+     * @param crc64 源端是否提供 CRC64（OSS）
+     * @param partSize 分段大小，与 parallelPartMigrate 一致
+     */
+    MultipartChecksum(boolean enabled, boolean crc64, long total, long partSize) {
+        this.enabled = enabled;
+        this.crc64 = enabled && crc64;
+        this.total = total;
+        this.partSize = partSize;
+        this.partCrcs = this.crc64 ? new AtomicLongArray((int) ((total + partSize - 1) / partSize)) : null;
+    }
+
+    /**
+     * 分段的源端数据流
+     */
+    InputStream wrap(InputStream input) {
+        return enabled && input != null ? new ChecksumInputStream(input, true, crc64) : input;
+    }
+
+    /**
+     * 源端整个对象的 CRC64，分段下载的响应头中获取，为 null 时不做整体校验
+     */
+    void setSourceCrc64(Long crc64) {
+        if (crc64 != null) {
+            sourceCrc64 = crc64;
+        }
+    }
+
+    /**
+     * 分段上传后校验该分段
+     * @param input wrap 返回的数据流
+     * @param targetETag 目的端返回的分段 ETag
+     * @throws ChecksumMismatchException 大小或 MD5 不一致
+     */
+    void verifyPart(String key, int partNumber, long curPartSize, InputStream input, String targetETag) {
+        if (!(input instanceof ChecksumInputStream)) {
+            return;
+        }
+        ChecksumInputStream checksum = (ChecksumInputStream) input;
+        if (checksum.getBytesRead() != curPartSize) {
+            throw new ChecksumMismatchException("checksum mismatch, part length. key:" + key + " partNum:" + partNumber
+                    + " expected:" + curPartSize + " actual:" + checksum.getBytesRead());
+        }
+        String targetMd5 = VerifyingInputStream.toMd5(targetETag);
+        if (targetMd5 != null && !targetMd5.equals(checksum.getMd5Hex())) {
+            throw new ChecksumMismatchException("checksum mismatch, part md5. key:" + key + " partNum:" + partNumber
+                    + " target:" + targetMd5 + " source:" + checksum.getMd5Hex());
+        }
+        if (crc64) {
+            partCrcs.set(partNumber - 1, checksum.getCrc64());
+        }
+    }
+
+    /**
+     * 所有分段成功后、完成分段上传前调用
+     * @throws ChecksumMismatchException 合并后的 CRC64 与源端不一致
+     */
+    void verify(String key) {
+        Long expected = sourceCrc64;
+        if (!crc64 || expected == null) {
+            return;
+        }
+        long crc = 0;
+        for (int i = 0; i < partCrcs.length(); i++) {
+            long curPartSize = (i == partCrcs.length() - 1) ? total - i * partSize : partSize;
+            crc = i == 0 ? partCrcs.get(i) : CRC64.combine(crc, partCrcs.get(i), curPartSize);
+        }
+        if (crc != expected) {
+            throw new ChecksumMismatchException("checksum mismatch, crc64. key:" + key
+                    + " expected:" + Long.toUnsignedString(expected) + " actual:" + Long.toUnsignedString(crc));
+        }
+    }
+}
@@ -3,18 +3,34 @@ package com.rocks.service.oto;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.rocks.constant.Constant;
 import com.rocks.constant.ErrorType;
+import com.rocks.utils.BandwidthLimiter;
 import com.rocks.utils.CountMapCache;
 import com.rocks.utils.CurFailedDocsCache;
+import com.rocks.utils.FailedKeyLog;
 import com.rocks.utils.FailedDocsCache;
+import com.rocks.utils.JobCounterCache;
+import com.rocks.utils.JobMetrics;
+import com.rocks.utils.ListProgressCache;
+import com.rocks.utils.MetricsCache;
+import com.rocks.utils.ProgressEstimateCache;
+import com.rocks.utils.MigrateJournal;
 import com.rocks.utils.MigrateUtils;
+import com.rocks.utils.ThrottledInputStream;
+import com.rocks.utils.VirtualThreads;
 import com.rocks.vo.ClientEntityMap;
+import com.rocks.vo.ObjectInfo;
 import lombok.Getter;
 import lombok.Setter;
 import org.apache.log4j.Logger;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * 对象储存迁移到对象储存
@@ -25,19 +41,98 @@ import java.util.concurrent.atomic.AtomicInteger;
 @Getter
 public abstract class ObjectToObjectBase<O, T> {
     private static Logger logger = Logger.getLogger("ObjectToObjectBase.class");
-    /** 执行线程数 */
+    /** 执行线程数，即小对象通道的线程数 */
     private Integer workNum = Constant.THREAD_SIZE;
+    /** 大对象通道的线程数 */
+    private Integer largeWorkNum = Constant.LARGE_LANE_THREAD_SIZE;
+    /** 不小于该值的对象走大对象通道 */
+    private long largeObjectSize = Constant.LARGE_OBJECT_SIZE;
+    /** 虚拟线程模式（Java 21）：每个迁移任务一个虚拟线程，并发数由信号量控制，可以把并发数设得很大，日志配置见 VirtualThreads */
+    private boolean virtualThreads = false;
+    /** 自适应并发控制：按请求耗时、错误率和限流响应在 [minWorkNum, maxWorkNum] 之间调整并发数，workNum 为初始值 */
+    private boolean adaptiveConcurrency = false;
+    private Integer minWorkNum = Constant.MIN_THREAD_SIZE;
+    private Integer maxWorkNum = Constant.MAX_THREAD_SIZE;
     private long migrateMaxSize = Constant.MIGRATE_MAX_SIZE;
     private long migratePartSize = Constant.MIGRATE_PART_SIZE;
+    /** 分段迁移时单个对象同时迁移的分段数 */
+    private Integer partWorkNum = Constant.MIGRATE_PART_THREAD_SIZE;
+    /** 并发列举的线程数：OSS 目录树同时列举的目录数，分片列举时同时列举的分片数 */
+    private Integer listWorkNum = Constant.LIST_THREAD_SIZE;
+    /** 平铺桶是否按键范围分片并发列举。分片后 TaskConfig 保存的断点为各分片断点编码后的 "shards:..."，默认不分片 */
+    private boolean listShard = Constant.LIST_SHARD;
+    /** 分片列举的分界字符 */
+    private String listShardAlphabet = Constant.LIST_SHARD_ALPHABET;
+    /** 分片列举的分界键（如采样得到的键），设置后代替 listShardAlphabet */
+    private List<String> listShardKeys;
+    /** 服务端复制模式：源端和目的端在同一集群/地域时开启，对象通过 CopyObject/UploadPartCopy 迁移 */
+    private volatile boolean copyMode = false;
+    /** 增量同步模式：归并比较源端和目的端的列举结果，只迁移新增和有变化的对象 */
+    private boolean syncMode = false;
+    /** 增量同步时是否报告只存在于目的端的对象 */
+    private boolean reportTargetOnly = false;
+    /** 迁移日志目录，应为宿主应用数据目录下的绝对路径（相对路径按进程的工作目录解析），默认 null 不记录迁移日志 */
+    private String journalDir;
+    /** 迁移失败对象日志目录，应为绝对路径，默认 null 不记录 */
+    private String failedLogDir;
+    /** 重试时从失败对象日志读取待重试的对象，而不是使用传入的 failedList，需要配置 failedLogDir */
+    private boolean retryFromFailedLog = false;
+    /** 全局调度模式：不创建本迁移的线程池，任务交给进程内共用的 TransferScheduler，与其他迁移按优先级和权重公平分配并发 */
+    private boolean sharedScheduler = false;
+    /** 全局调度时的优先级，越大越先执行，运行时可调整 */
+    private int jobPriority = 0;
+    /** 全局调度时同一优先级内的权重，运行时可调整 */
+    private int jobWeight = Constant.DEFAULT_JOB_WEIGHT;
+    /** 本迁移的带宽上限，单位 MB/s，0 表示不限，运行时可调整 */
+    private long bandwidthLimit = 0;
+    /** 本迁移按时段的带宽上限，如 "09:00-18:00=100,18:00-09:00=0"，单位 MB/s，不在任何时段内时使用 bandwidthLimit */
+    private String bandwidthSchedule;
+    /** 传输时边读边计算 MD5/CRC64，与源端 ETag 或 CRC64、目的端分段 ETag 对比，不一致的对象按迁移失败处理 */
+    private boolean verifyChecksum = Constant.VERIFY_CHECKSUM;
+    /** 异步迁移引擎，设置后列举得到大小的对象通过异步请求迁移，不占用通道线程 */
+    private AsyncTransferEngine asyncEngine;
     private long startTime;
     protected String uuid;
     protected O orgClient;
     protected T targetClient;
-    protected ConcurrentHashMap<String, ThreadPoolExecutor> uuidThreadPoolExecutorMap = new ConcurrentHashMap<>();
+    /** 小对象通道 */
+    protected ConcurrentHashMap<String, TransferLane> uuidSmallLaneMap = new ConcurrentHashMap<>();
+    /** 大对象通道 */
+    protected ConcurrentHashMap<String, TransferLane> uuidLargeLaneMap = new ConcurrentHashMap<>();
+    /** 分段迁移的分段线程池 */
+    protected ConcurrentHashMap<String, ExecutorService> uuidPartThreadPoolExecutorMap = new ConcurrentHashMap<>();
     public static ConcurrentHashMap<String, AmazonS3Client> uuidAmazonS3ClientMap = new ConcurrentHashMap<>();
+    /** 正在进行的迁移，停止迁移时按 uuid 查找 */
+    private static final ConcurrentHashMap<String, ObjectToObjectBase<?, ?>> uuidRunningJobMap = new ConcurrentHashMap<>();
+    /** 使用的共用客户端，迁移结束时释放而不是关闭 */
+    private final List<SharedClientCache.Lease<?>> clientLeases = new CopyOnWriteArrayList<>();
 
-    /** 当前子任务完成数量 */
-    protected AtomicInteger curFinishTaskCount = new AtomicInteger(0);
+    /** 列举进度，仅新建迁移时记录 */
+    private ListProgressCache.ListProgress listProgress;
+    /** 迁移日志，仅新建迁移时记录 */
+    protected MigrateJournal journal;
+    /** 迁移的生命周期，列举结束且所有对象迁移结束时完成 */
+    protected JobTracker jobTracker;
+    /** 迁移的成功/失败计数，迁移开始时创建 */
+    protected JobCounterCache.JobCounters counters;
+    /** 迁移的吞吐和剩余时间估计，迁移开始时创建 */
+    protected ProgressEstimateCache.ProgressEstimator progress;
+    /** 迁移指标，迁移开始时创建，通过 JMX 和 PrometheusExporter 输出 */
+    protected JobMetrics metrics;
+    /** 本迁移的带宽限制，与全局带宽限制同时生效 */
+    private final BandwidthLimiter bandwidthLimiter = new BandwidthLimiter("job", 0);
+    /** 自适应并发控制，未开启时为 null */
+    private volatile ConcurrencyController concurrencyController;
+    /** 迁移失败对象日志，重试时从中流式读取 */
+    protected FailedKeyLog failedKeyLog;
+    /** 从失败对象日志重试时，正在重试的对象已尝试的次数 */
+    private final ConcurrentHashMap<String, Integer> retryAttempts = new ConcurrentHashMap<>();
+    /** 列举是否正常结束，正常结束时迁移完成后删除迁移日志 */
+    private volatile boolean listCompleted = false;
+    /** 迁移已停止：不再提交新的对象，排队中的对象按失败处理 */
+    private volatile boolean aborted = false;
+    /** 服务端复制连续失败次数，达到重试次数后关闭复制模式 */
+    private AtomicInteger copyFailedCount = new AtomicInteger(0);
 
     /**
      * 重试迁移失败的文件
@@ -51,7 +146,30 @@ public abstract class ObjectToObjectBase<O, T> {
     abstract void migrateBatch(String orgBucket, String targetBucket, String nextMarker, String originalDir, String targetDir);
 
     /**
-     * 统计该桶内的文件数量
+     * 平铺列举源端一页，按字典序，用于增量同步
+     */
+    protected abstract ListPage<ObjectInfo> listOrgObjects(String orgBucket, String prefix, String marker);
+
+    /**
+     * 平铺列举目的端一页，按字典序，用于增量同步
+     */
+    protected abstract ListPage<ObjectInfo> listTargetObjects(String targetBucket, String prefix, String marker);
+
+    /**
+     * 源端对象名对应的目的端对象名，与 migrateBatch 的映射一致
+     */
+    protected String toTargetKey(String orgKey, String originalDir, String targetDir) {
+        return targetDir + orgKey.replaceFirst(originalDir, "");
+    }
+
+    /**
+     * 把迁移指标交给源端和目的端的服务，记录各类请求的耗时
+     */
+    protected void bindMetrics(JobMetrics metrics) {
+    }
+
+    /**
+     * 统计该桶内的文件数量。迁移时总数由列举过程累计，不再调用
      * @param orgBucket 桶名
      */
     abstract int getObjectCount(String orgBucket, String dir);
@@ -72,53 +190,115 @@ public abstract class ObjectToObjectBase<O, T> {
      */
     protected abstract void doMigrate(String orgBucket, String orgKey, String targetBucket, String targetDir);
 
+    /**
+     * 删除目的端对象，用于校验不一致时删除已写入的数据
+     */
+    protected abstract void deleteTargetObject(String targetBucket, String targetKey);
+
+    /**
+     * 服务端复制迁移，数据不经过本服务。仅同厂商的子类支持
+     * @return 是否支持服务端复制，不支持则走普通迁移/分段迁移
+     */
+    protected boolean serverSideCopy(String orgBucket, String orgKey, String targetBucket, String targetKey, long length) throws Exception {
+        return false;
+    }
+
+    /**
+     * 判断源端和目的端是否可以共享数据（同一集群/地域），可以则使用服务端复制
+     * @param originalAddress 源端地址
+     * @param targetAddress 目的端地址
+     */
+    public static boolean canServerSideCopy(String originalAddress, String targetAddress) {
+        if (originalAddress == null || targetAddress == null) {
+            return false;
+        }
+        return normalizeAddress(originalAddress).equals(normalizeAddress(targetAddress));
+    }
+
+    private static String normalizeAddress(String address) {
+        String host = address.trim().toLowerCase();
+        int index = host.indexOf("://");
+        if (index >= 0) {
+            host = host.substring(index + 3);
+        }
+        while (host.endsWith("/")) {
+            host = host.substring(0, host.length() - 1);
+        }
+        return host;
+    }
+
     /**
      * 对象存储的桶内对象 迁移到 某个对象存储的桶内
      * @param orgBucket 源端桶名
      * @param targetBucket 目的端桶名
-     * @param failedList 迁移失败的文件名称
+     * @param failedList 迁移失败的文件名称，retryFromFailedLog 开启时忽略，从失败对象日志中读取
      * @param uuid 事件标识
      */
     public void start(String orgBucket, String targetBucket, List<String> failedList, String marker, String uuid, String originalDir, String targetDir) {
         startTime = System.currentTimeMillis();
         this.uuid = uuid;
+        uuidRunningJobMap.put(uuid, this);
+        jobTracker = new JobTracker(uuid);
+        counters = JobCounterCache.start(uuid);
+        progress = ProgressEstimateCache.start(uuid);
+        metrics = MetricsCache.start(uuid);
+        metrics.setInFlightSupplier(jobTracker::getInFlight);
+        metrics.setQueueDepthSupplier(this::getQueueDepth);
+        bindMetrics(metrics);
+        bandwidthLimiter.setRate(bandwidthLimit * 1024 * 1024);
+        bandwidthLimiter.setSchedule(bandwidthSchedule);
+        if (adaptiveConcurrency) {
+            concurrencyController = new ConcurrencyController(uuid, workNum, minWorkNum, maxWorkNum, this::resizeLanes);
+        }
+        if (sharedScheduler) {
+            // 正在执行的任务数不超过两个通道的并发数之和，与平台线程模式一致，分段线程池按此上限计算，不会被占满
+            TransferScheduler.getInstance().register(uuid, jobPriority, jobWeight, workNum + getLargeLaneWorkNum(workNum));
+        }
         if (null == failedList) {
             logger.info(uuid + " migrate processing...");
-            // 新建下载
-            // 异步计算文件总数
-            ExecutorService asynPool = Executors.newFixedThreadPool(2);
-            UploadCountTask uploadCountTask = new UploadCountTask(orgBucket, uuid, originalDir);
-            Future<Integer> future = asynPool.submit(uploadCountTask);
+            // 新建下载，对象总数在迁移的列举过程中累计，不再单独列举一遍桶。
+            // 成功/失败计数接着之前的计数，之前结束的对象（断点之前的、迁移日志中跳过的）已计入其中，总数也从这里开始累计
+            long baseNum = counters.getSuccessSize() + counters.getFailedSize();
+            listProgress = ListProgressCache.start(uuid, baseNum);
+            journal = openJournal();
+            failedKeyLog = openFailedKeyLog();
+            ExecutorService asynPool = Executors.newSingleThreadExecutor();
             // 开始迁移
             asynPool.execute(() -> {
                 try {
-                    migrateBatch(orgBucket, targetBucket, marker, originalDir, targetDir);
+                    if (syncMode) {
+                        new DeltaSync(this).sync(orgBucket, targetBucket, marker, originalDir, targetDir);
+                    } else {
+                        migrateBatch(orgBucket, targetBucket, marker, originalDir, targetDir);
+                    }
+                    listCompleted = !Thread.currentThread().isInterrupted();
                 } catch (Exception e) {
                     logger.error(uuid + " start() migrateBatch failed. uuid:" + uuid + " orgBucket:" + orgBucket + " targetBucket:" + targetBucket, e);
                 } finally {
+                    // 缓存map记录文件总数
+                    long totalNum = listProgress.finish();
+                    logger.info(uuid + " count total num " + totalNum + " success, list costs " + (System.currentTimeMillis() - startTime) + "ms");
+                    CountMapCache.addTotalNumToMap(uuid, (int) totalNum);
                     logger.debug(uuid + " migrate end ");
                     shutdownExecutorAndClient(uuid);
                 }
             });
-            // 获取异步计算结果
-            try {
-                while(true) {
-                    if (future.isDone()) {
-                        // 缓存map记录文件总数
-                        logger.info(uuid + " count total num " + future.get() + " success.");
-                        CountMapCache.addTotalNumToMap(uuid, future.get());
-                        break;
-                    }
-                    TimeUnit.SECONDS.sleep(1);
-                }
-            } catch (Exception e) {
-                logger.error(uuid + " Asyn Count error.", e);
-            }
+            asynPool.shutdown();
         } else {
             logger.info(uuid + " migrate retry processing...");
+            failedKeyLog = openFailedKeyLog();
             // 重试下载
             try {
-                moveObject(orgBucket, originalDir, targetBucket, targetDir, failedList);
+                if (retryFromFailedLog) {
+                    retryFailedLog(orgBucket, originalDir, targetBucket, targetDir);
+                } else {
+                    // 传入的 failedList 代替日志中的记录，日志只保留本次重试的失败
+                    if (failedKeyLog != null) {
+                        failedKeyLog.rotate();
+                    }
+                    moveObject(orgBucket, originalDir, targetBucket, targetDir, failedList);
+                }
+                listCompleted = true;
             } catch (Exception e) {
                 logger.error(uuid + " start() moveObject failed. uuid:" + uuid + " orgBucket:" + orgBucket + " targetBucket:" + targetBucket, e);
             } finally {
@@ -131,151 +311,832 @@ public abstract class ObjectToObjectBase<O, T> {
      * 迁移：分段迁移、普通迁移
      */
     public void migrate(String orgBucket, String orgKey, String targetBucket, String targetKey) {
+        migrate(ObjectInfo.of(orgBucket, orgKey), targetBucket, targetKey);
+    }
+
+    /**
+     * 从失败对象日志按批流式重试，每批交给子类的 moveObject，目的端对象名与原有重试方式一致
+     */
+    private void retryFailedLog(String orgBucket, String originalDir, String targetBucket, String targetDir) throws IOException {
+        if (failedKeyLog == null) {
+            logger.warn(uuid + " retryFailedLog() failed log is not configured.");
+            return;
+        }
+        File retrying = failedKeyLog.rotate();
+        if (retrying == null) {
+            logger.info(uuid + " retryFailedLog() no failed object.");
+            return;
+        }
+        long total = FailedKeyLog.readBatches(retrying, Constant.RETRY_BATCH_SIZE, batch -> {
+            List<String> keys = new ArrayList<>(batch.size());
+            for (FailedKeyLog.FailedKey failedKey : batch) {
+                retryAttempts.put(failedKey.getKey(), failedKey.getAttempts());
+                keys.add(failedKey.getKey());
+            }
+            moveObject(orgBucket, originalDir, targetBucket, targetDir, keys);
+        });
+        logger.info(uuid + " retryFailedLog() submit end. total:" + total);
+    }
+
+    /**
+     * 迁移：分段迁移、普通迁移。有列举元数据时直接使用列举得到的大小，没有时才 HEAD 获取
+     * @param obj 待迁移对象
+     */
+    public void migrate(ObjectInfo obj, String targetBucket, String targetKey) {
+        migrate(obj, targetBucket, targetKey, System.nanoTime());
+    }
+
+    /**
+     * @param submitNanos 提交到通道的时间（System.nanoTime()），用于记录排队时间
+     */
+    private void migrate(ObjectInfo obj, String targetBucket, String targetKey, long submitNanos) {
+        MigrateObjectEvent event = new MigrateObjectEvent();
+        // JFR 事件未开启时不累计各类请求的耗时
+        long[] timings = event.isEnabled() ? TransferTimings.start() : null;
+        long queueWait = System.nanoTime() - submitNanos;
+        event.begin();
+        String orgBucket = obj.getBucket();
+        String orgKey = obj.getKey();
+        long beginTime = System.currentTimeMillis();
+        Long length = obj.getSize();
+        String mode = "single";
+        Exception error = null;
         try {
-            Long length = getObjectContentLength(orgBucket, orgKey);
-            if (length >= migrateMaxSize) {
+            if (aborted) {
+                throw new CancellationException(uuid + " migrate aborted");
+            }
+            if (!obj.hasSummary()) {
+                length = getObjectContentLength(orgBucket, orgKey);
+            }
+            if (copyMode && copyMigrate(orgBucket, orgKey, targetBucket, targetKey, length)) {
+                mode = "copy";
+                logger.debug(uuid + " serverSideCopy success. key: " + orgKey);
+            } else if (length >= migrateMaxSize) {
+                mode = "multipart";
                 multiPartMigrate(orgBucket, orgKey, targetBucket, targetKey, length);
             } else {
                 doMigrate(orgBucket, orgKey, targetBucket, targetKey);
             }
-            CountMapCache.countNum(uuid, "s");
+            // 大对象的吞吐已按分段计入
+            migrateSucceeded(orgKey, beginTime, length, length >= migrateMaxSize);
         } catch (Exception e) {
-            logger.error(uuid + " migrate object error. key: " + orgKey, e);
-            // 失败计数和失败文件名、原因记录
-            int errorType = ErrorType.getErrorType(e.getMessage());
-            CountMapCache.countNum(uuid, "f");
+            error = e;
+            migrateFailed(orgKey, beginTime, length, e);
+        } finally {
+            if (timings != null) {
+                TransferTimings.stop();
+                event.end();
+                if (event.shouldCommit()) {
+                    event.uuid = uuid;
+                    event.bucket = orgBucket;
+                    event.key = orgKey;
+                    event.targetBucket = targetBucket;
+                    event.size = length == null ? -1 : length;
+                    event.mode = mode;
+                    event.queueWait = queueWait;
+                    event.head = timings[JobMetrics.Operation.HEAD.ordinal()];
+                    event.getFirstByte = timings[JobMetrics.Operation.GET.ordinal()];
+                    event.put = timings[JobMetrics.Operation.PUT.ordinal()];
+                    event.copy = timings[JobMetrics.Operation.COPY.ordinal()];
+                    event.outcome = error == null ? "success" : "failed";
+                    event.error = error == null ? null : String.valueOf(error.getMessage());
+                    event.commit();
+                }
+            }
+        }
+    }
+
+    /**
+     * 迁移成功的计数和记录
+     * @param partsTransferred 是否已由 parallelPartMigrate 按分段计入吞吐
+     */
+    private void migrateSucceeded(String orgKey, long beginTime, Long length, boolean partsTransferred) {
+        recordConcurrency(beginTime, length, ConcurrencyController.Signal.SUCCESS);
+        counters.succeeded();
+        progress.finished(length, partsTransferred || length == null ? 0 : length);
+        if (metrics != null) {
+            metrics.transferred(length);
+        }
+        retryAttempts.remove(orgKey);
+        if (journal != null) {
+            journal.completed(orgKey);
+        }
+    }
+
+    /**
+     * 迁移失败的计数和失败文件名、原因记录
+     */
+    private void migrateFailed(String orgKey, long beginTime, Long length, Throwable e) {
+        logger.error(uuid + " migrate object error. key: " + orgKey, e);
+        recordConcurrency(beginTime, length, ConcurrencyController.classify(e));
+        // 失败计数和失败文件名、原因记录
+        int errorType = ErrorType.getErrorType(e.getMessage());
+        counters.failed();
+        progress.finished(length, 0);
+        if (metrics != null) {
+            metrics.failed();
+        }
 //            FailedDocsCache.addFailedDocs(uuid, orgKey, errorType);
-            MigrateUtils.storeFailedDocs(uuid, orgKey, errorType);
-            CurFailedDocsCache.addFailedDocs(uuid, orgKey, errorType);
+        MigrateUtils.storeFailedDocs(uuid, orgKey, errorType);
+        CurFailedDocsCache.addFailedDocs(uuid, orgKey, errorType);
+        if (journal != null) {
+            journal.failed(orgKey, errorType);
+        }
+        if (failedKeyLog != null) {
+            Integer attempts = retryAttempts.remove(orgKey);
+            failedKeyLog.add(orgKey, errorType, attempts == null ? 1 : attempts + 1);
         }
     }
 
     /**
-     * 获取线程池
+     * 向自适应并发控制记录一次迁移结果。只有小对象的耗时可比，大对象和大小未知的对象只记录结果
      */
-    ThreadPoolExecutor getThreadPoolExecutor() {
-        ThreadPoolExecutor threadPoolExecutor = uuidThreadPoolExecutorMap.get(uuid);
-        if (threadPoolExecutor == null) {
-            threadPoolExecutor = new ThreadPoolExecutor(workNum, workNum, 3000L, TimeUnit.MILLISECONDS,
-                    new LinkedBlockingQueue<>(100));
-            threadPoolExecutor.setRejectedExecutionHandler((r, executor) -> {
+    private void recordConcurrency(long beginTime, Long length, ConcurrencyController.Signal signal) {
+        ConcurrencyController controller = concurrencyController;
+        if (controller == null) {
+            return;
+        }
+        boolean comparable = length != null && length < largeObjectSize;
+        controller.record(comparable ? System.currentTimeMillis() - beginTime : -1, signal);
+    }
+
+    /**
+     * 并发数变化时调整各通道线程数：小对象通道为当前并发数，大对象通道按同样比例调整且不超过 largeWorkNum
+     */
+    private void resizeLanes(int limit) {
+        if (sharedScheduler) {
+            TransferScheduler.getInstance().setMaxRunning(uuid, limit + getLargeLaneWorkNum(limit));
+        }
+        TransferLane small = uuidSmallLaneMap.get(uuid);
+        if (small != null) {
+            small.resize(limit);
+        }
+        TransferLane large = uuidLargeLaneMap.get(uuid);
+        if (large != null) {
+            large.resize(getLargeLaneWorkNum(limit));
+        }
+    }
+
+    private int getLargeLaneWorkNum(int limit) {
+        return Math.max(1, Math.min(largeWorkNum, largeWorkNum * limit / workNum));
+    }
+
+    /**
+     * 使用共用客户端，迁移结束时释放
+     */
+    public void addClientLease(SharedClientCache.Lease<?> lease) {
+        clientLeases.add(lease);
+    }
+
+    /**
+     * 调整本迁移的带宽上限，迁移进行中立即生效
+     * @param bandwidthLimit 单位 MB/s，0 表示不限
+     */
+    public void setBandwidthLimit(long bandwidthLimit) {
+        this.bandwidthLimit = bandwidthLimit;
+        bandwidthLimiter.setRate(bandwidthLimit * 1024 * 1024);
+    }
+
+    /**
+     * 调整本迁移按时段的带宽上限，迁移进行中立即生效
+     */
+    public void setBandwidthSchedule(String bandwidthSchedule) {
+        bandwidthLimiter.setSchedule(bandwidthSchedule);
+        this.bandwidthSchedule = bandwidthSchedule;
+    }
+
+    /**
+     * 下载的数据流受本迁移和全局的带宽限制，上传直接读取该数据流，因此上传同样受限
+     */
+    protected InputStream limitBandwidth(InputStream input) {
+        if (input == null) {
+            return null;
+        }
+        return new ThrottledInputStream(input, bandwidthLimiter, BandwidthLimiter.global());
+    }
+
+    /**
+     * 普通迁移的源端数据流，开启校验时边读边计算校验值，上传后由 verifyTransferred 对比
+     * @param length 源端对象大小
+     * @param etag 源端 ETag，是内容的 MD5 时对比 MD5，否则为 null
+     * @param crc64 源端 CRC64，没有时为 null
+     */
+    protected InputStream verifying(InputStream input, long length, String etag, Long crc64) {
+        if (!verifyChecksum || input == null) {
+            return input;
+        }
+        return new VerifyingInputStream(input, length, VerifyingInputStream.toMd5(etag), crc64);
+    }
+
+    /**
+     * 普通迁移上传后对比校验值，不一致时删除目的端对象
+     * @param input verifying 返回的数据流
+     * @throws ChecksumMismatchException 大小或校验值不一致
+     */
+    protected void verifyTransferred(InputStream input, String targetBucket, String targetKey) {
+        if (!(input instanceof VerifyingInputStream)) {
+            return;
+        }
+        try {
+            ((VerifyingInputStream) input).verify(targetKey);
+        } catch (ChecksumMismatchException e) {
+            try {
+                deleteTargetObject(targetBucket, targetKey);
+            } catch (Exception e1) {
+                logger.error(uuid + " delete mismatched object error. targetBucket:" + targetBucket + " targetKey:" + targetKey, e1);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 分段迁移的校验，分段大小与 parallelPartMigrate 一致
+     * @param crc64 源端是否提供整个对象的 CRC64
+     */
+    MultipartChecksum newMultipartChecksum(long total, boolean crc64) {
+        return new MultipartChecksum(verifyChecksum, crc64, total, migratePartSize);
+    }
+
+    /**
+     * 当前是否有带宽限制。异步引擎的数据流不经过 InputStream，有带宽限制时对象走同步通道
+     */
+    private boolean isBandwidthLimited() {
+        return bandwidthLimiter.getRate() > 0 || BandwidthLimiter.global().getRate() > 0;
+    }
+
+    /**
+     * 调整全局调度时的优先级，迁移进行中立即生效
+     */
+    public void setJobPriority(int jobPriority) {
+        this.jobPriority = jobPriority;
+        if (sharedScheduler && uuid != null) {
+            TransferScheduler.getInstance().setPriority(uuid, jobPriority);
+        }
+    }
+
+    /**
+     * 调整全局调度时的权重，迁移进行中立即生效
+     */
+    public void setJobWeight(int jobWeight) {
+        this.jobWeight = jobWeight;
+        if (sharedScheduler && uuid != null) {
+            TransferScheduler.getInstance().setWeight(uuid, jobWeight);
+        }
+    }
+
+    /**
+     * 当前并发数，未开启自适应并发控制时为 workNum
+     */
+    public int getConcurrencyLimit() {
+        ConcurrencyController controller = concurrencyController;
+        return controller == null ? workNum : controller.getLimit();
+    }
+
+    /**
+     * 打开迁移日志，断点恢复时回放，已结束的对象在提交迁移时跳过
+     */
+    private MigrateJournal openJournal() {
+        if (journalDir == null) {
+            return null;
+        }
+        try {
+            MigrateJournal migrateJournal = MigrateJournal.open(uuid, journalDir);
+            migrateJournal.setCovered(this::isCheckpointed);
+            return migrateJournal;
+        } catch (IOException e) {
+            logger.error(uuid + " open journal failed, migrate without journal. dir:" + journalDir, e);
+            return null;
+        }
+    }
+
+    /**
+     * 打开迁移失败对象日志
+     */
+    private FailedKeyLog openFailedKeyLog() {
+        if (failedLogDir == null) {
+            return null;
+        }
+        try {
+            return FailedKeyLog.open(uuid, failedLogDir);
+        } catch (IOException e) {
+            logger.error(uuid + " open failed log failed, migrate without failed log. dir:" + failedLogDir, e);
+            return null;
+        }
+    }
+
+    /**
+     * 对象是否已被保存的断点覆盖，覆盖的对象不需要在迁移日志中保留。
+     * 默认按迁移日志中的目录断点（按目录列举）或分片 0 的断点（不分片的平铺列举）判断
+     */
+    protected boolean isCheckpointed(String key) {
+        MigrateJournal curJournal = journal;
+        if (curJournal == null) {
+            return false;
+        }
+        String dirMarker = curJournal.getPrefixMarker(key.substring(0, key.lastIndexOf('/') + 1));
+        if (dirMarker != null) {
+            return KeyRange.compareKey(key, dirMarker) <= 0;
+        }
+        String marker = curJournal.getMarker(0);
+        return marker != null && KeyRange.compareKey(key, marker) <= 0;
+    }
+
+    /**
+     * 迁移日志中分片 0 的断点比 TaskConfig 保存的更新时（如掉线前未来得及保存，或不保存 TaskConfig 断点的迁移），从日志的断点继续
+     * @param marker TaskConfig 保存的断点
+     */
+    protected String resumeJournalMarker(String marker) {
+        String journalMarker = journal == null ? null : journal.getMarker(0);
+        if (journalMarker == null || KeyRange.isComposite(marker)) {
+            return marker;
+        }
+        if (marker == null || marker.isEmpty() || KeyRange.compareKey(journalMarker, marker) > 0) {
+            logger.info(uuid + " resume from journal marker:" + journalMarker);
+            return journalMarker;
+        }
+        return marker;
+    }
+
+    /**
+     * 按目录列举时一个目录的断点：该目录某页及之前所有页的对象都迁移结束后，断点推进到该页最后一个对象并记录到迁移日志。
+     * 子目录只能从列举中得到，掉线恢复时重新遍历目录树，断点及之前的对象在提交迁移时跳过
+     * @param dir 目录
+     */
+    protected PageCheckpoint newDirCheckpoint(String dir) {
+        return new PageCheckpoint(null, marker -> {
+            if (journal != null) {
+                journal.prefixMarker(dir, marker);
+            }
+        });
+    }
+
+    /**
+     * 记录分片断点到迁移日志
+     * @param shard 分片序号，不分片时为 0
+     */
+    protected void journalMarker(int shard, String marker) {
+        if (journal != null) {
+            journal.marker(shard, marker);
+        }
+    }
+
+    /**
+     * 平铺列举时的键范围分片
+     * @param dir 列举前缀
+     */
+    protected List<KeyRange> getListShardRanges(String dir) {
+        if (!listShard || listWorkNum <= 1) {
+            return KeyRange.single(null);
+        }
+        if (listShardKeys != null && !listShardKeys.isEmpty()) {
+            return KeyRange.split(listShardKeys);
+        }
+        return KeyRange.split(dir, listShardAlphabet);
+    }
+
+    /**
+     * 提交迁移任务到对象大小对应的通道，通道队列满时阻塞
+     * @param obj 待迁移对象
+     * @param onFinish 迁移结束（成功或失败）后的回调，可为 null
+     */
+    protected void submitMigrate(ObjectInfo obj, String targetBucket, String targetKey, Runnable onFinish) {
+        if (aborted) {
+            // 结束列举，迁移日志保留，下次从断点继续
+            throw new RejectedExecutionException(uuid + " migrate aborted");
+        }
+        if (journal != null && (journal.isFinished(obj.getKey()) || isCheckpointed(obj.getKey()))) {
+            // 掉线前已迁移结束，计数已包含在断点恢复的数量中
+            logger.debug(uuid + " skip finished object in journal. key: " + obj.getKey());
+            if (onFinish != null) {
+                onFinish.run();
+            }
+            return;
+        }
+        if (listProgress != null) {
+            listProgress.increment();
+        }
+        progress.discovered(obj.getSize());
+        jobTracker.begin();
+        Runnable finish = () -> {
+            try {
+                if (onFinish != null) {
+                    onFinish.run();
+                }
+            } finally {
+                jobTracker.end();
+            }
+        };
+        try {
+            if (asyncEngine != null && obj.hasSummary() && !copyMode && !isBandwidthLimited()) {
+                submitAsyncMigrate(obj, targetBucket, targetKey, finish);
+                return;
+            }
+            long submitNanos = System.nanoTime();
+            getLane(obj.getSize()).execute(() -> {
                 try {
-                    executor.getQueue().put(r);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    throw new RejectedExecutionException("downloadExecutor Producer interrupted", e);
+                    migrate(obj, targetBucket, targetKey, submitNanos);
+                } finally {
+                    finish.run();
+                }
+            }, obj.getSize());
+        } catch (RejectedExecutionException e) {
+            // 未提交成功，不会再结束
+            jobTracker.end();
+            throw e;
+        }
+    }
+
+    /**
+     * 提交到异步迁移引擎，同时迁移的对象数达到上限时阻塞
+     */
+    private void submitAsyncMigrate(ObjectInfo obj, String targetBucket, String targetKey, Runnable onFinish) {
+        String orgKey = obj.getKey();
+        long beginTime = System.currentTimeMillis();
+        Long length = obj.getSize();
+        try {
+            asyncEngine.migrate(obj.getBucket(), orgKey, targetBucket, targetKey, length, migrateMaxSize, migratePartSize, partWorkNum)
+                    .whenComplete((v, e) -> {
+                        try {
+                            if (e == null) {
+                                migrateSucceeded(orgKey, beginTime, length, false);
+                            } else {
+                                migrateFailed(orgKey, beginTime, length, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                            }
+                        } finally {
+                            if (onFinish != null) {
+                                onFinish.run();
+                            }
+                        }
+                    });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            migrateFailed(orgKey, beginTime, length, e);
+            if (onFinish != null) {
+                onFinish.run();
+            }
+        }
+    }
+
+    /**
+     * 服务端复制迁移，失败则回退到普通迁移
+     * @return 是否已通过服务端复制完成迁移
+     */
+    private boolean copyMigrate(String orgBucket, String orgKey, String targetBucket, String targetKey, long length) {
+        try {
+            if (!serverSideCopy(orgBucket, orgKey, targetBucket, targetKey, length)) {
+                return false;
+            }
+            copyFailedCount.set(0);
+            return true;
+        } catch (Exception e) {
+            logger.warn(uuid + " serverSideCopy failed, fall back to stream migrate. key: " + orgKey, e);
+            MigrateRetryEvent.emit(uuid, "copy", orgKey, 0, copyFailedCount.get() + 1, e);
+            // 连续失败（如目的端无源桶读权限）则关闭复制模式，避免每个对象都先失败一次
+            if (copyFailedCount.incrementAndGet() >= Constant.RETRY_COUNT && copyMode) {
+                copyMode = false;
+                logger.warn(uuid + " serverSideCopy failed " + Constant.RETRY_COUNT + " times in a row, copyMode disabled.");
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 获取对象大小对应的通道：不小于 largeObjectSize 的对象走大对象通道，其余（包括大小未知的重试对象）走小对象通道
+     * @param size 对象大小，未知时为 null
+     */
+    TransferLane getLane(Long size) {
+        int limit = getConcurrencyLimit();
+        if (sharedScheduler) {
+            TransferScheduler scheduler = TransferScheduler.getInstance();
+            if (size != null && size >= largeObjectSize) {
+                return uuidLargeLaneMap.computeIfAbsent(uuid, k -> new TransferLane(uuid, "large", getLargeLaneWorkNum(limit), Constant.LARGE_LANE_QUEUE_SIZE, scheduler));
+            }
+            return uuidSmallLaneMap.computeIfAbsent(uuid, k -> new TransferLane(uuid, "small", limit, Constant.SMALL_LANE_QUEUE_SIZE, scheduler));
+        }
+        if (size != null && size >= largeObjectSize) {
+            return uuidLargeLaneMap.computeIfAbsent(uuid, k -> new TransferLane(uuid, "large", getLargeLaneWorkNum(limit), Constant.LARGE_LANE_QUEUE_SIZE, virtualThreads));
+        }
+        return uuidSmallLaneMap.computeIfAbsent(uuid, k -> new TransferLane(uuid, "small", limit, Constant.SMALL_LANE_QUEUE_SIZE, virtualThreads));
+    }
+
+    /**
+     * 当前迁移的所有通道
+     */
+    List<TransferLane> getLanes(String uuid) {
+        List<TransferLane> lanes = new ArrayList<>(2);
+        TransferLane small = uuidSmallLaneMap.get(uuid);
+        if (small != null) {
+            lanes.add(small);
+        }
+        TransferLane large = uuidLargeLaneMap.get(uuid);
+        if (large != null) {
+            lanes.add(large);
+        }
+        return lanes;
+    }
+
+    /**
+     * 各通道中排队等待执行的对象数之和
+     */
+    private long getQueueDepth() {
+        long queued = 0;
+        for (TransferLane lane : getLanes(uuid)) {
+            queued += lane.getQueueSize();
+        }
+        return queued;
+    }
+
+    /**
+     * 获取分段迁移的线程池。
+     * 同一对象同时进行的分段数由 partWorkNum 控制，线程数上限为 (通道最大线程数之和) * partWorkNum，空闲线程自动回收，
+     * 超过上限时在提交线程中执行。
+     * 虚拟线程模式下每个分段一个虚拟线程
+     */
+    ExecutorService getPartThreadPoolExecutor() {
+        return uuidPartThreadPoolExecutorMap.computeIfAbsent(uuid, k -> {
+            ExecutorService virtualExecutor = virtualThreads ? VirtualThreads.newExecutor(uuid + "-part-v") : null;
+            if (virtualExecutor != null) {
+                return virtualExecutor;
+            }
+            int smallWorkNum = adaptiveConcurrency ? Math.max(workNum, maxWorkNum) : workNum;
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(0, (smallWorkNum + largeWorkNum) * partWorkNum, 60L, TimeUnit.SECONDS,
+                    new SynchronousQueue<>());
+            // 线程数达到上限时由提交分段的线程自己执行，不抛出异常；关闭后仍拒绝，否则分段永远不会结束
+            executor.setRejectedExecutionHandler((r, e) -> {
+                if (e.isShutdown()) {
+                    throw new RejectedExecutionException(uuid + " part executor shutdown");
                 }
+                r.run();
             });
-            uuidThreadPoolExecutorMap.put(uuid, threadPoolExecutor);
+            return executor;
+        });
+    }
+
+    /**
+     * 单个分段的迁移：分段下载并分段上传
+     * @param <P> PartETag
+     */
+    @FunctionalInterface
+    interface PartTask<P> {
+        /**
+         * @param partNumber 第几个分段，从1开始
+         * @param startPos 分段在对象中的起始位置
+         * @param curPartSize 当前分段大小
+         * @return 该分段上传后的 PartETag
+         */
+        P migrate(int partNumber, long startPos, long curPartSize) throws Exception;
+    }
+
+    /**
+     * 并发迁移对象的所有分段，同一对象最多 partWorkNum 个分段同时迁移，单个分段失败重试 RETRY_COUNT 次
+     * @param total 对象大小
+     * @param partTask 单个分段的迁移
+     * @return 按分段编号排序的 PartETag 列表，用于 CompleteMultipartUploadRequest
+     * @throws Exception 有分段重试后仍失败。此时不再提交新的分段，并等待已提交的分段结束后再抛出，调用方可安全地 abort
+     */
+    protected <P> List<P> parallelPartMigrate(String targetBucket, String targetKey, long total, PartTask<P> partTask) throws Exception {
+        long perSize = migratePartSize;
+        // 计算分段数量
+        int partCount = (int) (total / perSize);
+        if (total % perSize != 0) {
+            partCount ++;
+        }
+        AtomicReferenceArray<P> partETags = new AtomicReferenceArray<>(partCount);
+        CompletionService<P> completionService = new ExecutorCompletionService<>(getPartThreadPoolExecutor());
+        Exception failure = null;
+        boolean interrupted = false;
+        int nextPart = 0;
+        int running = 0;
+        while (nextPart < partCount || running > 0) {
+            while (failure == null && nextPart < partCount && running < partWorkNum) {
+                final int partNumber = ++nextPart;
+                final long startPos = (partNumber - 1) * perSize;
+                final long curPartSize = (partNumber == partCount) ? total - startPos : perSize;
+                try {
+                    completionService.submit(() -> {
+                        P partETag = migratePartWithRetry(targetBucket, targetKey, partNumber, startPos, curPartSize, partTask);
+                        partETags.set(partNumber - 1, partETag);
+                        progress.transferred(curPartSize);
+                        return partETag;
+                    });
+                } catch (RejectedExecutionException e) {
+                    // 线程池已关闭，不再提交新的分段，等待已提交的分段结束后再抛出
+                    failure = e;
+                    break;
+                }
+                running++;
+            }
+            if (running == 0) {
+                break;
+            }
+            Future<P> done;
+            try {
+                done = completionService.take();
+            } catch (InterruptedException e) {
+                // 中断后不再提交新的分段，中断标志已清除，继续等待已提交的分段结束，最后再恢复中断标志
+                interrupted = true;
+                if (failure == null) {
+                    failure = e;
+                }
+                continue;
+            }
+            running--;
+            try {
+                done.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+
+        List<P> partETagList = new ArrayList<>(partCount);
+        for (int i = 0; i < partCount; i++) {
+            partETagList.add(partETags.get(i));
+        }
+        return partETagList;
+    }
+
+    private <P> P migratePartWithRetry(String targetBucket, String targetKey, int partNumber, long startPos, long curPartSize,
+                                       PartTask<P> partTask) throws Exception {
+        MigratePartEvent event = new MigratePartEvent();
+        // JFR 事件未开启时不累计各类请求的耗时
+        long[] timings = event.isEnabled() ? TransferTimings.start() : null;
+        event.begin();
+        Exception lastException = null;
+        int attempts = 0;
+        try {
+            for (int k=0; k++<Constant.RETRY_COUNT; ) {
+                attempts = k;
+                try {
+                    P partETag = partTask.migrate(partNumber, startPos, curPartSize);
+                    logger.debug(uuid + " multiPartUpload success. bucket:" + targetBucket + " targetKey:" + targetKey
+                            + " curPartSize:" + curPartSize + " partNum:" + partNumber);
+                    lastException = null;
+                    return partETag;
+                } catch (Exception e) {
+                    lastException = e;
+                    if (concurrencyController != null && ConcurrencyController.classify(e) == ConcurrencyController.Signal.THROTTLED) {
+                        // 分段重试前的限流也反馈给并发控制
+                        concurrencyController.record(-1, ConcurrencyController.Signal.THROTTLED);
+                    }
+                    logger.error(uuid + " multiPartUpload failed. bucket:" + targetBucket + " targetKey:" + targetKey
+                            + " curPartSize:" + curPartSize + " partNum:" + partNumber, e);
+                    MigrateRetryEvent.emit(uuid, "part", targetKey, partNumber, k, e);
+                }
+            }
+            // 上传重试失败
+            logger.error(uuid + " multiPartMigrate() multiPartUpload retry failed.  bucket:" + targetBucket + " targetKey:" + targetKey
+                    + " curPartSize:" + curPartSize + " partNum:" + partNumber);
+            throw lastException;
+        } finally {
+            if (timings != null) {
+                TransferTimings.stop();
+                event.end();
+                if (event.shouldCommit()) {
+                    event.uuid = uuid;
+                    event.bucket = targetBucket;
+                    event.key = targetKey;
+                    event.partNumber = partNumber;
+                    event.size = curPartSize;
+                    event.attempts = attempts;
+                    event.getFirstByte = timings[JobMetrics.Operation.GET.ordinal()];
+                    event.uploadPart = timings[JobMetrics.Operation.UPLOAD_PART.ordinal()];
+                    event.copy = timings[JobMetrics.Operation.COPY.ordinal()];
+                    event.outcome = lastException == null ? "success" : "failed";
+                    event.error = lastException == null ? null : String.valueOf(lastException.getMessage());
+                    event.commit();
+                }
+            }
         }
-        return threadPoolExecutor;
     }
 
     /**
      * 关闭线程池和服务端
      */
      void shutdownExecutorAndClient(String uuid)  {
-         // 关闭线程池
-         ThreadPoolExecutor executor = uuidThreadPoolExecutorMap.get(uuid);
-
-         while (true){
-             logger.debug(uuid + " : executor " + executor);
-             if (executor == null) {
-                 executor = uuidThreadPoolExecutorMap.get(uuid);
-             }
-             if (executor != null && (executor.getActiveCount() == 0) && (executor.getCompletedTaskCount() == executor.getTaskCount())) {
-                 logger.info(uuid + " shutdown. curTaskCount:" + executor.getCompletedTaskCount());
-                 executor.shutdown();
-                 break;
-             }
+         // 列举和提交已结束，等待正在迁移的对象结束，最后一个对象结束时立即返回
+         jobTracker.listFinished();
+         progress.listFinished();
+         try {
+             jobTracker.getCompletion().get();
+         } catch (InterruptedException e) {
+             Thread.currentThread().interrupt();
+             logger.warn(uuid + " interrupted while waiting for migrate end. " + jobTracker);
+         } catch (ExecutionException e) {
+             logger.error(uuid + " wait for migrate end error. " + jobTracker, e);
+         }
+         List<TransferLane> lanes = getLanes(uuid);
+         logger.debug(uuid + " : lanes " + lanes);
+         lanes.forEach(TransferLane::shutdown);
+         if (asyncEngine != null) {
+             asyncEngine.shutdown();
+         }
+         for (TransferLane lane : lanes) {
              try {
-                 TimeUnit.SECONDS.sleep(1);
+                 // 任务都已结束，只等待线程退出
+                 if (!lane.awaitTermination(Constant.LANE_TERMINATION_TIMEOUT, TimeUnit.SECONDS)) {
+                     logger.warn(uuid + " lane is not terminated. " + lane);
+                 }
              } catch (InterruptedException e) {
-                 e.printStackTrace();
+                 Thread.currentThread().interrupt();
              }
          }
+         uuidSmallLaneMap.remove(uuid);
+         uuidLargeLaneMap.remove(uuid);
+         if (sharedScheduler) {
+             TransferScheduler.getInstance().unregister(uuid);
+         }
+         ExecutorService partExecutor = uuidPartThreadPoolExecutorMap.remove(uuid);
+         if (partExecutor != null) {
+             partExecutor.shutdown();
+         }
+         logger.info(uuid + " migrate end, costs: " + (System.currentTimeMillis() - startTime) + "ms. " + jobTracker + " " + counters);
+         // 最终计数同步到 CountMapCache 后再标记结束
+         JobCounterCache.removeCache(uuid);
+         logger.info(uuid + " " + progress.estimate());
+         ProgressEstimateCache.removeCache(uuid);
 
-         while (true){
-             if (executor.isTerminated()){
-                 uuidThreadPoolExecutorMap.remove(uuid);
-                 logger.info(uuid + " migrate end, costs: " + (System.currentTimeMillis() - startTime) + "ms.");
-
-                 while (true) {
-                     // 等待计算总数任务结束，防止迁移完成，还处于计算中
-                     if (CountMapCache.getInstance().getCache(uuid).get("t") != null) {
-                         // 对计数结果进行处理，防止任务不结束情况, e值不为0则底层结束迁移
-                         CountMapCache.countNum(uuid, "e");
-                         break;
-                     }
-                     try {
-                         TimeUnit.SECONDS.sleep(1);
-                     } catch (Exception e) {
-                         e.printStackTrace();
-                     }
-                 }
-
+         while (true) {
+             // 等待计算总数任务结束，防止迁移完成，还处于计算中。新建迁移在列举结束时已记录总数，不会等待
+             if (CountMapCache.getInstance().getCache(uuid).get("t") != null) {
+                 // 对计数结果进行处理，防止任务不结束情况, e值不为0则底层结束迁移
+                 CountMapCache.countNum(uuid, "e");
                  break;
-             } else {
-                 logger.info(uuid + " ecutor is not Terminated");
              }
              try {
                  TimeUnit.SECONDS.sleep(1);
-             } catch (InterruptedException e) {
+             } catch (Exception e) {
                  e.printStackTrace();
              }
          }
-         // 关闭服务端
-         shutdownClient();
+         // 关闭服务端，共用的客户端只释放
+         if (clientLeases.isEmpty()) {
+             shutdownClient();
+         } else {
+             clientLeases.forEach(SharedClientCache.Lease::release);
+             clientLeases.clear();
+         }
+         uuidAmazonS3ClientMap.remove(uuid);
          // 清除ClientEntityMap的该uuid信息
          ClientEntityMap.remove(uuid);
          CurFailedDocsCache.removeCache(uuid);
+         ListProgressCache.removeCache(uuid);
+         logger.info(uuid + " " + metrics);
+         MetricsCache.removeCache(uuid);
+         if (journal != null) {
+             // 列举异常结束时保留迁移日志，用于下次断点恢复
+             journal.close(listCompleted);
+             journal = null;
+         }
+         if (failedKeyLog != null) {
+             // 重试异常结束时保留 .retrying 文件，下次重试继续使用
+             failedKeyLog.close(listCompleted);
+             failedKeyLog = null;
+         }
+         uuidRunningJobMap.remove(uuid, this);
     }
 
     /**
-     * 上传异步计算总数内部类
+     * 停止本迁移：不再提交新的对象，中断正在迁移的对象，排队中的对象按失败处理，共用的客户端和调度器上的其他迁移不受影响
      */
-    class UploadCountTask implements Callable<Integer> {
-        String uuid;
-        String bucket;
-        String dir;
-        UploadCountTask(String bucket, String uuid, String dir) {
-            this.bucket = bucket;
-            this.uuid = uuid;
-            this.dir = dir;
+    void abort() {
+        if (aborted) {
+            return;
         }
-
-        @Override
-        public Integer call() {
-            // 计算文件总数
-            long migrateStartTime = System.currentTimeMillis();
-            int totalNum;
-            while (true) {
-                try {
-                    totalNum = getObjectCount(bucket, dir);
-                    logger.info(uuid + " migrate task total num: " + totalNum + ", count costs " + (System.currentTimeMillis() - migrateStartTime) + "ms");
-                    break;
-                } catch (Exception e) {
-                    logger.info(uuid + " migrate task total num failed.count costs " + (System.currentTimeMillis() - migrateStartTime) + "ms", e);
-                }
-
-                try {
-                    TimeUnit.SECONDS.sleep(3);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-
-            return totalNum;
+        aborted = true;
+        logger.warn(uuid + " migrate abort. " + jobTracker);
+        getLanes(uuid).forEach(TransferLane::abort);
+        ExecutorService partExecutor = uuidPartThreadPoolExecutorMap.get(uuid);
+        if (partExecutor != null) {
+            // 中断正在执行的分段，之后的分段提交被拒绝
+            partExecutor.shutdownNow();
+        }
+        if (asyncEngine != null) {
+            asyncEngine.abort();
         }
     }
 
     /**
-     * 关闭目的端client
+     * 停止迁移并关闭目的端client，共用的客户端不关闭
      */
     public void closeTargetClient(String uuid) {
         logger.info(uuid + " closeTargetClient start.");
+        ObjectToObjectBase<?, ?> job = uuidRunningJobMap.get(uuid);
+        if (job != null) {
+            job.abort();
+        }
         AmazonS3Client amazonS3Client = uuidAmazonS3ClientMap.get(uuid);
-        if (amazonS3Client != null) {
+        if (amazonS3Client != null && SharedClientCache.isShared(amazonS3Client)) {
+            // 共用的客户端还有其他迁移在使用，只停止本迁移
+            logger.warn(uuid + " closeTargetClient skipped, the client is shared. aborted:" + (job != null));
+        } else if (amazonS3Client != null) {
             amazonS3Client.shutdown();
             logger.info(uuid + " closeTargetClient success.");
         } else {
@@ -5,42 +5,58 @@ import com.aliyun.oss.OSSClient;
 import com.aliyun.oss.OSSException;
 import com.aliyun.oss.model.*;
 import com.rocks.constant.Constant;
+import com.rocks.utils.JobMetrics;
+import com.rocks.vo.ObjectInfo;
 import org.apache.log4j.Logger;
 
 import java.io.InputStream;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class OssObjectService implements IOSS<OSSClient, OSSClient, ObjectMetadata, OSSObject, PartETag> {
     private static final Logger logger = Logger.getLogger("OssObjectService.class");
+    /** 记录请求耗时的迁移指标，为 null 时不记录 */
+    private volatile JobMetrics metrics;
 
+    public void setMetrics(JobMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    private void record(JobMetrics.Operation operation, long beginNanos) {
+        TransferTimings.add(operation, System.nanoTime() - beginNanos);
+        JobMetrics jobMetrics = metrics;
+        if (jobMetrics != null) {
+            jobMetrics.record(operation, beginNanos);
+        }
+    }
+
+    /**
+     * 统计对象数量，广度优先并发遍历目录树
+     */
     @Override
     public int getObjectCount(OSSClient orgClient, String orgBucket, String orgDir) {
-        ObjectListing objectListing;
-        boolean isTruncated = true;
-        int totalNum = 0;
-        String countNextMarker = "";
-        List<OSSObjectSummary> summaryList;
-        ListObjectsRequest request = new ListObjectsRequest(orgBucket, "", null, "/", 1000);
-        request.setPrefix(orgDir);
-        while (isTruncated) {
-            try {
-                request.setMarker(countNextMarker);
-                objectListing = orgClient.listObjects(request);
-                summaryList = objectListing.getObjectSummaries();
-                countNextMarker = objectListing.getNextMarker();
-                summaryList = summaryList.stream().filter(s -> !s.getKey().equals(orgDir)).collect(Collectors.toList());
-                totalNum += summaryList.size();
-                isTruncated = objectListing.isTruncated();
-
-                for (String dir : objectListing.getCommonPrefixes()) {
-                    totalNum = listDir(orgClient, orgBucket, dir, totalNum);
-                }
-            } catch (OSSException | ClientException e) {
-                logger.error("listObjectsCountLoop error.", e);
-            }
+        return listDir(orgClient, orgBucket, orgDir, 0);
+    }
+
+    @Override
+    public ListPage<ObjectInfo> listObjects(OSSClient client, String bucket, String prefix, String marker) {
+        ListObjectsRequest request = new ListObjectsRequest(bucket, prefix, marker, null, 1000);
+        ObjectListing objectListing = listObjects(client, request);
+        List<OSSObjectSummary> summaryList = objectListing.getObjectSummaries();
+        String nextMarker = objectListing.getNextMarker();
+        if (nextMarker == null && !summaryList.isEmpty()) {
+            nextMarker = summaryList.get(summaryList.size() - 1).getKey();
+        }
+        return new ListPage<>(ObjectInfo.fromOssSummaries(summaryList), marker, nextMarker, objectListing.isTruncated());
+    }
+
+    private ObjectListing listObjects(OSSClient client, ListObjectsRequest request) {
+        long begin = System.nanoTime();
+        try {
+            return client.listObjects(request);
+        } finally {
+            record(JobMetrics.Operation.LIST, begin);
         }
-        return totalNum;
     }
 
     @Override
@@ -50,28 +66,47 @@ public class OssObjectService implements IOSS<OSSClient, OSSClient, ObjectMetada
 
     @Override
     public ObjectMetadata headObject(OSSClient client, String bucket, String key) {
-        return client.getObjectMetadata(bucket, key);
+        long begin = System.nanoTime();
+        try {
+            return client.getObjectMetadata(bucket, key);
+        } finally {
+            record(JobMetrics.Operation.HEAD, begin);
+        }
     }
 
     @Override
     public OSSObject getObject(OSSClient client, String bucket, String key) {
-        return client.getObject(bucket, key);
+        // 收到响应头即返回，耗时为首字节时间
+        long begin = System.nanoTime();
+        try {
+            return client.getObject(bucket, key);
+        } finally {
+            record(JobMetrics.Operation.GET, begin);
+        }
     }
 
     @Override
     public OSSObject multiPartDownloadRange(OSSClient client, String bucket, String key, long start, long end, String uploadId) {
         GetObjectRequest getObjectRequest = new GetObjectRequest(bucket, key);
         getObjectRequest.setRange(start, end);
-        return client.getObject(getObjectRequest);
+        long begin = System.nanoTime();
+        try {
+            return client.getObject(getObjectRequest);
+        } finally {
+            record(JobMetrics.Operation.GET, begin);
+        }
     }
 
     @Override
     public Long getObjectContentLength(OSSClient client, String bucket, String key) throws Exception {
         ObjectMetadata objectMetadata;
+        long begin = System.nanoTime();
         try {
             objectMetadata = client.getObjectMetadata(bucket, key);
         } catch (Exception e) {
             throw new Exception(e.getMessage());
+        } finally {
+            record(JobMetrics.Operation.HEAD, begin);
         }
         return objectMetadata.getContentLength();
     }
@@ -84,7 +119,12 @@ public class OssObjectService implements IOSS<OSSClient, OSSClient, ObjectMetada
     @Override
     public void putObject(OSSClient client, String bucket, String obj, InputStream input, ObjectMetadata metadata) {
         PutObjectRequest request = new PutObjectRequest(bucket, obj, input, metadata);
-        client.putObject(request);
+        long begin = System.nanoTime();
+        try {
+            client.putObject(request);
+        } finally {
+            record(JobMetrics.Operation.PUT, begin);
+        }
     }
 
     @Override
@@ -98,35 +138,79 @@ public class OssObjectService implements IOSS<OSSClient, OSSClient, ObjectMetada
         uploadPartRequest.setInputStream(inputStream);
         uploadPartRequest.setPartSize(curPartSize);
         uploadPartRequest.setPartNumber(partNumber);
-        UploadPartResult uploadPartResult = client.uploadPart(uploadPartRequest);
+        long begin = System.nanoTime();
+        UploadPartResult uploadPartResult;
+        try {
+            uploadPartResult = client.uploadPart(uploadPartRequest);
+        } finally {
+            record(JobMetrics.Operation.UPLOAD_PART, begin);
+        }
         partETagList.add(uploadPartResult.getPartETag());
         logger.debug("multiPartUpload success. bucket:" + bucketName + " obj:" + obj + " curPartSize:" + curPartSize + " partNum:" + partNumber);
     }
 
+    @Override
+    public void deleteObject(OSSClient client, String bucket, String key) {
+        client.deleteObject(bucket, key);
+    }
+
+    @Override
+    public void copyObject(OSSClient client, String orgBucket, String orgKey, String bucket, String obj) {
+        CopyObjectRequest request = new CopyObjectRequest(orgBucket, orgKey, bucket, obj);
+        long begin = System.nanoTime();
+        try {
+            client.copyObject(request);
+        } finally {
+            record(JobMetrics.Operation.COPY, begin);
+        }
+    }
+
+    @Override
+    public PartETag multiPartCopy(OSSClient client, String orgBucket, String orgKey, String bucketName, String obj,
+                                  String uploadId, long start, long end, int partNumber) {
+        UploadPartCopyRequest uploadPartCopyRequest = new UploadPartCopyRequest(orgBucket, orgKey, bucketName, obj,
+                uploadId, partNumber, start, end - start + 1);
+        long begin = System.nanoTime();
+        UploadPartCopyResult uploadPartCopyResult;
+        try {
+            uploadPartCopyResult = client.uploadPartCopy(uploadPartCopyRequest);
+        } finally {
+            record(JobMetrics.Operation.COPY, begin);
+        }
+        logger.debug("multiPartCopy success. bucket:" + bucketName + " obj:" + obj + " start:" + start + " end:" + end + " partNum:" + partNumber);
+        return uploadPartCopyResult.getPartETag();
+    }
+
+    /**
+     * 按 delimiter 列举目录下的一页
+     * @param dir 目录名称
+     * @param marker 从该 marker 之后开始列举
+     * @return 该页的对象和子目录
+     */
+    public ListPage<OSSObjectSummary> listPage(OSSClient client, String bucket, String dir, String marker) {
+        ListObjectsRequest request = new ListObjectsRequest(bucket, dir, marker, "/", 1000);
+        ObjectListing objectListing = listObjects(client, request);
+        return new ListPage<>(objectListing.getObjectSummaries(), marker, objectListing.getNextMarker(),
+                objectListing.isTruncated(), objectListing.getCommonPrefixes());
+    }
+
+    /**
+     * 统计目录及其子目录下的对象数量
+     * @param totalNum 已统计的数量
+     * @return 加上该目录对象数后的数量
+     */
     public int listDir(OSSClient orgClient, String orgBucket, String dir, int totalNum) {
-        List<OSSObjectSummary> summaryList;
-        ListObjectsRequest request = new ListObjectsRequest(orgBucket, dir, null, "/", 1000);
-        boolean isTruncated = true;
-        String countNextMarker = "";
-        while (isTruncated) {
-            try {
-                request.setMarker(countNextMarker);
-                ObjectListing objectListing = orgClient.listObjects(request);
-                countNextMarker = objectListing.getNextMarker();
-                summaryList = objectListing.getObjectSummaries();
-                totalNum += summaryList.size();
-                isTruncated = objectListing.isTruncated();
-
-                while (true) {
-
-                }
-//                for (String dirName : objectListing.getCommonPrefixes()) {
-//                    totalNum = listDir(orgClient, orgBucket, dirName, totalNum);
-//                }
-            } catch (OSSException | ClientException e) {
-                logger.error("listObjectsCountLoop error.", e);
-            }
+        AtomicInteger count = new AtomicInteger(totalNum);
+        PrefixWalker<OSSObjectSummary> walker = new PrefixWalker<>(orgBucket, Constant.LIST_THREAD_SIZE,
+                (subDir, marker) -> listPage(orgClient, orgBucket, subDir, marker),
+                subDir -> summaryList -> count.addAndGet((int) summaryList.stream().filter(s -> !s.getKey().equals(dir)).count()));
+        try {
+            int dirNum = walker.walk(dir, null);
+            logger.debug("listDir() count end. bucket:" + orgBucket + " dir:" + dir + " dirNum:" + dirNum + " totalNum:" + count.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OSSException("listDir() interrupted. bucket:" + orgBucket + " dir:" + dir);
         }
-        return totalNum;
+        return count.get();
     }
 }
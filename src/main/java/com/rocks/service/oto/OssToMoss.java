@@ -7,14 +7,14 @@ import com.aliyun.oss.model.OSSObjectSummary;
 import com.aliyun.oss.model.ObjectListing;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.*;
-import com.rocks.constant.Constant;
+import com.rocks.utils.JobMetrics;
+import com.rocks.vo.ObjectInfo;
 import org.apache.log4j.Logger;
 
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ThreadPoolExecutor;
 
 public class OssToMoss extends ObjectToObjectBase<OSSClient, AmazonS3Client> {
     private static final Logger logger = Logger.getLogger("OssToMoss.class");
@@ -23,41 +23,17 @@ public class OssToMoss extends ObjectToObjectBase<OSSClient, AmazonS3Client> {
 
     @Override
     void moveObject(String orgBucket, String originalDir, String targetBucket, String targetDir, List<String> failedList) {
-        List<OSSObjectSummary> summaryList = new ArrayList<>();
-        OSSObjectSummary summaryObj;
-        for (String key : failedList) {
-            summaryObj = new OSSObjectSummary();
-            summaryObj.setBucketName(orgBucket);
-            summaryObj.setKey(key);
-            summaryList.add(summaryObj);
-        }
-        moveObject(summaryList, originalDir, targetBucket, targetDir);
+        // 重试的对象没有列举元数据，迁移时 HEAD 获取大小
+        moveObject(ObjectInfo.fromKeys(orgBucket, failedList), originalDir, targetBucket, targetDir);
     }
 
     @Override
     void migrateBatch(String orgBucket, String targetBucket, String nextMarker, String originalDir, String targetDir) {
-        ObjectListing objectListing;
-        List<OSSObjectSummary> summaryList;
         nextMarker = "".equals(nextMarker) ? null : nextMarker;
-        boolean isTruncated = true;
-        ListObjectsRequest request = new ListObjectsRequest(orgBucket, "", null, "/", 1000);
-        request.setPrefix(originalDir);
-        while (isTruncated) {
-            try {
-                request.setMarker(nextMarker);
-                objectListing = orgClient.listObjects(request);
-                nextMarker = objectListing.getNextMarker();
-                summaryList = objectListing.getObjectSummaries();
-                moveObject(summaryList, originalDir, targetBucket, targetDir);
-                isTruncated = objectListing.isTruncated();
-
-                for (String dir : objectListing.getCommonPrefixes()) {
-                    listDir(orgBucket, originalDir, dir, targetBucket, targetDir);
-                }
-            } catch (Exception e) {
-                logger.error(" migrateBatch() failed. uuid:" + uuid + " orgBucket:" + orgBucket + " nextMarker:" + nextMarker, e);
-            }
-        }
+        walkDir(orgBucket, originalDir, nextMarker, dir -> {
+            PageCheckpoint checkpoint = newDirCheckpoint(dir);
+            return summaryList -> moveObject(ObjectInfo.fromOssSummaries(summaryList), originalDir, targetBucket, targetDir, checkpoint);
+        });
     }
 
     /**
@@ -66,28 +42,26 @@ public class OssToMoss extends ObjectToObjectBase<OSSClient, AmazonS3Client> {
      * @param dir 目录名称
      */
     public void listDir(String orgBucket, String originalDir, String dir, String targetBucket, String targetDir) {
-        List<OSSObjectSummary> summaryList;
-        ListObjectsRequest request = new ListObjectsRequest(orgBucket, dir, null, "/", 1000);
-        boolean isTruncated = true;
-        String countNextMarker = null;
-        while (isTruncated) {
-            try {
-                request.setMarker(countNextMarker);
-                ObjectListing objectListing = orgClient.listObjects(request);
-                countNextMarker = objectListing.getNextMarker();
-                summaryList = objectListing.getObjectSummaries();
-                isTruncated = objectListing.isTruncated();
-                moveObject(summaryList, originalDir, targetBucket, targetDir);
-                for (String dirName : objectListing.getCommonPrefixes()) {
-                    listDir(orgBucket, originalDir, dirName, targetBucket, targetDir);
-                }
-            } catch (Exception e) {
-                logger.error(" listDir() failed. uuid:" + uuid + " orgBucket:" + orgBucket + " countNextMarker:" + countNextMarker, e);
-            }
+        walkDir(orgBucket, dir, null, subDir -> summaryList -> moveObject(ObjectInfo.fromOssSummaries(summaryList), originalDir, targetBucket, targetDir, null));
+    }
+
+    /**
+     * 广度优先并发遍历目录树，每页列举出的对象直接提交迁移
+     * @param startMarker 根目录的起始 marker
+     */
+    private void walkDir(String orgBucket, String dir, String startMarker, PrefixWalker.DirVisitor<OSSObjectSummary> visitor) {
+        PrefixWalker<OSSObjectSummary> walker = new PrefixWalker<>(uuid, getListWorkNum(),
+                (subDir, marker) -> orgObjectService.listPage(orgClient, orgBucket, subDir, marker), visitor);
+        try {
+            int dirNum = walker.walk(dir, startMarker);
+            logger.info(uuid + " walkDir() end. orgBucket:" + orgBucket + " dir:" + dir + " dirNum:" + dirNum);
+        } catch (InterruptedException e) {
+            logger.error(uuid + " walkDir() interrupted. orgBucket:" + orgBucket + " dir:" + dir, e);
+            Thread.currentThread().interrupt();
         }
     }
 
-    private ObjectMetadata toS3ObjectMetadata(com.aliyun.oss.model.ObjectMetadata objectMetadata) {
+    static ObjectMetadata toS3ObjectMetadata(com.aliyun.oss.model.ObjectMetadata objectMetadata) {
         ObjectMetadata metadata = new ObjectMetadata();
         Map<String, Object> rawMetadata = objectMetadata.getRawMetadata();
         Map<String, String> userMetadata = objectMetadata.getUserMetadata();
@@ -112,96 +86,84 @@ public class OssToMoss extends ObjectToObjectBase<OSSClient, AmazonS3Client> {
 
     /**
      * 迁移对象
-     * @param summaryList 迁移对象
+     * @param objects 迁移对象
      * @param targetBucket 目的端桶名
      */
-    private void moveObject(List<OSSObjectSummary> summaryList, String originalDir, String targetBucket, String targetDir) {
-        ThreadPoolExecutor executor = getThreadPoolExecutor();
-        if (summaryList != null && summaryList.size() > 0) {
-            for (OSSObjectSummary obj : summaryList) {
-                executor.execute(() -> {
-                    if (!originalDir.equals(obj.getKey())) {
-                        migrate(obj.getBucketName(), obj.getKey(), targetBucket, targetDir + obj.getKey().replaceFirst(originalDir, ""));
-                        curFinishTaskCount.incrementAndGet();
-                    }
-                });
+    private void moveObject(List<ObjectInfo> objects, String originalDir, String targetBucket, String targetDir) {
+        moveObject(objects, originalDir, targetBucket, targetDir, null);
+    }
+
+    /**
+     * @param checkpoint 对象所在目录的断点，为 null 时不记录
+     */
+    private void moveObject(List<ObjectInfo> objects, String originalDir, String targetBucket, String targetDir, PageCheckpoint checkpoint) {
+        if (objects != null && objects.size() > 0) {
+            Runnable onFinish = null;
+            if (checkpoint != null) {
+                int size = (int) objects.stream().filter(obj -> !originalDir.equals(obj.getKey())).count();
+                onFinish = checkpoint.register(size, objects.get(objects.size() - 1).getKey());
+            }
+            for (ObjectInfo obj : objects) {
+                if (!originalDir.equals(obj.getKey())) {
+                    submitMigrate(obj, targetBucket, targetDir + obj.getKey().replaceFirst(originalDir, ""), onFinish);
+                }
             }
         }
     }
 
     @Override
     protected void multiPartMigrate(String orgBucket, String orgKey, String targetBucket, String targetKey, long total) throws Exception {
-        long perSize = getMigratePartSize();
-        long startPos;
-        long endPos;
-        long curPartSize;
-        // 上传或者下载 分段是否全部成功
-        boolean isSuccess = false;
-        // 计算分段数量
-        int partCount = (int) (total / perSize);
-        if (total % perSize != 0) {
-            partCount ++;
-        }
         InitiateMultipartUploadRequest iniUploadRequest = new InitiateMultipartUploadRequest(targetBucket, targetKey);
         InitiateMultipartUploadResult iniUploadResult = targetClient.initiateMultipartUpload(iniUploadRequest);
         String uploadId = iniUploadResult.getUploadId();
-        List<PartETag> partETagList = new ArrayList<>();
+        List<PartETag> partETagList;
         logger.info(uuid + " multiPartMigrate() orgBucket: " + orgBucket + " key:" + orgKey + "  targetKey:" + targetKey + "  total:" + total);
-        for (int i = 0; i < partCount; i++) {
-            startPos = i * perSize;
-            endPos = (i + 1 == partCount) ? total : startPos + perSize;
-            curPartSize = (i + 1 == partCount) ? total - startPos : perSize;
-            isSuccess = false;
-            for (int k=0; k++<Constant.RETRY_COUNT; ) {
+        MultipartChecksum checksum = newMultipartChecksum(total, true);
+        try {
+            partETagList = parallelPartMigrate(targetBucket, targetKey, total, (partNumber, startPos, curPartSize) -> {
                 // 分段迁移的分段下载
-                try (InputStream input = orgObjectService.multiPartDownloadRange(orgClient, orgBucket, orgKey,
-                        startPos, endPos - 1, uploadId).getObjectContent()) {
+                OSSObject range = orgObjectService.multiPartDownloadRange(orgClient, orgBucket, orgKey,
+                        startPos, startPos + curPartSize - 1, uploadId);
+                checksum.setSourceCrc64(range.getObjectMetadata().getServerCRC());
+                InputStream partInput = checksum.wrap(range.getObjectContent());
+                try (InputStream input = limitBandwidth(partInput)) {
                     logger.debug(uuid + " multiPartDownloadRange success. bucket:" + orgBucket + " orgKey:" + orgKey
-                            + " startPos:" + startPos + " endPos:" + (endPos - 1) + " uploadId:" + uploadId);
-                    // 分段迁移的分段上传
-                    targetObjectService.multiPartUpload(targetClient, targetBucket, targetKey, input, uploadId, partETagList,
-                            curPartSize, i + 1);
-                    isSuccess = true;
-                    logger.debug(uuid + " multiPartUpload success. bucket:" + targetBucket + " targetKey:" + targetKey
-                            + " curPartSize:" + curPartSize + " partNum:" + (i + 1));
-                    break;
-                } catch (Exception e) {
-                    logger.error(uuid + " multiPartUpload failed. bucket:" + targetBucket + " targetKey:" + targetKey
-                            + " curPartSize:" + curPartSize + " partNum:" + (i + 1), e);
+                            + " startPos:" + startPos + " endPos:" + (startPos + curPartSize - 1) + " uploadId:" + uploadId);
+                    // 分段迁移的分段上传，各分段并发执行，PartETag 由 parallelPartMigrate 按分段编号汇总
+                    List<PartETag> partETags = new ArrayList<>(1);
+                    targetObjectService.multiPartUpload(targetClient, targetBucket, targetKey, input, uploadId, partETags,
+                            curPartSize, partNumber);
+                    // 与目的端返回的分段 ETag 对比，不一致时该分段重试
+                    checksum.verifyPart(targetKey, partNumber, curPartSize, partInput, partETags.get(0).getETag());
+                    return partETags.get(0);
                 }
-            }
-            // 上传重试失败
-            if (!isSuccess) {
-                logger.error(uuid + " multiPartMigrate() multiPartUpload retry failed.  bucket:" + targetBucket + " targetKey:" + targetKey
-                        + " curPartSize:" + curPartSize + " partNum:" + (i + 1));
-                break;
-            }
-        }
-
-        // 分段上传或分段下载未成功
-        if (!isSuccess) {
+            });
+            // 全部分段结束后与源端整个对象的校验值对比
+            checksum.verify(targetKey);
+        } catch (Exception e) {
+            // 分段上传或分段下载未成功
             try {
                 // 删除已上传的数据
                 targetClient.abortMultipartUpload(new AbortMultipartUploadRequest(targetBucket, targetKey, uploadId));
             } catch (Exception e1) {
                 logger.error(uuid + " abortMultipartUpload error. targetBucket:" + targetBucket + " targetKey: " + targetKey, e1);
             }
-            throw new Exception(uuid + ":multiPartMigrate() failed.");
-        } else {
+            throw new Exception(uuid + ":multiPartMigrate() failed.", e);
+        }
+
+        try {
+            // 完成分段上传
+            CompleteMultipartUploadRequest completeRequest = new CompleteMultipartUploadRequest(targetBucket, targetKey, uploadId, partETagList);
+            targetClient.completeMultipartUpload(completeRequest);
+            logger.debug(uuid + " CompleteMultipartUpload success. targetKey:" + targetKey);
+        } catch (Exception e) {
+            logger.debug(uuid + " CompleteMultipartUpload error. "  + targetBucket + " : " + targetKey);
             try {
-                // 完成分段上传
-                CompleteMultipartUploadRequest completeRequest = new CompleteMultipartUploadRequest(targetBucket, targetKey, uploadId, partETagList);
-                targetClient.completeMultipartUpload(completeRequest);
-                logger.debug(uuid + " CompleteMultipartUpload success. targetKey:" + targetKey);
-            } catch (Exception e) {
-                logger.debug(uuid + " CompleteMultipartUpload error. "  + targetBucket + " : " + targetKey);
-                try {
-                    targetClient.abortMultipartUpload(new AbortMultipartUploadRequest(targetBucket, targetKey, uploadId));
-                } catch (Exception e1) {
-                    logger.error(uuid + " :multiPartMigrate() " + targetBucket + " : " + targetKey + " abortMultipartUpload error.", e1);
-                }
-                throw e;
+                targetClient.abortMultipartUpload(new AbortMultipartUploadRequest(targetBucket, targetKey, uploadId));
+            } catch (Exception e1) {
+                logger.error(uuid + " :multiPartMigrate() " + targetBucket + " : " + targetKey + " abortMultipartUpload error.", e1);
             }
+            throw e;
         }
     }
 
@@ -211,7 +173,11 @@ public class OssToMoss extends ObjectToObjectBase<OSSClient, AmazonS3Client> {
         OSSObject object = orgObjectService.getObject(orgClient, orgBucket, orgKey);
         // 上传对象
         if (object != null) {
+            InputStream input = verifying(object.getObjectContent(), object.getObjectMetadata().getContentLength(),
+                    null, object.getObjectMetadata().getServerCRC());
+            object.setObjectContent(limitBandwidth(input));
             targetObjectService.putObject(targetClient, targetBucket, targetKey, toS3Object(object));
+            verifyTransferred(input, targetBucket, targetKey);
         }
     }
 
@@ -226,6 +192,27 @@ public class OssToMoss extends ObjectToObjectBase<OSSClient, AmazonS3Client> {
         targetClient.shutdown();
     }
 
+    @Override
+    protected void deleteTargetObject(String targetBucket, String targetKey) {
+        targetObjectService.deleteObject(targetClient, targetBucket, targetKey);
+    }
+
+    @Override
+    protected void bindMetrics(JobMetrics metrics) {
+        orgObjectService.setMetrics(metrics);
+        targetObjectService.setMetrics(metrics);
+    }
+
+    @Override
+    protected ListPage<ObjectInfo> listOrgObjects(String orgBucket, String prefix, String marker) {
+        return orgObjectService.listObjects(orgClient, orgBucket, prefix, marker);
+    }
+
+    @Override
+    protected ListPage<ObjectInfo> listTargetObjects(String targetBucket, String prefix, String marker) {
+        return targetObjectService.listObjects(targetClient, targetBucket, prefix, marker);
+    }
+
     @Override
     protected Long getObjectContentLength(String orgBucket, String key) throws Exception {
         return orgObjectService.getObjectContentLength(orgClient, orgBucket, key);
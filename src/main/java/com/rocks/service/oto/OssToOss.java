@@ -3,12 +3,13 @@ package com.rocks.service.oto;
 import com.aliyun.oss.OSSClient;
 import com.aliyun.oss.model.*;
 import com.rocks.constant.Constant;
+import com.rocks.utils.JobMetrics;
+import com.rocks.vo.ObjectInfo;
 import org.apache.log4j.Logger;
 
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * oss 储存 迁移到 oss 储存
@@ -21,41 +22,17 @@ public class OssToOss extends ObjectToObjectBase<OSSClient, OSSClient> {
 
     @Override
     void moveObject(String orgBucket, String originalDir, String targetBucket, String targetDir, List<String> failedList) {
-        List<OSSObjectSummary> summaryList = new ArrayList<>();
-        OSSObjectSummary summaryObj;
-        for (String key : failedList) {
-            summaryObj = new OSSObjectSummary();
-            summaryObj.setBucketName(orgBucket);
-            summaryObj.setKey(key);
-            summaryList.add(summaryObj);
-        }
-        moveObject(summaryList, targetBucket, targetDir);
+        // 重试的对象没有列举元数据，迁移时 HEAD 获取大小
+        moveObject(ObjectInfo.fromKeys(orgBucket, failedList), targetBucket, targetDir);
     }
 
     @Override
     void migrateBatch(String orgBucket, String targetBucket, String nextMarker, String originalDir, String targetDir) {
-        ObjectListing objectListing;
-        List<OSSObjectSummary> summaryList;
         nextMarker = "".equals(nextMarker) ? null : nextMarker;
-        boolean isTruncated = true;
-        ListObjectsRequest request = new ListObjectsRequest(orgBucket, "", null, "/", 1000);
-        request.setPrefix(originalDir);
-        while (isTruncated) {
-            try {
-                request.setMarker(nextMarker);
-                objectListing = orgClient.listObjects(request);
-                nextMarker = objectListing.getNextMarker();
-                summaryList = objectListing.getObjectSummaries();
-                moveObject(summaryList, targetBucket, "");
-                isTruncated = objectListing.isTruncated();
-
-                for (String dir : objectListing.getCommonPrefixes()) {
-                    listDir(orgBucket, dir, targetBucket);
-                }
-            } catch (Exception e) {
-                logger.error(" migrateBatch() failed. uuid:" + uuid + " orgBucket:" + orgBucket + " nextMarker:" + nextMarker, e);
-            }
-        }
+        walkDir(orgBucket, originalDir, nextMarker, dir -> {
+            PageCheckpoint checkpoint = newDirCheckpoint(dir);
+            return summaryList -> moveObject(ObjectInfo.fromOssSummaries(summaryList), targetBucket, "", checkpoint);
+        });
     }
 
     /**
@@ -64,32 +41,37 @@ public class OssToOss extends ObjectToObjectBase<OSSClient, OSSClient> {
      * @param dir 目录名称
      */
     public void listDir(String orgBucket, String dir, String targetBucket) {
-        List<OSSObjectSummary> summaryList;
-        ListObjectsRequest request = new ListObjectsRequest(orgBucket, dir, null, "/", 1000);
-        boolean isTruncated = true;
-        String countNextMarker = null;
-        while (isTruncated) {
-            try {
-                request.setMarker(countNextMarker);
-                ObjectListing objectListing = orgClient.listObjects(request);
-                countNextMarker = objectListing.getNextMarker();
-                summaryList = objectListing.getObjectSummaries();
-                isTruncated = objectListing.isTruncated();
-                moveObject(summaryList, targetBucket, "");
-                for (String dirName : objectListing.getCommonPrefixes()) {
-                    listDir(orgBucket, dirName, targetBucket);
-                }
-            } catch (Exception e) {
-                logger.error(" listDir() failed. uuid:" + uuid + " orgBucket:" + orgBucket + " countNextMarker:" + countNextMarker, e);
-            }
+        walkDir(orgBucket, dir, null, subDir -> summaryList -> moveObject(ObjectInfo.fromOssSummaries(summaryList), targetBucket, "", null));
+    }
+
+    /**
+     * 广度优先并发遍历目录树，每页列举出的对象直接提交迁移
+     * @param startMarker 根目录的起始 marker
+     */
+    private void walkDir(String orgBucket, String dir, String startMarker, PrefixWalker.DirVisitor<OSSObjectSummary> visitor) {
+        PrefixWalker<OSSObjectSummary> walker = new PrefixWalker<>(uuid, getListWorkNum(),
+                (subDir, marker) -> orgObjectService.listPage(orgClient, orgBucket, subDir, marker), visitor);
+        try {
+            int dirNum = walker.walk(dir, startMarker);
+            logger.info(uuid + " walkDir() end. orgBucket:" + orgBucket + " dir:" + dir + " dirNum:" + dirNum);
+        } catch (InterruptedException e) {
+            logger.error(uuid + " walkDir() interrupted. orgBucket:" + orgBucket + " dir:" + dir, e);
+            Thread.currentThread().interrupt();
         }
     }
 
-    private void moveObject(List<OSSObjectSummary> summaryList, String targetBucket, String targetDir) {
-        ThreadPoolExecutor executor = getThreadPoolExecutor();
-        if (summaryList != null && summaryList.size() > 0) {
-            for (OSSObjectSummary obj : summaryList) {
-                executor.execute(() -> migrate(obj.getBucketName(), obj.getKey(), targetBucket, targetDir + obj.getKey()));
+    private void moveObject(List<ObjectInfo> objects, String targetBucket, String targetDir) {
+        moveObject(objects, targetBucket, targetDir, null);
+    }
+
+    /**
+     * @param checkpoint 对象所在目录的断点，为 null 时不记录
+     */
+    private void moveObject(List<ObjectInfo> objects, String targetBucket, String targetDir, PageCheckpoint checkpoint) {
+        if (objects != null && objects.size() > 0) {
+            Runnable onFinish = checkpoint == null ? null : checkpoint.register(objects.size(), objects.get(objects.size() - 1).getKey());
+            for (ObjectInfo obj : objects) {
+                submitMigrate(obj, targetBucket, targetDir + obj.getKey(), onFinish);
             }
         }
     }
@@ -107,80 +89,117 @@ public class OssToOss extends ObjectToObjectBase<OSSClient, OSSClient> {
 
     @Override
     protected void multiPartMigrate(String orgBucket, String orgKey, String targetBucket, String targetKey, long total) throws Exception {
-        long perSize = getMigratePartSize();
-        long startPos;
-        long endPos;
-        long curPartSize;
-        // 上传或者下载的分段操作是否全部成功
-        boolean isSuccess = false;
-        // 计算分段数量
-        int partCount = (int) (total / perSize);
-        if (total % perSize != 0) {
-            partCount ++;
+        multiPartMigrate(orgBucket, orgKey, targetBucket, targetKey, total, false);
+    }
+
+    @Override
+    protected boolean serverSideCopy(String orgBucket, String orgKey, String targetBucket, String targetKey, long length) throws Exception {
+        // 分段阈值调大时，超过单次复制上限的对象仍须分段复制，否则复制必然失败并最终关闭复制模式
+        if (length >= getMigrateMaxSize() || length > Constant.OSS_COPY_OBJECT_MAX_SIZE) {
+            multiPartMigrate(orgBucket, orgKey, targetBucket, targetKey, length, true);
+        } else {
+            targetObjectService.copyObject(targetClient, orgBucket, orgKey, targetBucket, targetKey);
         }
+        return true;
+    }
+
+    /**
+     * 分段迁移
+     * @param copy 是否使用服务端分段复制，否则分段下载后分段上传
+     */
+    private void multiPartMigrate(String orgBucket, String orgKey, String targetBucket, String targetKey, long total, boolean copy) throws Exception {
         InitiateMultipartUploadRequest iniUploadRequest = new InitiateMultipartUploadRequest(targetBucket, orgKey);
         InitiateMultipartUploadResult iniUploadResult = targetClient.initiateMultipartUpload(iniUploadRequest);
         String uploadId = iniUploadResult.getUploadId();
-        List<PartETag> partETagList = new ArrayList<>();
+        List<PartETag> partETagList;
         logger.debug("multiPartMigrate() orgBucket: " + orgBucket + " key:" + orgKey + "  total:" + total);
-        for (int i = 0; i < partCount; i++) {
-            startPos = i * perSize;
-            endPos = (i + 1 == partCount) ? total : startPos + perSize;
-            curPartSize = (i + 1 == partCount) ? total - startPos : perSize;
-
-            for (int k=0; k++<Constant.RETRY_COUNT; ) {
+        MultipartChecksum checksum = newMultipartChecksum(total, true);
+        try {
+            partETagList = parallelPartMigrate(targetBucket, orgKey, total, (partNumber, startPos, curPartSize) -> {
+                if (copy) {
+                    // 服务端分段复制
+                    return targetObjectService.multiPartCopy(targetClient, orgBucket, orgKey, targetBucket, orgKey, uploadId,
+                            startPos, startPos + curPartSize - 1, partNumber);
+                }
                 // 分段迁移的分段下载
-                try (InputStream input = orgObjectService.multiPartDownloadRange(orgClient, orgBucket, orgKey,
-                        startPos, endPos - 1, uploadId).getObjectContent()) {
-                    // 分段迁移的分段上传
-                    targetObjectService.multiPartUpload(targetClient, targetBucket, orgKey, input, uploadId, partETagList,
-                            curPartSize, i + 1);
-                    isSuccess = true;
-                    logger.info("multiPartUpload success. bucket:" + targetBucket + " obj:" + orgKey
-                            + " curPartSize:" + curPartSize + " partNum:" + (i + 1));
-                    break;
-                } catch (Exception e) {
-                    logger.error("multiPartUpload failed. bucket:" + targetBucket + " obj:" + orgKey
-                            + " curPartSize:" + curPartSize + " partNum:" + (i + 1), e);
+                OSSObject range = orgObjectService.multiPartDownloadRange(orgClient, orgBucket, orgKey,
+                        startPos, startPos + curPartSize - 1, uploadId);
+                checksum.setSourceCrc64(range.getObjectMetadata().getServerCRC());
+                InputStream partInput = checksum.wrap(range.getObjectContent());
+                try (InputStream input = limitBandwidth(partInput)) {
+                    // 分段迁移的分段上传，各分段并发执行，PartETag 由 parallelPartMigrate 按分段编号汇总
+                    List<PartETag> partETags = new ArrayList<>(1);
+                    targetObjectService.multiPartUpload(targetClient, targetBucket, orgKey, input, uploadId, partETags,
+                            curPartSize, partNumber);
+                    // 与目的端返回的分段 ETag 对比，不一致时该分段重试
+                    checksum.verifyPart(orgKey, partNumber, curPartSize, partInput, partETags.get(0).getETag());
+                    return partETags.get(0);
                 }
-            }
-            // 上传重试失败
-            if (!isSuccess) {
-                logger.error("multiPartMigrate() multiPartUpload retry failed.  bucket:" + targetBucket + " obj:" + orgKey
-                        + " curPartSize:" + curPartSize + " partNum:" + (i + 1));
-                break;
-            }
-        }
-
-        // 分段上传或分段下载未成功
-        if (!isSuccess) {
+            });
+            // 全部分段结束后与源端整个对象的校验值对比
+            checksum.verify(orgKey);
+        } catch (Exception e) {
+            // 分段上传或分段下载未成功
             try {
                 // 删除已上传的数据
                 targetClient.abortMultipartUpload(new AbortMultipartUploadRequest(targetBucket, orgKey, uploadId));
             } catch (Exception e1) {
                 logger.error(targetBucket + " : " + orgKey + " abortMultipartUpload error.", e1);
             }
-            throw new Exception("multiPartMigrate() failed.");
-        } else {
+            throw new Exception("multiPartMigrate() failed.", e);
+        }
+
+        try {
+            // 完成分段上传
+            CompleteMultipartUploadRequest completeRequest = new CompleteMultipartUploadRequest(targetBucket, orgKey, uploadId, partETagList);
+            targetClient.completeMultipartUpload(completeRequest);
+        } catch (Exception e) {
             try {
-                // 完成分段上传
-                CompleteMultipartUploadRequest completeRequest = new CompleteMultipartUploadRequest(targetBucket, orgKey, uploadId, partETagList);
-                targetClient.completeMultipartUpload(completeRequest);
-            } catch (Exception e) {
-                try {
-                    targetClient.abortMultipartUpload(new AbortMultipartUploadRequest(targetBucket, orgKey, uploadId));
-                } catch (Exception e1) {
-                    logger.error(targetBucket + " : " + orgKey + " abortMultipartUpload error.", e1);
-                }
-                throw e;
+                targetClient.abortMultipartUpload(new AbortMultipartUploadRequest(targetBucket, orgKey, uploadId));
+            } catch (Exception e1) {
+                logger.error(targetBucket + " : " + orgKey + " abortMultipartUpload error.", e1);
             }
+            throw e;
         }
     }
 
     @Override
     protected void doMigrate(String orgBucket, String orgKey, String targetBucket, String targetKey) {
         OSSObject object = orgObjectService.getObject(orgClient, orgBucket, orgKey);
+        InputStream input = verifying(object.getObjectContent(), object.getObjectMetadata().getContentLength(),
+                null, object.getObjectMetadata().getServerCRC());
+        object.setObjectContent(limitBandwidth(input));
         targetObjectService.putObject(targetClient, targetBucket, targetKey, object);
+        verifyTransferred(input, targetBucket, targetKey);
+    }
+
+    @Override
+    protected void deleteTargetObject(String targetBucket, String targetKey) {
+        targetObjectService.deleteObject(targetClient, targetBucket, targetKey);
+    }
+
+    @Override
+    protected void bindMetrics(JobMetrics metrics) {
+        // 源端和目的端使用同一个服务
+        orgObjectService.setMetrics(metrics);
+    }
+
+    @Override
+    protected ListPage<ObjectInfo> listOrgObjects(String orgBucket, String prefix, String marker) {
+        return orgObjectService.listObjects(orgClient, orgBucket, prefix, marker);
+    }
+
+    @Override
+    protected ListPage<ObjectInfo> listTargetObjects(String targetBucket, String prefix, String marker) {
+        return targetObjectService.listObjects(targetClient, targetBucket, prefix, marker);
+    }
+
+    /**
+     * 与 migrateBatch 一致，目的端对象名与源端相同
+     */
+    @Override
+    protected String toTargetKey(String orgKey, String originalDir, String targetDir) {
+        return orgKey;
     }
 
     @Override
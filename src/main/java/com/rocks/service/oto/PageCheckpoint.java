@@ -0,0 +1,93 @@
+package com.rocks.service.oto;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 列举分页的断点记录。
+ * 分页按列举顺序登记，只有某页及其之前的所有页的对象都迁移结束后，才把 marker 推进到该页的 nextMarker，
+ * 保证掉线恢复时不会跳过未完成的对象
+ * @author zhuang
+ */
+public class PageCheckpoint {
+    /** 已登记且未推进过的分页，按列举顺序 */
+    private final Deque<Page> pages = new ArrayDeque<>();
+    /** marker 推进后的回调，如 TaskConfig.setUuidInfo */
+    private final Consumer<String> onCommit;
+    private final ReentrantLock lock = new ReentrantLock();
+    private String committedMarker;
+
+    public PageCheckpoint(String startMarker, Consumer<String> onCommit) {
+        this.committedMarker = startMarker;
+        this.onCommit = onCommit;
+    }
+
+    /**
+     * 登记一页
+     * @param size 该页提交迁移的对象数
+     * @param nextMarker 该页全部完成后可推进到的 marker
+     */
+    public Page register(int size, String nextMarker) {
+        Page page = new Page(size, nextMarker);
+        lock.lock();
+        try {
+            pages.addLast(page);
+        } finally {
+            lock.unlock();
+        }
+        if (size == 0) {
+            advance();
+        }
+        return page;
+    }
+
+    /** 当前已推进到的 marker */
+    public String getCommittedMarker() {
+        lock.lock();
+        try {
+            return committedMarker;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void advance() {
+        lock.lock();
+        try {
+            boolean advanced = false;
+            while (!pages.isEmpty() && pages.peekFirst().remaining.get() == 0) {
+                committedMarker = pages.pollFirst().nextMarker;
+                advanced = true;
+            }
+            if (advanced) {
+                onCommit.accept(committedMarker);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 一页列举结果
+     */
+    public class Page implements Runnable {
+        private final AtomicInteger remaining;
+        private final String nextMarker;
+
+        private Page(int size, String nextMarker) {
+            this.remaining = new AtomicInteger(size);
+            this.nextMarker = nextMarker;
+        }
+
+        /** 该页的一个对象迁移结束（成功或失败） */
+        @Override
+        public void run() {
+            if (remaining.decrementAndGet() == 0) {
+                advance();
+            }
+        }
+    }
+}
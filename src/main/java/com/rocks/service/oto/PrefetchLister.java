@@ -0,0 +1,161 @@
+package com.rocks.service.oto;
+
+import com.rocks.constant.Constant;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 预取列举：后台线程按 marker 顺序列举分页并放入有界队列，迁移线程从队列取页提交迁移，
+ * 列举的网络耗时与迁移重叠，迁移线程池不会在每页结束时空转。
+ * 可添加多个列举源（如按键范围分片），各列举源使用各自的 marker 并发列举，分页合并到同一队列
+ * @author zhuang
+ * @param <S> S3ObjectSummary/OSSObjectSummary
+ */
+public class PrefetchLister<S> {
+    private static final Logger logger = Logger.getLogger("PrefetchLister.class");
+    /** 列举结束标识 */
+    private final ListPage<S> endPage = new ListPage<>(Collections.emptyList(), null, null, false);
+
+    private final String uuid;
+    private final int prefetchPageSize;
+    private final int listWorkNum;
+    private final List<String> startMarkers = new ArrayList<>();
+    private final List<PageFetcher<S>> fetchers = new ArrayList<>();
+    private final AtomicInteger runningCount = new AtomicInteger();
+    /** 列举源异常结束的原因，列举未完整结束 */
+    private volatile Throwable failure;
+    private BlockingQueue<ListPage<S>> pageQueue;
+    private ExecutorService listExecutor;
+
+    /**
+     * 按 marker 列举一页
+     * @param <S> S3ObjectSummary/OSSObjectSummary
+     */
+    @FunctionalInterface
+    public interface PageFetcher<S> {
+        ListPage<S> fetch(String marker) throws Exception;
+    }
+
+    public PrefetchLister(String uuid, String startMarker, PageFetcher<S> fetcher) {
+        this(uuid, 1);
+        addSource(startMarker, fetcher);
+    }
+
+    /**
+     * @param listWorkNum 并发列举的线程数
+     */
+    public PrefetchLister(String uuid, int listWorkNum) {
+        this(uuid, listWorkNum, Constant.LIST_PREFETCH_PAGE_SIZE);
+    }
+
+    public PrefetchLister(String uuid, int listWorkNum, int prefetchPageSize) {
+        this.uuid = uuid;
+        this.listWorkNum = Math.max(1, listWorkNum);
+        this.prefetchPageSize = prefetchPageSize;
+    }
+
+    /**
+     * 添加列举源，需在 start() 前调用
+     * @return 列举源编号，即该源分页的 ListPage.getShard()
+     */
+    public int addSource(String startMarker, PageFetcher<S> fetcher) {
+        startMarkers.add(startMarker);
+        fetchers.add(fetcher);
+        return fetchers.size() - 1;
+    }
+
+    /** 启动后台列举 */
+    public void start() {
+        int threadNum = Math.min(listWorkNum, Math.max(1, fetchers.size()));
+        pageQueue = new ArrayBlockingQueue<>(prefetchPageSize * threadNum);
+        AtomicInteger threadIndex = new AtomicInteger();
+        listExecutor = Executors.newFixedThreadPool(threadNum, r -> {
+            Thread thread = new Thread(r, uuid + "-lister-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        runningCount.set(fetchers.size());
+        if (fetchers.isEmpty()) {
+            pageQueue.add(endPage);
+        }
+        for (int i = 0; i < fetchers.size(); i++) {
+            final int shard = i;
+            listExecutor.execute(() -> listLoop(shard));
+        }
+        listExecutor.shutdown();
+    }
+
+    /**
+     * 获取下一页，队列为空时阻塞等待。同一列举源的分页按列举顺序返回
+     * @return 下一页，全部列举源结束返回 null
+     * @throws IllegalStateException 有列举源异常结束
+     */
+    public ListPage<S> take() throws InterruptedException {
+        ListPage<S> page = pageQueue.take();
+        if (page == endPage) {
+            if (failure != null) {
+                // 放回结束标识，再次调用同样抛出
+                pageQueue.offer(endPage);
+                throw new IllegalStateException(uuid + " lister failed.", failure);
+            }
+            return null;
+        }
+        return page;
+    }
+
+    /** 停止后台列举 */
+    public void stop() {
+        if (listExecutor != null) {
+            listExecutor.shutdownNow();
+        }
+    }
+
+    private void listLoop(int shard) {
+        PageFetcher<S> fetcher = fetchers.get(shard);
+        String marker = startMarkers.get(shard);
+        boolean isTruncated = true;
+        try {
+            while (isTruncated) {
+                ListPage<S> page;
+                ListPageEvent event = new ListPageEvent();
+                event.begin();
+                try {
+                    page = fetcher.fetch(marker);
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    logger.error(uuid + " listObjects failed. shard:" + shard + " marker:" + marker, e);
+                    ListPageEvent.commit(event, uuid, "shard " + shard, marker, 0, false, e);
+                    MigrateRetryEvent.emit(uuid, "list", marker, 0, 0, e);
+                    TimeUnit.SECONDS.sleep(2);
+                    continue;
+                }
+                ListPageEvent.commit(event, uuid, "shard " + shard, marker, page.getSummaries().size(), page.isTruncated(), null);
+                pageQueue.put(new ListPage<>(page.getSummaries(), page.getMarker(), page.getNextMarker(), page.isTruncated(), shard));
+                marker = page.getNextMarker();
+                isTruncated = page.isTruncated();
+            }
+            logger.debug(uuid + " lister shard " + shard + " end. marker:" + marker);
+        } catch (InterruptedException e) {
+            logger.info(uuid + " lister interrupted. shard:" + shard + " marker:" + marker);
+            Thread.currentThread().interrupt();
+        } catch (Error e) {
+            logger.error(uuid + " lister failed. shard:" + shard + " marker:" + marker, e);
+            failure = e;
+        } finally {
+            if (runningCount.decrementAndGet() == 0) {
+                // 最后结束的列举源放入结束标识，停止时消费者已不再等待
+                try {
+                    pageQueue.put(endPage);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.rocks.service.oto;
+
+import org.apache.log4j.Logger;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 按 delimiter 遍历目录树：广度优先，子目录加入待列举队列而不是递归，
+ * 最多 listWorkNum 个目录同时列举，空闲线程从其他线程的队列窃取目录（ForkJoinPool 的 work-stealing），
+ * 每页列举出的对象直接交给该目录的 onPage 提交迁移
+ * @author zhuang
+ * @param <S> OSSObjectSummary
+ */
+public class PrefixWalker<S> {
+    private static final Logger logger = Logger.getLogger("PrefixWalker.class");
+
+    private final String uuid;
+    private final int listWorkNum;
+    private final DirFetcher<S> fetcher;
+    private final DirVisitor<S> visitor;
+    /** 已加入队列且未列举完的目录数 */
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicInteger dirCount = new AtomicInteger();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    /** 某个目录的处理失败（如迁移已停止时提交被拒绝），不再列举和加入新目录 */
+    private volatile boolean stopped;
+    private ForkJoinPool listPool;
+
+    /**
+     * 按目录和 marker 列举一页，返回该页的对象和子目录
+     * @param <S> OSSObjectSummary
+     */
+    @FunctionalInterface
+    public interface DirFetcher<S> {
+        ListPage<S> fetch(String dir, String marker) throws Exception;
+    }
+
+    /**
+     * 开始列举一个目录，返回该目录每页对象的处理，如按目录记录断点
+     * @param <S> OSSObjectSummary
+     */
+    @FunctionalInterface
+    public interface DirVisitor<S> {
+        Consumer<List<S>> visit(String dir);
+    }
+
+    /**
+     * @param listWorkNum 同时列举的目录数
+     * @param fetcher 列举一页
+     * @param visitor 每个目录开始列举时调用，返回的处理在列举线程中按页调用
+     */
+    public PrefixWalker(String uuid, int listWorkNum, DirFetcher<S> fetcher, DirVisitor<S> visitor) {
+        this.uuid = uuid;
+        this.listWorkNum = Math.max(1, listWorkNum);
+        this.fetcher = fetcher;
+        this.visitor = visitor;
+    }
+
+    /**
+     * 遍历目录及其所有子目录，全部列举结束后返回
+     * @param dir 根目录
+     * @param startMarker 根目录的起始 marker，用于掉线恢复
+     * @return 遍历的目录数
+     */
+    public int walk(String dir, String startMarker) throws InterruptedException {
+        // asyncMode: 各线程的本地队列先进先出，按广度优先展开
+        listPool = new ForkJoinPool(listWorkNum, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        try {
+            submit(dir, startMarker);
+            finished.await();
+        } finally {
+            listPool.shutdownNow();
+        }
+        return dirCount.get();
+    }
+
+    private void submit(String dir, String startMarker) {
+        pendingCount.incrementAndGet();
+        listPool.execute(() -> {
+            try {
+                if (!stopped) {
+                    listDir(dir, startMarker);
+                }
+            } catch (RuntimeException | Error e) {
+                // 不抛出到 ForkJoinPool，否则只打印到 stderr 而遍历继续
+                logger.error(uuid + " listDir() stopped. dir:" + dir, e);
+                stopped = true;
+            } finally {
+                if (pendingCount.decrementAndGet() == 0) {
+                    finished.countDown();
+                }
+            }
+        });
+    }
+
+    private void listDir(String dir, String startMarker) {
+        dirCount.incrementAndGet();
+        Consumer<List<S>> onPage = visitor.visit(dir);
+        String marker = startMarker;
+        boolean isTruncated = true;
+        while (isTruncated && !stopped) {
+            ListPage<S> page;
+            ListPageEvent event = new ListPageEvent();
+            event.begin();
+            try {
+                page = fetcher.fetch(dir, marker);
+            } catch (Exception e) {
+                logger.error(uuid + " listDir() failed. dir:" + dir + " marker:" + marker, e);
+                ListPageEvent.commit(event, uuid, dir, marker, 0, false, e);
+                MigrateRetryEvent.emit(uuid, "list", marker, 0, 0, e);
+                try {
+                    TimeUnit.SECONDS.sleep(2);
+                } catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                continue;
+            }
+            ListPageEvent.commit(event, uuid, dir, marker, page.getSummaries().size(), page.isTruncated(), null);
+            onPage.accept(page.getSummaries());
+            if (stopped) {
+                return;
+            }
+            for (String subDir : page.getCommonPrefixes()) {
+                submit(subDir, null);
+            }
+            marker = page.getNextMarker();
+            isTruncated = page.isTruncated();
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package com.rocks.service.oto;
+
+import com.aliyun.oss.ClientException;
+import com.aliyun.oss.OSSClient;
+import com.aliyun.oss.OSSException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.rocks.constant.Constant;
+import com.rocks.service.ClientConfig;
+import org.apache.log4j.Logger;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+/**
+ * 进程内共用的对象存储客户端：按 类型、地址、AK、协议 缓存，引用计数，多个迁移同时使用同一个客户端和连接池，
+ * 不必每个迁移重新初始化 SDK、建立连接和 TLS 握手。
+ * 连接池大小按使用者的并发数之和确定，不够时新建更大的客户端，新迁移使用新客户端，旧客户端在使用者都释放后关闭。
+ * 无人使用的客户端空闲一段时间后关闭；空闲过的客户端再次使用前先检查服务端是否可达
+ * @author zhuang
+ */
+public class SharedClientCache {
+    private static final Logger logger = Logger.getLogger("SharedClientCache.class");
+    private static final Map<Key, Entry<?>> cache = new ConcurrentHashMap<>();
+    /** 所有未关闭的共用客户端，包括已不再分配但还有使用者的旧客户端，由 lock 保护 */
+    private static final Map<Object, Entry<?>> clients = new IdentityHashMap<>();
+    private static final ReentrantLock lock = new ReentrantLock();
+    private static final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "shared-client-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        evictor.scheduleWithFixedDelay(SharedClientCache::evictIdle, Constant.CLIENT_EVICT_INTERVAL, Constant.CLIENT_EVICT_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    private SharedClientCache() {
+    }
+
+    /**
+     * 获取 MOSS（S3 协议）客户端
+     * @param protocol 协议，https 时使用 HTTPS，否则 HTTP
+     * @param maxConnections 该迁移需要的连接数
+     */
+    public static Lease<AmazonS3Client> acquireS3(String endpoint, String ak, String sk, String protocol, int maxConnections) {
+        Key key = new Key("s3", endpoint, ak, sk, protocol);
+        return acquire(key, maxConnections, size -> newS3Client(endpoint, ak, sk, protocol, size), AmazonS3Client::shutdown, client -> {
+            try {
+                client.listBuckets();
+            } catch (AmazonServiceException e) {
+                // 服务端有响应即可达，如无列举桶的权限
+            }
+            return true;
+        });
+    }
+
+    /**
+     * 获取 OSS 客户端
+     * @param maxConnections 该迁移需要的连接数
+     */
+    public static Lease<OSSClient> acquireOss(String endpoint, String ak, String sk, String protocol, int maxConnections) {
+        Key key = new Key("oss", endpoint, ak, sk, protocol);
+        return acquire(key, maxConnections, size -> newOssClient(endpoint, ak, sk, protocol, size), OSSClient::shutdown, client -> {
+            try {
+                client.listBuckets();
+            } catch (OSSException e) {
+                // 服务端有响应即可达
+            }
+            return true;
+        });
+    }
+
+    /**
+     * 协议、超时、签名等配置与 ClientConfig.getS3Client 一致，只调整连接池。
+     * S3 客户端的连接池在创建时确定，因此复制 ClientConfig 客户端的配置后重新创建
+     */
+    private static AmazonS3Client newS3Client(String endpoint, String ak, String sk, String protocol, int maxConnections) {
+        AmazonS3Client template = ClientConfig.getS3Client(endpoint, ak, sk, false, protocol);
+        ClientConfiguration configuration = new ClientConfiguration(template.getClientConfiguration());
+        template.shutdown();
+        configuration.setMaxConnections(maxConnections);
+        configuration.setConnectionMaxIdleMillis(TimeUnit.SECONDS.toMillis(Constant.CLIENT_CONNECTION_IDLE_TIME));
+        configuration.setUseReaper(true);
+        return (AmazonS3Client) AmazonS3ClientBuilder.standard()
+                .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials(ak, sk)))
+                .withClientConfiguration(configuration)
+                .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, null))
+                .withPathStyleAccessEnabled(true)
+                .build();
+    }
+
+    private static OSSClient newOssClient(String endpoint, String ak, String sk, String protocol, int maxConnections) {
+        com.aliyun.oss.ClientConfiguration configuration = new com.aliyun.oss.ClientConfiguration();
+        configuration.setProtocol("https".equalsIgnoreCase(protocol) ? com.aliyun.oss.common.comm.Protocol.HTTPS
+                : com.aliyun.oss.common.comm.Protocol.HTTP);
+        configuration.setMaxConnections(maxConnections);
+        configuration.setSocketTimeout(Constant.CLIENT_SOCKET_TIMEOUT);
+        configuration.setIdleConnectionTime(TimeUnit.SECONDS.toMillis(Constant.CLIENT_CONNECTION_IDLE_TIME));
+        return new OSSClient(endpoint, ak, sk, configuration);
+    }
+
+    /**
+     * 获取客户端，引用计数加一
+     * @param factory 按连接数创建客户端
+     * @param closer 关闭客户端
+     * @param healthCheck 服务端是否可达，网络异常时抛出异常或返回 false
+     */
+    @SuppressWarnings("unchecked")
+    static <C> Lease<C> acquire(Key key, int maxConnections, IntFunction<C> factory, Consumer<C> closer, Predicate<C> healthCheck) {
+        Entry<C> entry;
+        boolean needCheck;
+        lock.lock();
+        try {
+            entry = (Entry<C>) cache.get(key);
+            if (entry != null && entry.usedConnections + maxConnections > entry.maxConnections) {
+                // 连接池不够，之后的迁移使用新的客户端
+                logger.info(key + " shared client pool is not enough. used:" + entry.usedConnections + " need:" + maxConnections
+                        + " max:" + entry.maxConnections);
+                retire(entry);
+                int size = Math.min(Constant.CLIENT_MAX_CONNECTIONS, Math.max(entry.usedConnections + maxConnections, entry.maxConnections * 2));
+                entry = null;
+                cache.put(key, newEntry(key, factory, closer, size));
+            }
+            if (entry == null) {
+                entry = (Entry<C>) cache.computeIfAbsent(key, k -> newEntry(key, factory, closer, Math.max(maxConnections, Constant.CLIENT_MIN_CONNECTIONS)));
+            }
+            needCheck = entry.refCount == 0 && System.currentTimeMillis() - entry.lastCheckTime > TimeUnit.SECONDS.toMillis(Constant.CLIENT_HEALTH_CHECK_INTERVAL);
+            entry.refCount++;
+            entry.usedConnections += maxConnections;
+        } finally {
+            lock.unlock();
+        }
+        if (needCheck && !isHealthy(entry, healthCheck)) {
+            logger.warn(key + " shared client health check failed, recreate.");
+            lock.lock();
+            try {
+                entry.refCount--;
+                entry.usedConnections -= maxConnections;
+                retire(entry);
+            } finally {
+                lock.unlock();
+            }
+            return acquire(key, maxConnections, factory, closer, healthCheck);
+        }
+        return new Lease<>(entry, maxConnections);
+    }
+
+    private static <C> boolean isHealthy(Entry<C> entry, Predicate<C> healthCheck) {
+        try {
+            boolean healthy = healthCheck.test(entry.client);
+            entry.lastCheckTime = System.currentTimeMillis();
+            return healthy;
+        } catch (ClientException | com.amazonaws.SdkClientException e) {
+            logger.warn(entry.key + " shared client unreachable.", e);
+            return false;
+        }
+    }
+
+    private static <C> Entry<C> newEntry(Key key, IntFunction<C> factory, Consumer<C> closer, int maxConnections) {
+        logger.info(key + " create shared client. maxConnections:" + maxConnections);
+        Entry<C> entry = new Entry<>(key, factory.apply(maxConnections), closer, maxConnections);
+        clients.put(entry.client, entry);
+        return entry;
+    }
+
+    /**
+     * 不再给新的使用者，没有使用者时立即关闭。需持有 lock
+     */
+    private static void retire(Entry<?> entry) {
+        cache.remove(entry.key, entry);
+        entry.retired = true;
+        if (entry.refCount == 0) {
+            entry.close();
+        }
+    }
+
+    private static void release(Entry<?> entry, int maxConnections) {
+        lock.lock();
+        try {
+            entry.refCount--;
+            entry.usedConnections -= maxConnections;
+            entry.lastReleaseTime = System.currentTimeMillis();
+            if (entry.refCount == 0 && entry.retired) {
+                entry.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 关闭空闲超时的客户端
+     */
+    private static void evictIdle() {
+        long deadline = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(Constant.CLIENT_IDLE_TIMEOUT);
+        lock.lock();
+        try {
+            Iterator<Entry<?>> iterator = cache.values().iterator();
+            while (iterator.hasNext()) {
+                Entry<?> entry = iterator.next();
+                if (entry.refCount == 0 && entry.lastReleaseTime < deadline) {
+                    iterator.remove();
+                    entry.close();
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("shared client evict error.", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 是否为共用的客户端，共用的客户端不能由单个迁移关闭。
+     * 包括因连接池不够已不再分配、但还有迁移在使用的旧客户端
+     */
+    public static boolean isShared(Object client) {
+        lock.lock();
+        try {
+            return clients.containsKey(client);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 一个迁移对客户端的使用，迁移结束时释放
+     */
+    public static class Lease<C> {
+        private final Entry<C> entry;
+        private final int maxConnections;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Lease(Entry<C> entry, int maxConnections) {
+            this.entry = entry;
+            this.maxConnections = maxConnections;
+        }
+
+        public C getClient() {
+            return entry.client;
+        }
+
+        /** 释放，重复调用无效 */
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                SharedClientCache.release(entry, maxConnections);
+            }
+        }
+    }
+
+    /**
+     * 缓存的客户端，计数字段由 lock 保护
+     */
+    private static class Entry<C> {
+        private final Key key;
+        private final C client;
+        private final Consumer<C> closer;
+        private final int maxConnections;
+        private int refCount;
+        private int usedConnections;
+        private boolean retired;
+        private long lastReleaseTime = System.currentTimeMillis();
+        private volatile long lastCheckTime = System.currentTimeMillis();
+
+        Entry(Key key, C client, Consumer<C> closer, int maxConnections) {
+            this.key = key;
+            this.client = client;
+            this.closer = closer;
+            this.maxConnections = maxConnections;
+        }
+
+        /** 需持有 lock */
+        void close() {
+            clients.remove(client);
+            logger.info(key + " close shared client.");
+            try {
+                closer.accept(client);
+            } catch (RuntimeException e) {
+                logger.error(key + " close shared client error.", e);
+            }
+        }
+    }
+
+    /**
+     * 缓存键。SK 参与比较，避免同一 AK 更换 SK 后仍使用旧客户端，但不输出到日志
+     */
+    static class Key {
+        private final String type;
+        private final String endpoint;
+        private final String ak;
+        private final String sk;
+        private final String protocol;
+
+        Key(String type, String endpoint, String ak, String sk, String protocol) {
+            this.type = type;
+            this.endpoint = endpoint;
+            this.ak = ak;
+            this.sk = sk;
+            this.protocol = protocol;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return type.equals(other.type) && Objects.equals(endpoint, other.endpoint) && Objects.equals(ak, other.ak)
+                    && Objects.equals(sk, other.sk) && Objects.equals(protocol, other.protocol);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, endpoint, ak, protocol);
+        }
+
+        @Override
+        public String toString() {
+            return type + "://" + endpoint + " ak:" + ak + " protocol:" + protocol;
+        }
+    }
+}
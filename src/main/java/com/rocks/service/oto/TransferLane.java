@@ -0,0 +1,340 @@
+package com.rocks.service.oto;
+
+import com.rocks.utils.VirtualThreads;
+import org.apache.log4j.Logger;
+
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 迁移通道：按对象大小划分的独立线程池，各通道有各自的并发数和队列，
+ * 大对象的长时间分段迁移不会占满小对象的线程，小对象的排队也不会阻塞大对象。
+ * 每个通道单独统计排队数、完成数和吞吐量。
+ * 虚拟线程模式下每个任务一个虚拟线程，并发数由信号量控制而不是线程数，排队数同样有上限。
+ * 全局调度模式下通道不创建线程，任务交给进程内共用的 TransferScheduler 执行，通道只限制排队数和统计
+ * @author zhuang
+ */
+public class TransferLane {
+    private static final Logger logger = Logger.getLogger("TransferLane.class");
+
+    private final String uuid;
+    private final String name;
+    private final boolean virtual;
+    /** 全局调度器，不使用时为 null */
+    private final TransferScheduler scheduler;
+    /** 通道自己的线程池，全局调度模式下为 null */
+    private final ExecutorService executor;
+    /** 虚拟线程模式：正在执行的任务数上限 */
+    private final ResizableSemaphore runningPermits;
+    /** 虚拟线程和全局调度模式：已提交未结束的任务数上限，即并发数加队列长度，满时提交阻塞 */
+    private final ResizableSemaphore pendingPermits;
+    private volatile boolean shutdown;
+    /** 迁移已停止，正在执行的任务被中断 */
+    private volatile boolean aborted;
+    /** 正在执行本通道任务的线程，停止迁移时只中断这些线程，全局调度模式下不影响其他迁移 */
+    private final Set<Thread> runningThreads = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock abortLock = new ReentrantLock();
+    private final ReentrantLock resizeLock = new ReentrantLock();
+    private final AtomicInteger activeNum = new AtomicInteger();
+    private volatile int workNum;
+    private final int queueSize;
+    private final LongAdder submittedNum = new LongAdder();
+    private final LongAdder completedNum = new LongAdder();
+    private final LongAdder completedBytes = new LongAdder();
+    /** 任务执行总耗时，毫秒 */
+    private final LongAdder busyTime = new LongAdder();
+    private final long createTime = System.currentTimeMillis();
+
+    /**
+     * @param name 通道名，如 small/large
+     * @param workNum 通道并发数
+     * @param queueSize 通道队列长度，队列满时提交阻塞
+     * @param virtual 是否使用虚拟线程，JVM 不支持时使用平台线程
+     */
+    public TransferLane(String uuid, String name, int workNum, int queueSize, boolean virtual) {
+        this.uuid = uuid;
+        this.name = name;
+        this.workNum = workNum;
+        this.queueSize = queueSize;
+        this.scheduler = null;
+        ExecutorService virtualExecutor = virtual ? VirtualThreads.newExecutor(uuid + "-" + name + "-v") : null;
+        if (virtual && virtualExecutor == null) {
+            logger.warn(uuid + " virtual threads are not supported, lane " + name + " uses platform threads.");
+        }
+        this.virtual = virtualExecutor != null;
+        if (this.virtual) {
+            this.executor = virtualExecutor;
+            this.runningPermits = new ResizableSemaphore(workNum);
+            this.pendingPermits = new ResizableSemaphore(workNum + queueSize);
+        } else {
+            this.executor = newPlatformExecutor(workNum, queueSize);
+            this.runningPermits = null;
+            this.pendingPermits = null;
+        }
+    }
+
+    public TransferLane(String uuid, String name, int workNum, int queueSize) {
+        this(uuid, name, workNum, queueSize, false);
+    }
+
+    /**
+     * 全局调度模式的通道，任务由 scheduler 按各迁移的优先级和权重执行
+     * @param workNum 通道并发数，只用于计算排队数上限
+     */
+    public TransferLane(String uuid, String name, int workNum, int queueSize, TransferScheduler scheduler) {
+        this.uuid = uuid;
+        this.name = name;
+        this.workNum = workNum;
+        this.queueSize = queueSize;
+        this.virtual = false;
+        this.scheduler = scheduler;
+        this.executor = null;
+        this.runningPermits = null;
+        this.pendingPermits = new ResizableSemaphore(workNum + queueSize);
+    }
+
+    private ThreadPoolExecutor newPlatformExecutor(int workNum, int queueSize) {
+        AtomicInteger threadIndex = new AtomicInteger();
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(workNum, workNum, 3000L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueSize), r -> new Thread(r, uuid + "-" + name + "-" + threadIndex.getAndIncrement()));
+        threadPoolExecutor.setRejectedExecutionHandler((r, e) -> {
+            try {
+                e.getQueue().put(r);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(name + " lane producer interrupted", ex);
+            }
+        });
+        return threadPoolExecutor;
+    }
+
+    /**
+     * 提交迁移任务，队列满时阻塞
+     * @param size 对象大小，未知时为 null
+     */
+    public void execute(Runnable task, Long size) {
+        if (pendingPermits != null) {
+            try {
+                pendingPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(name + " lane producer interrupted", e);
+            }
+        }
+        submittedNum.increment();
+        Runnable command = () -> {
+            try {
+                if (virtual) {
+                    runningPermits.acquireUninterruptibly();
+                }
+                long start = System.currentTimeMillis();
+                activeNum.incrementAndGet();
+                runningThreads.add(Thread.currentThread());
+                try {
+                    task.run();
+                } finally {
+                    abortLock.lock();
+                    try {
+                        runningThreads.remove(Thread.currentThread());
+                    } finally {
+                        abortLock.unlock();
+                    }
+                    if (aborted) {
+                        // 清除停止时的中断标志，线程池和调度器的线程还要执行其他任务
+                        Thread.interrupted();
+                    }
+                    activeNum.decrementAndGet();
+                    busyTime.add(System.currentTimeMillis() - start);
+                    if (size != null) {
+                        completedBytes.add(size);
+                    }
+                    if (virtual) {
+                        runningPermits.release();
+                    }
+                }
+            } finally {
+                if (pendingPermits != null) {
+                    pendingPermits.release();
+                }
+                completedNum.increment();
+            }
+        };
+        try {
+            if (scheduler != null) {
+                scheduler.submit(uuid, command, size);
+            } else {
+                executor.execute(command);
+            }
+        } catch (RuntimeException | Error e) {
+            // 未提交成功，任务不会执行，归还许可并撤销计数，否则通道永远不会空闲
+            submittedNum.decrement();
+            if (pendingPermits != null) {
+                pendingPermits.release();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 调整通道并发数，用于自适应并发控制。减小时正在执行的任务不受影响，结束后多余的线程/许可不再使用
+     */
+    public void resize(int newWorkNum) {
+        resizeLock.lock();
+        try {
+            if (scheduler != null) {
+                pendingPermits.resize(workNum + queueSize, newWorkNum + queueSize);
+            } else if (virtual) {
+                runningPermits.resize(workNum, newWorkNum);
+                pendingPermits.resize(workNum + queueSize, newWorkNum + queueSize);
+            } else {
+                ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor) executor;
+                if (newWorkNum > threadPoolExecutor.getMaximumPoolSize()) {
+                    threadPoolExecutor.setMaximumPoolSize(newWorkNum);
+                    threadPoolExecutor.setCorePoolSize(newWorkNum);
+                } else if (newWorkNum < threadPoolExecutor.getMaximumPoolSize()) {
+                    threadPoolExecutor.setCorePoolSize(newWorkNum);
+                    threadPoolExecutor.setMaximumPoolSize(newWorkNum);
+                }
+            }
+            workNum = newWorkNum;
+        } finally {
+            resizeLock.unlock();
+        }
+    }
+
+    /**
+     * 停止迁移：中断正在执行本通道任务的线程，排队中的任务仍会执行，由任务自己判断迁移已停止
+     */
+    public void abort() {
+        abortLock.lock();
+        try {
+            aborted = true;
+            for (Thread thread : runningThreads) {
+                thread.interrupt();
+            }
+            logger.info(uuid + " lane abort. interrupted:" + runningThreads.size() + " " + this);
+        } finally {
+            abortLock.unlock();
+        }
+    }
+
+    /** 通道内的任务是否都已结束 */
+    public boolean isIdle() {
+        return completedNum.sum() == submittedNum.sum();
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        if (executor != null) {
+            executor.shutdown();
+        }
+        logger.info(uuid + " lane shutdown. " + this);
+    }
+
+    /** 全局调度模式下通道没有自己的线程，关闭即结束 */
+    public boolean isTerminated() {
+        return executor == null ? shutdown : executor.isTerminated();
+    }
+
+    /**
+     * 等待通道的线程退出
+     * @return 是否在超时前结束
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor == null ? shutdown : executor.awaitTermination(timeout, unit);
+    }
+
+    /** 通道自己的线程池，全局调度模式下为 null */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /** 是否由全局调度器执行 */
+    public boolean isScheduled() {
+        return scheduler != null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** 是否使用虚拟线程 */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /** 当前并发数 */
+    public int getWorkNum() {
+        return workNum;
+    }
+
+    /** 排队中的任务数 */
+    public int getQueueSize() {
+        return (int) Math.max(0, submittedNum.sum() - completedNum.sum() - activeNum.get());
+    }
+
+    public int getActiveCount() {
+        return activeNum.get();
+    }
+
+    public long getSubmittedNum() {
+        return submittedNum.sum();
+    }
+
+    public long getCompletedNum() {
+        return completedNum.sum();
+    }
+
+    public long getCompletedBytes() {
+        return completedBytes.sum();
+    }
+
+    /** 每秒完成的对象数 */
+    public double getObjectsPerSecond() {
+        long elapsed = Math.max(1, System.currentTimeMillis() - createTime);
+        return completedNum.sum() * 1000.0 / elapsed;
+    }
+
+    /** 每秒完成的字节数 */
+    public double getBytesPerSecond() {
+        long elapsed = Math.max(1, System.currentTimeMillis() - createTime);
+        return completedBytes.sum() * 1000.0 / elapsed;
+    }
+
+    /** 单个任务平均耗时，毫秒 */
+    public long getAverageTaskTime() {
+        long completed = completedNum.sum();
+        return completed == 0 ? 0 : busyTime.sum() / completed;
+    }
+
+    @Override
+    public String toString() {
+        return "lane:" + name + " mode:" + (scheduler != null ? "scheduled" : virtual ? "virtual" : "platform") + " workNum:" + workNum + " active:" + getActiveCount()
+                + " queue:" + getQueueSize() + " submitted:" + getSubmittedNum() + " completed:" + getCompletedNum()
+                + " objects/s:" + String.format("%.1f", getObjectsPerSecond())
+                + " MB/s:" + String.format("%.2f", getBytesPerSecond() / 1024 / 1024)
+                + " avgTaskTime:" + getAverageTaskTime() + "ms";
+    }
+
+    /**
+     * 可调整许可数的信号量
+     */
+    private static class ResizableSemaphore extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        ResizableSemaphore(int permits) {
+            super(permits);
+        }
+
+        void resize(int oldPermits, int newPermits) {
+            if (newPermits > oldPermits) {
+                release(newPermits - oldPermits);
+            } else if (newPermits < oldPermits) {
+                reducePermits(oldPermits - newPermits);
+            }
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.rocks.service.oto;
+
+import com.rocks.constant.Constant;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 进程内全局迁移调度器：所有迁移共用一组工作线程，总并发数和同时迁移的总字节数有上限。
+ * 各迁移（uuid）一个队列，按优先级和权重加权公平调度：
+ * 有任务的迁移中优先级高的先执行，同一优先级内按权重分配，每执行一个任务按 代价/权重 增加该迁移的虚拟时间，
+ * 虚拟时间最小的迁移先执行。空闲的迁移不占份额，其份额由其他迁移借用；重新有任务时虚拟时间追平当前值，不累积空闲期间的份额。
+ * 优先级、权重、单个迁移的并发上限和总并发数都可以在运行时调整
+ * @author zhuang
+ */
+public class TransferScheduler {
+    private static final Logger logger = Logger.getLogger("TransferScheduler.class");
+    private static volatile TransferScheduler instance;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition dispatchable = lock.newCondition();
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final AtomicInteger threadIndex = new AtomicInteger();
+    /** 总并发数 */
+    private int workNum;
+    /** 同时迁移的总字节数上限 */
+    private long maxInflightBytes;
+    private int runningNum;
+    private long inflightBytes;
+    /** 最近一次调度的虚拟时间，重新有任务的迁移从这里开始 */
+    private double virtualTime;
+
+    private TransferScheduler(int workNum, long maxInflightBytes) {
+        this.workNum = workNum;
+        this.maxInflightBytes = maxInflightBytes;
+        addWorkers(workNum);
+    }
+
+    /**
+     * 全局调度器，第一次使用时按默认总并发数创建
+     */
+    public static TransferScheduler getInstance() {
+        if (instance == null) {
+            synchronized (TransferScheduler.class) {
+                if (instance == null) {
+                    instance = new TransferScheduler(Constant.GLOBAL_THREAD_SIZE, Constant.GLOBAL_MAX_INFLIGHT_BYTES);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 注册迁移，已注册时更新优先级和权重
+     * @param priority 优先级，越大越先执行
+     * @param weight 同一优先级内的权重，大于 0
+     * @param maxRunning 该迁移同时执行的任务数上限，0 表示不限，可借用其他迁移的空闲份额
+     */
+    public void register(String uuid, int priority, int weight, int maxRunning) {
+        lock.lock();
+        try {
+            Job job = jobs.computeIfAbsent(uuid, Job::new);
+            job.priority = priority;
+            job.weight = Math.max(1, weight);
+            job.maxRunning = Math.max(0, maxRunning);
+            logger.info(uuid + " scheduler register. priority:" + priority + " weight:" + weight + " maxRunning:" + maxRunning);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 注销迁移，队列中未执行的任务丢弃
+     */
+    public void unregister(String uuid) {
+        lock.lock();
+        try {
+            Job job = jobs.remove(uuid);
+            if (job != null && !job.queue.isEmpty()) {
+                logger.warn(uuid + " scheduler unregister with " + job.queue.size() + " queued tasks.");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 提交任务，立即返回，由工作线程按调度顺序执行。排队长度由调用方控制
+     * @param size 对象大小，未知时为 null
+     */
+    public void submit(String uuid, Runnable task, Long size) {
+        lock.lock();
+        try {
+            Job job = jobs.computeIfAbsent(uuid, Job::new);
+            if (job.queue.isEmpty() && job.runningNum == 0) {
+                // 重新有任务，不累积空闲期间的份额
+                job.virtualTime = Math.max(job.virtualTime, virtualTime);
+            }
+            job.queue.add(new Task(task, size == null ? 0 : size));
+            dispatchable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 调整优先级
+     */
+    public void setPriority(String uuid, int priority) {
+        update(uuid, job -> job.priority = priority);
+    }
+
+    /**
+     * 调整权重
+     */
+    public void setWeight(String uuid, int weight) {
+        update(uuid, job -> job.weight = Math.max(1, weight));
+    }
+
+    /**
+     * 调整单个迁移的并发上限，0 表示不限，用于自适应并发控制
+     */
+    public void setMaxRunning(String uuid, int maxRunning) {
+        update(uuid, job -> job.maxRunning = Math.max(0, maxRunning));
+    }
+
+    private void update(String uuid, Consumer<Job> action) {
+        lock.lock();
+        try {
+            Job job = jobs.get(uuid);
+            if (job != null) {
+                action.accept(job);
+                dispatchable.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 调整总并发数，增大时立即增加工作线程，减小时多余的工作线程执行完当前任务后退出
+     */
+    public void setWorkNum(int newWorkNum) {
+        lock.lock();
+        try {
+            int oldWorkNum = workNum;
+            workNum = Math.max(1, newWorkNum);
+            workers.removeIf(thread -> !thread.isAlive());
+            if (workNum > workers.size()) {
+                addWorkers(workNum - workers.size());
+            }
+            dispatchable.signalAll();
+            logger.info("scheduler workNum " + oldWorkNum + " -> " + workNum);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 调整同时迁移的总字节数上限
+     */
+    public void setMaxInflightBytes(long maxInflightBytes) {
+        lock.lock();
+        try {
+            this.maxInflightBytes = maxInflightBytes;
+            dispatchable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void addWorkers(int num) {
+        for (int i = 0; i < num; i++) {
+            Thread thread = new Thread(this::work, "transfer-scheduler-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            workers.add(thread);
+            thread.start();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Task task;
+            Job job;
+            lock.lock();
+            try {
+                while (true) {
+                    if (runningNum >= workNum) {
+                        // 总并发数减小后多余的工作线程退出
+                        return;
+                    }
+                    job = next();
+                    if (job != null) {
+                        break;
+                    }
+                    dispatchable.awaitUninterruptibly();
+                }
+                task = job.queue.poll();
+                job.runningNum++;
+                job.virtualTime += cost(task.size) / job.weight;
+                virtualTime = job.virtualTime;
+                runningNum++;
+                inflightBytes += task.size;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                task.runnable.run();
+            } catch (Throwable e) {
+                logger.error(job.uuid + " scheduler task error.", e);
+            } finally {
+                lock.lock();
+                try {
+                    job.runningNum--;
+                    runningNum--;
+                    inflightBytes -= task.size;
+                    // 工作线程都等价，唤醒一个即可
+                    dispatchable.signal();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * 选出下一个执行的迁移：可执行的迁移中优先级最高、虚拟时间最小的。
+     * 同时迁移的字节数已达上限时只允许在没有任务执行时执行，避免单个超大对象永远不能执行
+     */
+    private Job next() {
+        Job best = null;
+        for (Job job : jobs.values()) {
+            if (job.queue.isEmpty() || (job.maxRunning > 0 && job.runningNum >= job.maxRunning)) {
+                continue;
+            }
+            if (runningNum > 0 && inflightBytes + job.queue.peek().size > maxInflightBytes) {
+                continue;
+            }
+            if (best == null || job.priority > best.priority
+                    || (job.priority == best.priority && job.virtualTime < best.virtualTime)) {
+                best = job;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 任务的调度代价：每个对象计 1，大对象按每 MB 再计 1，使大小对象混合的迁移之间按对象数和字节数都大致公平
+     */
+    private static double cost(long size) {
+        return 1 + size / (1024.0 * 1024);
+    }
+
+    /** 总并发数 */
+    public int getWorkNum() {
+        return workNum;
+    }
+
+    /** 正在执行的任务数 */
+    public int getRunningNum() {
+        lock.lock();
+        try {
+            return runningNum;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            StringBuilder builder = new StringBuilder("scheduler workNum:" + workNum + " running:" + runningNum
+                    + " inflightMB:" + inflightBytes / 1024 / 1024);
+            for (Job job : jobs.values()) {
+                builder.append(" [").append(job.uuid).append(" priority:").append(job.priority).append(" weight:").append(job.weight)
+                        .append(" running:").append(job.runningNum).append(" queue:").append(job.queue.size()).append(']');
+            }
+            return builder.toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 一个迁移的调度状态，由 lock 保护
+     */
+    private static class Job {
+        private final String uuid;
+        private final ArrayDeque<Task> queue = new ArrayDeque<>();
+        private int priority;
+        private int weight = 1;
+        private int maxRunning;
+        private int runningNum;
+        private double virtualTime;
+
+        Job(String uuid) {
+            this.uuid = uuid;
+        }
+    }
+
+    private static class Task {
+        private final Runnable runnable;
+        private final long size;
+
+        Task(Runnable runnable, long size) {
+            this.runnable = runnable;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.rocks.service.oto;
+
+import com.rocks.utils.JobMetrics;
+
+/**
+ * 当前线程上各类请求的累计耗时，用于 JFR 事件的耗时分解。
+ * 只在事件开启时由迁移线程或分段线程开始累计，未开始时 add 不做任何事
+ * @author zhuang
+ */
+final class TransferTimings {
+    private static final ThreadLocal<long[]> CURRENT = new ThreadLocal<>();
+
+    private TransferTimings() {
+    }
+
+    /**
+     * 在当前线程开始累计
+     * @return 按 JobMetrics.Operation 序号索引的耗时，单位纳秒
+     */
+    static long[] start() {
+        long[] timings = new long[JobMetrics.Operation.values().length];
+        CURRENT.set(timings);
+        return timings;
+    }
+
+    static void stop() {
+        CURRENT.remove();
+    }
+
+    /**
+     * 由对象服务在每次请求结束时调用
+     */
+    static void add(JobMetrics.Operation operation, long nanos) {
+        long[] timings = CURRENT.get();
+        if (timings != null) {
+            timings[operation.ordinal()] += nanos;
+        }
+    }
+}
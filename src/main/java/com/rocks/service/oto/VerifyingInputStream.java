@@ -0,0 +1,67 @@
+package com.rocks.service.oto;
+
+import com.rocks.utils.ChecksumInputStream;
+
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * 普通迁移的源端数据流，上传结束后与源端的大小、MD5（ETag）或 CRC64 对比
+ * @author zhuang
+ */
+class VerifyingInputStream extends ChecksumInputStream {
+    private final long expectedLength;
+    private final String expectedMd5;
+    private final Long expectedCrc64;
+
+    /**
+     * @param expectedMd5 小写十六进制 MD5，不校验时为 null
+     * @param expectedCrc64 不校验时为 null
+     */
+    VerifyingInputStream(InputStream in, long expectedLength, String expectedMd5, Long expectedCrc64) {
+        super(in, expectedMd5 != null, expectedCrc64 != null);
+        this.expectedLength = expectedLength;
+        this.expectedMd5 = expectedMd5;
+        this.expectedCrc64 = expectedCrc64;
+    }
+
+    /**
+     * @param key 对象名，用于错误信息
+     * @throws ChecksumMismatchException 大小或校验值不一致
+     */
+    void verify(String key) {
+        if (getBytesRead() != expectedLength) {
+            throw new ChecksumMismatchException("checksum mismatch, length. key:" + key
+                    + " expected:" + expectedLength + " actual:" + getBytesRead());
+        }
+        if (expectedMd5 != null && !expectedMd5.equals(getMd5Hex())) {
+            throw new ChecksumMismatchException("checksum mismatch, md5. key:" + key
+                    + " expected:" + expectedMd5 + " actual:" + getMd5Hex());
+        }
+        if (expectedCrc64 != null && !expectedCrc64.equals(getCrc64())) {
+            throw new ChecksumMismatchException("checksum mismatch, crc64. key:" + key
+                    + " expected:" + Long.toUnsignedString(expectedCrc64) + " actual:" + Long.toUnsignedString(getCrc64()));
+        }
+    }
+
+    /**
+     * ETag 规范化为小写十六进制 MD5
+     * @return 不是 32 位十六进制（如分段上传的 ETag 带 -N）时为 null
+     */
+    static String toMd5(String etag) {
+        if (etag == null) {
+            return null;
+        }
+        String md5 = etag.replace("\"", "").toLowerCase(Locale.ROOT);
+        if (md5.length() != 32) {
+            return null;
+        }
+        for (int i = 0; i < md5.length(); i++) {
+            char c = md5.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return null;
+            }
+        }
+        return md5;
+    }
+}
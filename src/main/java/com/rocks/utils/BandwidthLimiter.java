@@ -0,0 +1,190 @@
+package com.rocks.utils;
+
+import org.apache.log4j.Logger;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 带宽限制：令牌桶，按到达时间计算（GCRA），只有一个 AtomicLong，没有定时补充令牌的线程。
+ * 速率可在运行时调整，也可按时段设置（如白天限速、夜间不限速），时段每秒检查一次。
+ * 进程内一个全局限制，每个迁移可再有自己的限制，迁移的数据流同时受两者限制
+ * @author zhuang
+ */
+public class BandwidthLimiter {
+    private static final Logger logger = Logger.getLogger("BandwidthLimiter.class");
+    private static final BandwidthLimiter GLOBAL = new BandwidthLimiter("global", 0);
+    /** 允许的突发时长：空闲后最多可以立即发送这段时间的数据量 */
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long SCHEDULE_CHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final String name;
+    /** 手动设置的速率，字节/秒，0 表示不限 */
+    private volatile long baseRate;
+    /** 当前生效的速率，字节/秒，0 表示不限 */
+    private volatile long rate;
+    private volatile List<Window> schedule = Collections.emptyList();
+    private volatile long nextScheduleCheck;
+    /** 理论上下一个字节可以发送的时间 */
+    private final AtomicLong theoreticalArrival = new AtomicLong(System.nanoTime());
+
+    /**
+     * @param bytesPerSecond 速率，0 表示不限
+     */
+    public BandwidthLimiter(String name, long bytesPerSecond) {
+        this.name = name;
+        this.baseRate = Math.max(0, bytesPerSecond);
+        this.rate = this.baseRate;
+    }
+
+    /** 进程内全局限制 */
+    public static BandwidthLimiter global() {
+        return GLOBAL;
+    }
+
+    /**
+     * 获取 bytes 字节的发送许可，超出速率时阻塞
+     */
+    public void acquire(long bytes) throws InterruptedException {
+        if (!schedule.isEmpty()) {
+            checkSchedule();
+        }
+        long currentRate = rate;
+        if (currentRate <= 0 || bytes <= 0) {
+            return;
+        }
+        long cost = (long) (bytes * 1e9 / currentRate);
+        long now = System.nanoTime();
+        long arrival;
+        while (true) {
+            long prev = theoreticalArrival.get();
+            // 空闲期间不累积超过突发时长的许可
+            arrival = Math.max(prev, now - BURST_NANOS) + cost;
+            if (theoreticalArrival.compareAndSet(prev, arrival)) {
+                break;
+            }
+        }
+        long wait = arrival - now - BURST_NANOS;
+        while (wait > 0) {
+            LockSupport.parkNanos(this, wait);
+            if (Thread.interrupted()) {
+                throw new InterruptedException(name + " bandwidth limiter interrupted");
+            }
+            wait = arrival - System.nanoTime() - BURST_NANOS;
+        }
+    }
+
+    /**
+     * 调整速率，没有设置时段或不在任何时段内时使用
+     * @param bytesPerSecond 速率，0 表示不限
+     */
+    public void setRate(long bytesPerSecond) {
+        baseRate = Math.max(0, bytesPerSecond);
+        nextScheduleCheck = 0;
+        if (schedule.isEmpty()) {
+            updateRate(baseRate);
+        } else {
+            checkSchedule();
+        }
+    }
+
+    /**
+     * 设置按时段的速率
+     * @param spec 时段列表，如 "09:00-18:00=100,18:00-09:00=0"，速率单位 MB/s，0 表示不限；为空时取消时段
+     */
+    public void setSchedule(String spec) {
+        schedule = parseSchedule(spec);
+        nextScheduleCheck = 0;
+        if (schedule.isEmpty()) {
+            updateRate(baseRate);
+        } else {
+            checkSchedule();
+        }
+    }
+
+    private void checkSchedule() {
+        long now = System.nanoTime();
+        long next = nextScheduleCheck;
+        if (next != 0 && now - next < 0) {
+            return;
+        }
+        nextScheduleCheck = now + SCHEDULE_CHECK_NANOS;
+        LocalTime time = LocalTime.now();
+        long scheduled = baseRate;
+        for (Window window : schedule) {
+            if (window.contains(time)) {
+                scheduled = window.bytesPerSecond;
+                break;
+            }
+        }
+        updateRate(scheduled);
+    }
+
+    private void updateRate(long newRate) {
+        if (newRate != rate) {
+            logger.info(name + " bandwidth limit " + toMB(rate) + " -> " + toMB(newRate));
+            rate = newRate;
+            // 新速率立即生效，不受旧速率下已排队许可的影响
+            theoreticalArrival.set(System.nanoTime());
+        }
+    }
+
+    private static String toMB(long bytesPerSecond) {
+        return bytesPerSecond <= 0 ? "unlimited" : bytesPerSecond / 1024 / 1024 + "MB/s";
+    }
+
+    /**
+     * 解析时段列表，格式见 setSchedule
+     */
+    static List<Window> parseSchedule(String spec) {
+        if (spec == null || spec.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Window> windows = new ArrayList<>();
+        for (String item : spec.split(",")) {
+            String[] rangeAndRate = item.trim().split("=");
+            String[] range = rangeAndRate.length == 2 ? rangeAndRate[0].split("-") : new String[0];
+            if (range.length != 2) {
+                throw new IllegalArgumentException("bandwidth schedule format error: " + item);
+            }
+            windows.add(new Window(LocalTime.parse(range[0].trim()), LocalTime.parse(range[1].trim()),
+                    Long.parseLong(rangeAndRate[1].trim()) * 1024 * 1024));
+        }
+        return windows;
+    }
+
+    /** 当前生效的速率，字节/秒，0 表示不限 */
+    public long getRate() {
+        if (!schedule.isEmpty()) {
+            checkSchedule();
+        }
+        return rate;
+    }
+
+    /**
+     * 一个时段，结束时间早于开始时间表示跨过零点
+     */
+    static class Window {
+        private final LocalTime start;
+        private final LocalTime end;
+        private final long bytesPerSecond;
+
+        Window(LocalTime start, LocalTime end, long bytesPerSecond) {
+            this.start = start;
+            this.end = end;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        boolean contains(LocalTime time) {
+            if (start.isBefore(end)) {
+                return !time.isBefore(start) && time.isBefore(end);
+            }
+            return !time.isBefore(start) || time.isBefore(end);
+        }
+    }
+}
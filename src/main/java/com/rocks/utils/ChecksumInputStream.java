@@ -0,0 +1,132 @@
+package com.rocks.utils;
+
+import com.aliyun.oss.common.utils.CRC64;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 边读边计算 MD5 和 CRC64（与 OSS 的 x-oss-hash-crc64ecma 相同）的输入流。
+ * 校验值直接从调用方读入的缓冲区计算，不复制数据；不支持 mark/reset，保证每个字节只计算一次
+ * @author zhuang
+ */
+public class ChecksumInputStream extends FilterInputStream {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final MessageDigest md5;
+    private final CRC64 crc64;
+    private long bytesRead;
+    private String md5Hex;
+
+    /**
+     * @param md5 是否计算 MD5
+     * @param crc64 是否计算 CRC64
+     */
+    public ChecksumInputStream(InputStream in, boolean md5, boolean crc64) {
+        super(in);
+        this.md5 = md5 ? newMd5() : null;
+        this.crc64 = crc64 ? new CRC64() : null;
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            bytesRead++;
+            if (md5 != null) {
+                md5.update((byte) b);
+            }
+            if (crc64 != null) {
+                crc64.update(b);
+            }
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            bytesRead += n;
+            if (md5 != null) {
+                md5.update(b, off, n);
+            }
+            if (crc64 != null) {
+                crc64.update(b, off, n);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * 跳过的字节没有经过校验，按读取处理以免遗漏
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (read < 0) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * 已读数据的 MD5，小写十六进制。读完后调用，调用后不再计入新读取的数据
+     * @return 未计算 MD5 时为 null
+     */
+    public String getMd5Hex() {
+        if (md5 == null || md5Hex != null) {
+            return md5Hex;
+        }
+        byte[] digest = md5.digest();
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+        }
+        md5Hex = new String(hex);
+        return md5Hex;
+    }
+
+    /**
+     * 已读数据的 CRC64
+     * @return 未计算 CRC64 时为 null
+     */
+    public Long getCrc64() {
+        return crc64 == null ? null : crc64.getValue();
+    }
+}
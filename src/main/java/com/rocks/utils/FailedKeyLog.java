@@ -0,0 +1,226 @@
+package com.rocks.utils;
+
+import lombok.Getter;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 迁移失败的对象日志：每个 uuid 一个只追加的文件，记录对象名、失败类型（ErrorType）和已尝试次数。
+ * 重试时先将日志轮转为 .retrying 文件，再按批流式读取重试，重试中再次失败的对象写入新的日志，
+ * 因此无论失败多少对象都不需要一次性加载到内存
+ * @author zhuang
+ */
+public class FailedKeyLog {
+    private static final Logger logger = Logger.getLogger("FailedKeyLog.class");
+    private static final String SUFFIX = ".failed";
+    private static final String RETRYING_SUFFIX = ".retrying";
+    private static final int MERGE_BATCH_SIZE = 1000;
+
+    private final String uuid;
+    private final File file;
+    private final File retryingFile;
+    /** 写文件的锁 */
+    private final ReentrantLock lock = new ReentrantLock();
+    private DataOutputStream out;
+
+    private FailedKeyLog(String uuid, File dir) {
+        this.uuid = uuid;
+        this.file = new File(dir, uuid + SUFFIX);
+        this.retryingFile = new File(dir, uuid + SUFFIX + RETRYING_SUFFIX);
+    }
+
+    /**
+     * 打开 uuid 的失败日志，已存在则追加
+     * @param uuid 事件标识
+     * @param dir 日志目录
+     */
+    public static FailedKeyLog open(String uuid, String dir) throws IOException {
+        File logDir = new File(dir);
+        if (!logDir.exists() && !logDir.mkdirs()) {
+            throw new IOException("create failed log dir failed: " + logDir.getAbsolutePath());
+        }
+        FailedKeyLog log = new FailedKeyLog(uuid, logDir);
+        log.out = log.newWriter();
+        return log;
+    }
+
+    private DataOutputStream newWriter() throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    /**
+     * 记录迁移失败的对象
+     * @param errorType 失败类型
+     * @param attempts 已尝试次数
+     */
+    public void add(String key, int errorType, int attempts) {
+        lock.lock();
+        try {
+            if (out == null) {
+                return;
+            }
+            write(out, key, errorType, attempts);
+            out.flush();
+        } catch (IOException e) {
+            logger.error(uuid + " failed log add error. key:" + key + " file:" + file.getAbsolutePath(), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void write(DataOutputStream out, String key, int errorType, int attempts) throws IOException {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+        out.writeInt(errorType);
+        out.writeInt(attempts);
+    }
+
+    /**
+     * 开始重试：将当前日志轮转为 .retrying 文件，之后的失败写入新的日志。
+     * 上次重试中断留下的 .retrying 文件仍是完整的待重试列表，当前日志中的记录追加到其后一起重试
+     * @return 待重试的文件，没有失败对象时为 null
+     */
+    public File rotate() throws IOException {
+        lock.lock();
+        try {
+            return doRotate();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private File doRotate() throws IOException {
+        out.close();
+        if (retryingFile.exists()) {
+            logger.info(uuid + " failed log resume interrupted retry. file:" + retryingFile.getAbsolutePath());
+            if (file.exists() && file.length() > 0) {
+                merge();
+            } else if (file.exists() && !file.delete()) {
+                throw new IOException("delete failed log failed: " + file.getAbsolutePath());
+            }
+        } else if (file.exists() && file.length() > 0) {
+            if (!file.renameTo(retryingFile)) {
+                throw new IOException("rotate failed log failed: " + file.getAbsolutePath());
+            }
+        }
+        out = newWriter();
+        return retryingFile.exists() ? retryingFile : null;
+    }
+
+    /**
+     * 将 .retrying 和当前日志的完整记录写入临时文件再替换 .retrying，
+     * 掉线时 .retrying 末尾可能有写了一半的记录，不能直接在其后追加
+     */
+    private void merge() throws IOException {
+        File merging = new File(retryingFile.getPath() + ".tmp");
+        try (DataOutputStream merged = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(merging)))) {
+            IOException[] error = new IOException[1];
+            Consumer<List<FailedKey>> copy = batch -> {
+                try {
+                    for (FailedKey failedKey : batch) {
+                        write(merged, failedKey.getKey(), failedKey.getErrorType(), failedKey.getAttempts());
+                    }
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            };
+            readBatches(retryingFile, MERGE_BATCH_SIZE, copy);
+            readBatches(file, MERGE_BATCH_SIZE, copy);
+            if (error[0] != null) {
+                throw error[0];
+            }
+        }
+        Files.move(merging.toPath(), retryingFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        if (!file.delete()) {
+            throw new IOException("delete failed log failed: " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * 按批流式读取日志
+     * @param batchSize 每批数量
+     * @param consumer 每批的处理
+     * @return 读取的总数
+     */
+    public static long readBatches(File file, int batchSize, Consumer<List<FailedKey>> consumer) throws IOException {
+        long total = 0;
+        List<FailedKey> batch = new ArrayList<>(batchSize);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                FailedKey failedKey;
+                try {
+                    byte[] bytes = new byte[in.readUnsignedShort()];
+                    in.readFully(bytes);
+                    failedKey = new FailedKey(new String(bytes, StandardCharsets.UTF_8), in.readInt(), in.readInt());
+                } catch (EOFException e) {
+                    // 文件结束，或掉线时写了一半的记录
+                    break;
+                }
+                batch.add(failedKey);
+                total++;
+                if (batch.size() >= batchSize) {
+                    consumer.accept(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            consumer.accept(batch);
+        }
+        return total;
+    }
+
+    /**
+     * 关闭日志
+     * @param retryFinished 重试是否正常结束，正常结束时删除 .retrying 文件
+     */
+    public void close(boolean retryFinished) {
+        lock.lock();
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        } catch (IOException e) {
+            logger.error(uuid + " failed log close error. file:" + file.getAbsolutePath(), e);
+        } finally {
+            lock.unlock();
+        }
+        if (retryFinished && retryingFile.exists() && !retryingFile.delete()) {
+            logger.warn(uuid + " failed log delete retrying file failed. file:" + retryingFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * 失败对象
+     */
+    @Getter
+    public static class FailedKey {
+        private final String key;
+        private final int errorType;
+        private final int attempts;
+
+        public FailedKey(String key, int errorType, int attempts) {
+            this.key = key;
+            this.errorType = errorType;
+            this.attempts = attempts;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.rocks.utils;
+
+import com.rocks.constant.Constant;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 迁移的成功/失败计数。迁移开始时创建，迁移线程直接持有 JobCounters 计数，不再按 uuid 和字符串键查找。
+ * CountMapCache 的 "s"、"f" 由后台线程定期从这里同步，迁移结束时同步最终值后移除
+ * @author zhuang
+ */
+public class JobCounterCache {
+    private static final ConcurrentHashMap<String, JobCounters> CACHE = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService publisher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "job-counter-publisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        publisher.scheduleWithFixedDelay(JobCounterCache::publishAll, Constant.COUNT_PUBLISH_INTERVAL, Constant.COUNT_PUBLISH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 开始计数，起始值为 CountMapCache 中已有的计数，断点恢复时接着之前的计数
+     * @param uuid 事件标识
+     */
+    public static JobCounters start(String uuid) {
+        // 同一 uuid 重新开始时先同步原有计数，再以此为起始值
+        removeCache(uuid);
+        JobCounters counters = new JobCounters(uuid, CountMapCache.getSuccessSize(uuid), CountMapCache.getFailedSize(uuid));
+        CACHE.put(uuid, counters);
+        return counters;
+    }
+
+    public static JobCounters get(String uuid) {
+        return CACHE.get(uuid);
+    }
+
+    /** 迁移成功的对象数，迁移未在进行时读取 CountMapCache */
+    public static int getSuccessSize(String uuid) {
+        JobCounters counters = CACHE.get(uuid);
+        return counters == null ? CountMapCache.getSuccessSize(uuid) : counters.getSuccessSize();
+    }
+
+    /** 迁移失败的对象数，迁移未在进行时读取 CountMapCache */
+    public static int getFailedSize(String uuid) {
+        JobCounters counters = CACHE.get(uuid);
+        return counters == null ? CountMapCache.getFailedSize(uuid) : counters.getFailedSize();
+    }
+
+    /**
+     * 同步最终计数到 CountMapCache 后移除
+     */
+    public static void removeCache(String uuid) {
+        JobCounters counters = CACHE.remove(uuid);
+        if (counters != null) {
+            counters.publish();
+        }
+    }
+
+    private static void publishAll() {
+        for (JobCounters counters : CACHE.values()) {
+            counters.publish();
+        }
+    }
+
+    /**
+     * 单个迁移的计数，各迁移线程并发累加
+     */
+    public static class JobCounters {
+        private final String uuid;
+        private final int baseSuccess;
+        private final int baseFailed;
+        private final LongAdder success = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        /** 已同步到 CountMapCache 的数量，只在 publish 中读写 */
+        private long publishedSuccess;
+        private long publishedFailed;
+
+        JobCounters(String uuid, int baseSuccess, int baseFailed) {
+            this.uuid = uuid;
+            this.baseSuccess = baseSuccess;
+            this.baseFailed = baseFailed;
+        }
+
+        /** 一个对象迁移成功 */
+        public void succeeded() {
+            success.increment();
+        }
+
+        /** 一个对象迁移失败 */
+        public void failed() {
+            failed.increment();
+        }
+
+        public int getSuccessSize() {
+            return baseSuccess + (int) success.sum();
+        }
+
+        public int getFailedSize() {
+            return baseFailed + (int) failed.sum();
+        }
+
+        /**
+         * 把上次同步之后的计数补到 CountMapCache
+         */
+        synchronized void publish() {
+            long successNum = success.sum();
+            for (; publishedSuccess < successNum; publishedSuccess++) {
+                CountMapCache.countNum(uuid, "s");
+            }
+            long failedNum = failed.sum();
+            for (; publishedFailed < failedNum; publishedFailed++) {
+                CountMapCache.countNum(uuid, "f");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "success:" + getSuccessSize() + " failed:" + getFailedSize();
+        }
+    }
+}
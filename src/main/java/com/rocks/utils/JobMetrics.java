@@ -0,0 +1,196 @@
+package com.rocks.utils;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 单个迁移的指标：迁移的字节数和对象数、正在迁移的对象数、排队数，以及各类请求的耗时直方图。
+ * 通过 MetricsCache 按 uuid 获取，JMX 和 Prometheus 接口读取同一份数据
+ * @author zhuang
+ */
+public class JobMetrics implements JobMetricsMXBean {
+    /**
+     * 计时的请求类型
+     */
+    public enum Operation {
+        /** 列举一页 */
+        LIST("list"),
+        /** HEAD 获取对象大小 */
+        HEAD("head"),
+        /** GET 到收到响应头，即首字节时间 */
+        GET("get"),
+        /** 普通上传，包括从源端读取数据的时间 */
+        PUT("put"),
+        /** 分段上传一个分段，包括从源端读取数据的时间 */
+        UPLOAD_PART("upload_part"),
+        /** 服务端复制对象或分段 */
+        COPY("copy");
+
+        private final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private final String uuid;
+    private final long startTime = System.currentTimeMillis();
+    private final LongAdder bytesTransferred = new LongAdder();
+    private final LongAdder objectsTransferred = new LongAdder();
+    private final LongAdder objectsFailed = new LongAdder();
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private volatile LongSupplier inFlightSupplier = () -> 0;
+    private volatile LongSupplier queueDepthSupplier = () -> 0;
+
+    JobMetrics(String uuid) {
+        this.uuid = uuid;
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * 一个对象迁移成功
+     * @param bytes 对象大小，未知时为 null
+     */
+    public void transferred(Long bytes) {
+        objectsTransferred.increment();
+        if (bytes != null) {
+            bytesTransferred.add(bytes);
+        }
+    }
+
+    /** 一个对象迁移失败 */
+    public void failed() {
+        objectsFailed.increment();
+    }
+
+    /**
+     * 记录一次请求从 beginNanos（System.nanoTime()）到现在的耗时
+     */
+    public void record(Operation operation, long beginNanos) {
+        latencies.get(operation).recordSince(beginNanos);
+    }
+
+    public LatencyHistogram getLatency(Operation operation) {
+        return latencies.get(operation);
+    }
+
+    /** 正在迁移的对象数的来源，如 JobTracker */
+    public void setInFlightSupplier(LongSupplier inFlightSupplier) {
+        this.inFlightSupplier = inFlightSupplier;
+    }
+
+    /** 通道排队数的来源 */
+    public void setQueueDepthSupplier(LongSupplier queueDepthSupplier) {
+        this.queueDepthSupplier = queueDepthSupplier;
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    @Override
+    public long getStartTime() {
+        return startTime;
+    }
+
+    @Override
+    public long getBytesTransferred() {
+        return bytesTransferred.sum();
+    }
+
+    @Override
+    public long getObjectsTransferred() {
+        return objectsTransferred.sum();
+    }
+
+    @Override
+    public long getObjectsFailed() {
+        return objectsFailed.sum();
+    }
+
+    @Override
+    public long getInFlight() {
+        return inFlightSupplier.getAsLong();
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return queueDepthSupplier.getAsLong();
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getLatencies() {
+        Map<String, LatencySnapshot> snapshots = new LinkedHashMap<>();
+        for (Map.Entry<Operation, LatencyHistogram> entry : latencies.entrySet()) {
+            snapshots.put(entry.getKey().getLabel(), new LatencySnapshot(entry.getValue()));
+        }
+        return snapshots;
+    }
+
+    @Override
+    public String toString() {
+        return uuid + " metrics bytes:" + getBytesTransferred() + " objects:" + getObjectsTransferred() + " failed:" + getObjectsFailed()
+                + " inFlight:" + getInFlight() + " queued:" + getQueueDepth();
+    }
+
+    /**
+     * 某类请求耗时的快照，单位微秒
+     */
+    public static class LatencySnapshot {
+        private final long count;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long p999;
+        private final long max;
+        private final long total;
+
+        LatencySnapshot(LatencyHistogram histogram) {
+            long[] values = histogram.getPercentilesMicros(50, 90, 99, 99.9);
+            this.count = histogram.getCount();
+            this.p50 = values[0];
+            this.p90 = values[1];
+            this.p99 = values[2];
+            this.p999 = values[3];
+            this.max = histogram.getMaxMicros();
+            this.total = histogram.getTotalMicros();
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP90() {
+            return p90;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        public long getP999() {
+            return p999;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.rocks.utils;
+
+import java.util.Map;
+
+/**
+ * 迁移指标的 JMX 接口，ObjectName 为 com.rocks:type=Migration,uuid=&lt;uuid&gt;
+ * @author zhuang
+ */
+public interface JobMetricsMXBean {
+    /** 迁移开始时间，毫秒 */
+    long getStartTime();
+
+    /** 迁移成功的字节数 */
+    long getBytesTransferred();
+
+    /** 迁移成功的对象数 */
+    long getObjectsTransferred();
+
+    /** 迁移失败的对象数 */
+    long getObjectsFailed();
+
+    /** 正在迁移的对象数 */
+    long getInFlight();
+
+    /** 通道中排队等待执行的对象数 */
+    long getQueueDepth();
+
+    /** 各类请求的耗时，键为 list/head/get/put/upload_part/copy，单位微秒 */
+    Map<String, JobMetrics.LatencySnapshot> getLatencies();
+}
@@ -0,0 +1,131 @@
+package com.rocks.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 耗时直方图，按 HdrHistogram 的对数-线性分桶：每个 2 的幂区间再均分为 64 个桶，相对误差不超过 1/64，
+ * 记录为一次数组自增，不加锁、不分配对象。单位微秒，范围 0 ~ 2^36 微秒（约 19 小时），超出的按上限记录
+ * @author zhuang
+ */
+public class LatencyHistogram {
+    /** 每个区间的桶数为 2^SUB_BUCKET_BITS，小于该值的耗时精确记录 */
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+    private static final long MAX_VALUE = (1L << 36) - 1;
+    private static final int BUCKET_COUNT = indexOf(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * 记录一次耗时
+     * @param micros 微秒
+     */
+    public void record(long micros) {
+        long value = Math.min(MAX_VALUE, Math.max(0, micros));
+        counts.incrementAndGet(indexOf(value));
+        totalCount.increment();
+        totalMicros.add(value);
+        if (value > maxMicros.get()) {
+            maxMicros.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    /**
+     * 记录从 beginNanos（System.nanoTime()）到现在的耗时
+     */
+    public void recordSince(long beginNanos) {
+        record((System.nanoTime() - beginNanos) / 1000);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // 右移 shift 位后落在 [SUB_BUCKET_HALF, SUB_BUCKET_COUNT)
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (int) ((value >> shift) - SUB_BUCKET_HALF);
+    }
+
+    /**
+     * 桶内的最大值，百分位按该值报告，不会低估
+     */
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    public long getTotalMicros() {
+        return totalMicros.sum();
+    }
+
+    public long getMaxMicros() {
+        return maxMicros.get();
+    }
+
+    /**
+     * 百分位耗时，不超过最大值
+     * @param percentile 0 ~ 100，如 99.9
+     * @return 微秒，没有记录时为 0
+     */
+    public long getPercentileMicros(double percentile) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        return percentileOf(snapshot, total, percentile);
+    }
+
+    /**
+     * 一次读取多个百分位，各百分位来自同一快照
+     */
+    public long[] getPercentilesMicros(double... percentiles) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        long[] values = new long[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            values[i] = percentileOf(snapshot, total, percentiles[i]);
+        }
+        return values;
+    }
+
+    private long percentileOf(long[] snapshot, long total, double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    @Override
+    public String toString() {
+        long[] values = getPercentilesMicros(50, 99);
+        return "count:" + getCount() + " p50:" + values[0] + "us p99:" + values[1] + "us max:" + getMaxMicros() + "us";
+    }
+}
@@ -0,0 +1,78 @@
+package com.rocks.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 迁移的列举进度：迁移过程中边列举边累计的对象总数，以及列举是否结束。
+ * 列举结束后最终总数同时写入 CountMapCache 的 "t"
+ * @author zhuang
+ */
+public class ListProgressCache {
+    private static final ConcurrentHashMap<String, ListProgress> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * 开始记录列举进度
+     * @param uuid 事件标识
+     * @param baseNum 起始数量，断点恢复时为之前已迁移结束的数量
+     */
+    public static ListProgress start(String uuid, long baseNum) {
+        ListProgress progress = new ListProgress(baseNum);
+        CACHE.put(uuid, progress);
+        return progress;
+    }
+
+    public static ListProgress get(String uuid) {
+        return CACHE.get(uuid);
+    }
+
+    /** 当前已列举的对象总数，列举结束后即为最终总数 */
+    public static long getListedNum(String uuid) {
+        ListProgress progress = CACHE.get(uuid);
+        return progress == null ? 0 : progress.getListedNum();
+    }
+
+    /** 列举是否结束 */
+    public static boolean isListEnd(String uuid) {
+        ListProgress progress = CACHE.get(uuid);
+        return progress != null && progress.isListEnd();
+    }
+
+    public static void removeCache(String uuid) {
+        CACHE.remove(uuid);
+    }
+
+    /**
+     * 单个迁移的列举进度
+     */
+    public static class ListProgress {
+        private final LongAdder listedNum = new LongAdder();
+        private volatile boolean listEnd = false;
+
+        ListProgress(long baseNum) {
+            listedNum.add(baseNum);
+        }
+
+        /** 列举出一个待迁移对象 */
+        public void increment() {
+            listedNum.increment();
+        }
+
+        public long getListedNum() {
+            return listedNum.sum();
+        }
+
+        public boolean isListEnd() {
+            return listEnd;
+        }
+
+        /**
+         * 列举结束
+         * @return 最终总数
+         */
+        public long finish() {
+            listEnd = true;
+            return listedNum.sum();
+        }
+    }
+}
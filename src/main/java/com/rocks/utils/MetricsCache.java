@@ -0,0 +1,67 @@
+package com.rocks.utils;
+
+import org.apache.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 各迁移的指标，迁移开始时创建并注册到 JMX，迁移结束时移除
+ * @author zhuang
+ */
+public class MetricsCache {
+    private static final Logger logger = Logger.getLogger("MetricsCache.class");
+    private static final ConcurrentHashMap<String, JobMetrics> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * 开始记录迁移指标，同一 uuid 重新开始时替换原有指标
+     * @param uuid 事件标识
+     */
+    public static JobMetrics start(String uuid) {
+        JobMetrics metrics = new JobMetrics(uuid);
+        JobMetrics previous = CACHE.put(uuid, metrics);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = objectName(uuid);
+            if (previous != null && server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(metrics, name);
+        } catch (JMException e) {
+            logger.warn(uuid + " register metrics mbean failed.", e);
+        }
+        return metrics;
+    }
+
+    public static JobMetrics get(String uuid) {
+        return CACHE.get(uuid);
+    }
+
+    /** 所有正在进行的迁移的指标 */
+    public static Collection<JobMetrics> getAll() {
+        return CACHE.values();
+    }
+
+    public static void removeCache(String uuid) {
+        if (CACHE.remove(uuid) == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = objectName(uuid);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            logger.warn(uuid + " unregister metrics mbean failed.", e);
+        }
+    }
+
+    private static ObjectName objectName(String uuid) throws JMException {
+        return new ObjectName("com.rocks:type=Migration,uuid=" + ObjectName.quote(uuid));
+    }
+}
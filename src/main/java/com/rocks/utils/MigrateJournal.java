@@ -0,0 +1,507 @@
+package com.rocks.utils;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * 迁移日志：每个 uuid 一组只追加的内存映射段文件（uuid.序号.journal），记录迁移结束（成功/失败）的对象、
+ * 各分片的断点 marker 和按目录列举时各目录的断点。
+ * 掉线重启时按序号回放，已结束的对象直接跳过，不需要 HEAD 目的端；迁移正常结束后删除。
+ * 段文件写满时换下一个段，并去掉内存中已被断点覆盖的对象；段数达到上限时把存活状态压缩到新的段，
+ * 存活状态本身超过上限的一半时停止记录（已记录的仍可用于恢复），日志大小和内存都不会无限增长
+ * @author zhuang
+ */
+public class MigrateJournal {
+    private static final Logger logger = Logger.getLogger("MigrateJournal.class");
+    private static final int MAGIC = 0x4D4A4E4C;
+    private static final int HEADER_SIZE = 4;
+    private static final byte COMPLETED = 'S';
+    private static final byte FAILED = 'F';
+    private static final byte MARKER = 'M';
+    private static final byte PREFIX_MARKER = 'P';
+    private static final String SUFFIX = ".journal";
+    /** 单个段文件的大小 */
+    private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+    /** 段文件数上限，日志最大为 SEGMENT_SIZE * MAX_SEGMENTS */
+    private static final int MAX_SEGMENTS = 16;
+
+    private final String uuid;
+    private final File dir;
+    private final int segmentSize;
+    private final int maxSegments;
+    /** 按序号排列的段文件，最后一个为正在写的段 */
+    private final List<Integer> segments = new ArrayList<>();
+    /** 正在写的段，停止记录或关闭后为 null */
+    private Segment active;
+    /** 写文件的锁 */
+    private final ReentrantLock lock = new ReentrantLock();
+    /** 结束且未被断点覆盖的对象，值为失败类型，成功为 -1 */
+    private final ConcurrentHashMap<String, Integer> finished = new ConcurrentHashMap<>();
+    /** 平铺列举各分片的断点 */
+    private final ConcurrentHashMap<Integer, String> markers = new ConcurrentHashMap<>();
+    /** 按目录列举时各目录的断点：该目录中不大于断点的对象都已迁移结束 */
+    private final ConcurrentHashMap<String, String> prefixMarkers = new ConcurrentHashMap<>();
+    /** 已被断点覆盖的对象，换段和压缩时从内存中去掉 */
+    private volatile Predicate<String> covered = key -> false;
+
+    private MigrateJournal(String uuid, File dir, int segmentSize, int maxSegments) {
+        this.uuid = uuid;
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxSegments = Math.max(2, maxSegments);
+    }
+
+    /**
+     * 打开 uuid 的日志，已存在则回放
+     * @param uuid 事件标识
+     * @param dir 日志目录
+     */
+    public static MigrateJournal open(String uuid, String dir) throws IOException {
+        return open(uuid, dir, SEGMENT_SIZE, MAX_SEGMENTS);
+    }
+
+    /**
+     * 打开 uuid 的日志，已存在则回放
+     * @param segmentSize 单个段文件的大小
+     * @param maxSegments 段文件数上限
+     */
+    public static MigrateJournal open(String uuid, String dir, int segmentSize, int maxSegments) throws IOException {
+        File journalDir = new File(dir);
+        if (!journalDir.exists() && !journalDir.mkdirs()) {
+            throw new IOException("create journal dir failed: " + journalDir.getAbsolutePath());
+        }
+        MigrateJournal journal = new MigrateJournal(uuid, journalDir, segmentSize, maxSegments);
+        try {
+            journal.segments.addAll(journal.listSegments());
+            if (journal.segments.isEmpty()) {
+                journal.active = journal.createSegment(0);
+            } else {
+                journal.replay();
+                logger.info(uuid + " journal replayed. segments:" + journal.segments.size() + " finished:" + journal.finished.size()
+                        + " markers:" + journal.markers.size() + " prefixMarkers:" + journal.prefixMarkers.size());
+            }
+        } catch (RuntimeException e) {
+            // 如映射大小超过 Integer.MAX_VALUE
+            journal.closeActive();
+            throw new IOException("open journal failed: " + journalDir.getAbsolutePath(), e);
+        }
+        return journal;
+    }
+
+    /** 对象是否已迁移结束（成功或失败） */
+    public boolean isFinished(String key) {
+        return finished.containsKey(key);
+    }
+
+    /** 回放得到的分片断点，没有则为 null */
+    public String getMarker(int shard) {
+        return markers.get(shard);
+    }
+
+    /** 目录的断点，没有则为 null */
+    public String getPrefixMarker(String prefix) {
+        return prefixMarkers.get(prefix);
+    }
+
+    /** 内存中保留的已结束对象数 */
+    public int getFinishedSize() {
+        return finished.size();
+    }
+
+    /**
+     * 设置断点覆盖的判断，被断点覆盖的对象不再保留
+     */
+    public void setCovered(Predicate<String> covered) {
+        this.covered = covered;
+    }
+
+    /** 记录迁移成功的对象 */
+    public void completed(String key) {
+        append(COMPLETED, -1, key, null);
+    }
+
+    /** 记录迁移失败的对象 */
+    public void failed(String key, int errorType) {
+        append(FAILED, errorType, key, null);
+    }
+
+    /** 记录分片的断点，并刷盘 */
+    public void marker(int shard, String marker) {
+        if (marker == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (append(MARKER, shard, marker, null)) {
+                active.buffer.force();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 记录目录的断点
+     * @param prefix 目录
+     * @param marker 该目录中已迁移结束的最后一个对象
+     */
+    public void prefixMarker(String prefix, String marker) {
+        if (marker == null) {
+            return;
+        }
+        append(PREFIX_MARKER, 0, prefix, marker);
+    }
+
+    /**
+     * 追加一条记录并更新内存状态，停止记录后不再更新，内存不再增长
+     * @return 是否已记录
+     */
+    private boolean append(byte type, int value, String text, String text2) {
+        lock.lock();
+        try {
+            if (active == null) {
+                return false;
+            }
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            byte[] bytes2 = text2 == null ? null : text2.getBytes(StandardCharsets.UTF_8);
+            int size = recordSize(type, bytes, bytes2);
+            try {
+                if (active.buffer.remaining() < size + 1) {
+                    roll(size);
+                    if (active == null) {
+                        return false;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                disable("append failed", e);
+                return false;
+            }
+            write(active.buffer, type, value, bytes, bytes2);
+            apply(type, value, text, text2);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void apply(byte type, int value, String text, String text2) {
+        if (type == MARKER) {
+            markers.put(value, text);
+        } else if (type == PREFIX_MARKER) {
+            prefixMarkers.put(text, text2);
+        } else {
+            finished.put(text, value);
+        }
+    }
+
+    /**
+     * 当前段写满：段数未到上限时换下一个段，否则压缩
+     * @param size 要写入的记录大小
+     */
+    private void roll(int size) throws IOException {
+        finished.keySet().removeIf(covered);
+        if (segments.size() >= maxSegments) {
+            compact();
+            if (active == null || active.buffer.remaining() >= size + 1) {
+                return;
+            }
+        }
+        active.close();
+        active = null;
+        active = createSegment(segments.get(segments.size() - 1) + 1);
+    }
+
+    private static int recordSize(byte type, byte[] bytes, byte[] bytes2) {
+        int size = 1 + 2 + bytes.length;
+        if (type == PREFIX_MARKER) {
+            return size + 2 + (bytes2 == null ? 0 : bytes2.length);
+        }
+        return type == COMPLETED ? size : size + 4;
+    }
+
+    private static void write(ByteBuffer out, byte type, int value, byte[] bytes, byte[] bytes2) {
+        out.put(type);
+        if (type == FAILED || type == MARKER) {
+            out.putInt(value);
+        }
+        writeText(out, bytes);
+        if (type == PREFIX_MARKER) {
+            writeText(out, bytes2);
+        }
+    }
+
+    private static void writeText(ByteBuffer out, byte[] bytes) {
+        if (bytes == null) {
+            out.putShort((short) -1);
+        } else {
+            out.putShort((short) bytes.length);
+            out.put(bytes);
+        }
+    }
+
+    private static String readText(ByteBuffer in) {
+        short length = in.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private File segmentFile(int index) {
+        return new File(dir, uuid + "." + index + SUFFIX);
+    }
+
+    /**
+     * 目录中该 uuid 的段文件序号，从小到大
+     */
+    private List<Integer> listSegments() {
+        TreeMap<Integer, File> found = new TreeMap<>();
+        String prefix = uuid + ".";
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.startsWith(prefix) || !name.endsWith(SUFFIX)) {
+                    continue;
+                }
+                try {
+                    found.put(Integer.parseInt(name.substring(prefix.length(), name.length() - SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    // 其他 uuid 的日志，如 uuid 本身带有 "."
+                }
+            }
+        }
+        return new ArrayList<>(found.keySet());
+    }
+
+    private Segment createSegment(int index) throws IOException {
+        Segment segment = Segment.map(segmentFile(index), segmentSize);
+        segment.buffer.putInt(MAGIC);
+        segments.add(index);
+        return segment;
+    }
+
+    /**
+     * 按序号回放所有段，最后一个段从最后一条完整记录之后继续写
+     */
+    private void replay() throws IOException {
+        for (int i = 0; i < segments.size(); i++) {
+            File file = segmentFile(segments.get(i));
+            Segment segment = Segment.map(file, Math.max(segmentSize, file.length()));
+            boolean last = i == segments.size() - 1;
+            try {
+                replay(segment, file);
+            } finally {
+                if (!last) {
+                    segment.close();
+                }
+            }
+            if (last) {
+                active = segment;
+            }
+        }
+    }
+
+    private void replay(Segment segment, File file) throws IOException {
+        MappedByteBuffer buffer = segment.buffer;
+        if (buffer.getInt(0) != MAGIC) {
+            if (buffer.getInt(0) == 0) {
+                // 创建后还未写入文件头就掉线
+                buffer.putInt(0, MAGIC);
+            } else {
+                throw new IOException("bad journal file: " + file.getAbsolutePath());
+            }
+        }
+        buffer.position(HEADER_SIZE);
+        while (buffer.hasRemaining()) {
+            int start = buffer.position();
+            byte type = buffer.get();
+            try {
+                if (type == COMPLETED || type == FAILED || type == MARKER || type == PREFIX_MARKER) {
+                    int value = (type == FAILED || type == MARKER) ? buffer.getInt() : -1;
+                    String text = readText(buffer);
+                    String text2 = type == PREFIX_MARKER ? readText(buffer) : null;
+                    if (text != null) {
+                        apply(type, value, text, text2);
+                    }
+                    continue;
+                }
+            } catch (BufferUnderflowException | NegativeArraySizeException e) {
+                logger.warn(uuid + " journal truncated record at " + start + ". file:" + file.getAbsolutePath());
+            }
+            // 结束标志或掉线时写了一半的记录，从这里继续追加
+            buffer.position(start);
+            break;
+        }
+    }
+
+    /**
+     * 压缩：把存活状态（断点和未被断点覆盖的对象）写到新的段，再删除旧的段。
+     * 新的段序号更大，压缩中途掉线时回放旧段后再回放新段，结果不变
+     */
+    private void compact() throws IOException {
+        List<Integer> oldSegments = new ArrayList<>(segments);
+        int nextIndex = oldSegments.get(oldSegments.size() - 1) + 1;
+        active.close();
+        active = null;
+        segments.clear();
+        Segment segment = createSegment(nextIndex++);
+        List<Segment> written = new ArrayList<>();
+        written.add(segment);
+        int limit = maxSegments / 2;
+        boolean overflow = false;
+        try {
+            for (Map.Entry<Integer, String> entry : markers.entrySet()) {
+                segment = writeCompacted(segment, written, MARKER, entry.getKey(), entry.getValue(), null);
+            }
+            for (Map.Entry<String, String> entry : prefixMarkers.entrySet()) {
+                segment = writeCompacted(segment, written, PREFIX_MARKER, 0, entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<String, Integer> entry : finished.entrySet()) {
+                if (written.size() > limit) {
+                    overflow = true;
+                    break;
+                }
+                byte type = entry.getValue() < 0 ? COMPLETED : FAILED;
+                segment = writeCompacted(segment, written, type, entry.getValue(), entry.getKey(), null);
+            }
+        } catch (IOException | RuntimeException e) {
+            overflow = false;
+            for (Segment w : written) {
+                w.close();
+                w.file.delete();
+            }
+            segments.clear();
+            segments.addAll(oldSegments);
+            throw e;
+        }
+        if (overflow || written.size() > limit) {
+            // 存活状态本身接近上限，压缩无法腾出空间。旧的段保持不变，仍可用于恢复
+            for (Segment w : written) {
+                w.close();
+                w.file.delete();
+            }
+            segments.clear();
+            segments.addAll(oldSegments);
+            disable("live state exceeds the size limit, finished:" + finished.size(), null);
+            return;
+        }
+        for (int i = 0; i < written.size() - 1; i++) {
+            written.get(i).buffer.force();
+            written.get(i).close();
+        }
+        segment.buffer.force();
+        for (Integer index : oldSegments) {
+            File file = segmentFile(index);
+            if (!file.delete()) {
+                logger.warn(uuid + " journal delete compacted segment failed. file:" + file.getAbsolutePath());
+            }
+        }
+        active = segment;
+        logger.info(uuid + " journal compacted. segments:" + oldSegments.size() + " -> " + segments.size() + " finished:" + finished.size());
+    }
+
+    private Segment writeCompacted(Segment segment, List<Segment> written, byte type, int value, String text, String text2) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes2 = text2 == null ? null : text2.getBytes(StandardCharsets.UTF_8);
+        if (segment.buffer.remaining() < recordSize(type, bytes, bytes2) + 1) {
+            segment = createSegment(segments.get(segments.size() - 1) + 1);
+            written.add(segment);
+        }
+        write(segment.buffer, type, value, bytes, bytes2);
+        return segment;
+    }
+
+    /**
+     * 停止记录，已写入的段保留用于恢复。迁移继续进行，只是掉线恢复时可能重复迁移之后结束的对象
+     */
+    private void disable(String reason, Throwable e) {
+        logger.error(uuid + " journal disabled, " + reason + ". dir:" + dir.getAbsolutePath(), e);
+        closeActive();
+    }
+
+    private void closeActive() {
+        if (active != null) {
+            try {
+                active.buffer.force();
+            } catch (RuntimeException e) {
+                logger.warn(uuid + " journal force failed.", e);
+            }
+            active.close();
+            active = null;
+        }
+    }
+
+    /**
+     * 关闭日志
+     * @param delete 是否删除日志文件，迁移正常结束时删除
+     */
+    public void close(boolean delete) {
+        lock.lock();
+        try {
+            closeActive();
+            if (delete) {
+                for (Integer index : segments) {
+                    File file = segmentFile(index);
+                    if (!file.delete()) {
+                        logger.warn(uuid + " journal delete failed. file:" + file.getAbsolutePath());
+                    }
+                }
+                segments.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 一个段文件的映射
+     */
+    private static class Segment {
+        private final File file;
+        private final RandomAccessFile raf;
+        private final MappedByteBuffer buffer;
+
+        private Segment(File file, RandomAccessFile raf, MappedByteBuffer buffer) {
+            this.file = file;
+            this.raf = raf;
+            this.buffer = buffer;
+        }
+
+        static Segment map(File file, long size) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                return new Segment(file, raf, buffer);
+            } catch (IOException | RuntimeException e) {
+                raf.close();
+                throw e;
+            }
+        }
+
+        void close() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                logger.warn("journal segment close failed. file:" + file.getAbsolutePath(), e);
+            }
+        }
+    }
+}
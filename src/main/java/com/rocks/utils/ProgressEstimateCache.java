@@ -0,0 +1,259 @@
+package com.rocks.utils;
+
+import com.rocks.constant.Constant;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 迁移的吞吐和剩余时间估计，与 CountMapCache 一样按 uuid 轮询。
+ * 列举时累计发现的对象数和字节数，迁移时累计完成的对象数和字节数，后台线程定期采样计算指数加权平均吞吐
+ * @author zhuang
+ */
+public class ProgressEstimateCache {
+    private static final ConcurrentHashMap<String, ProgressEstimator> CACHE = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "progress-estimator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        sampler.scheduleAtFixedRate(ProgressEstimateCache::sampleAll, Constant.PROGRESS_SAMPLE_INTERVAL, Constant.PROGRESS_SAMPLE_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 开始估计，同一 uuid 重新开始时替换
+     * @param uuid 事件标识
+     */
+    public static ProgressEstimator start(String uuid) {
+        ProgressEstimator estimator = new ProgressEstimator(System.nanoTime());
+        CACHE.put(uuid, estimator);
+        return estimator;
+    }
+
+    public static ProgressEstimator get(String uuid) {
+        return CACHE.get(uuid);
+    }
+
+    /**
+     * 当前估计，迁移未在进行时为 null
+     */
+    public static Estimate getEstimate(String uuid) {
+        ProgressEstimator estimator = CACHE.get(uuid);
+        return estimator == null ? null : estimator.estimate();
+    }
+
+    public static void removeCache(String uuid) {
+        CACHE.remove(uuid);
+    }
+
+    private static void sampleAll() {
+        long now = System.nanoTime();
+        for (ProgressEstimator estimator : CACHE.values()) {
+            estimator.sample(now);
+        }
+    }
+
+    /**
+     * 单个迁移的进度估计，列举线程和迁移线程并发累加，采样只在后台线程进行
+     */
+    public static class ProgressEstimator {
+        private final LongAdder discoveredObjects = new LongAdder();
+        private final LongAdder discoveredBytes = new LongAdder();
+        private final LongAdder doneObjects = new LongAdder();
+        private final LongAdder doneBytes = new LongAdder();
+        /** 实际传输的字节数，包括大对象已成功的分段，用于计算吞吐 */
+        private final LongAdder transferredBytes = new LongAdder();
+        private volatile boolean listEnd = false;
+
+        private long lastSampleTime;
+        private long lastTransferredBytes;
+        private long lastDoneObjects;
+        private long lastDiscoveredObjects;
+        private long lastProgressTime;
+        private volatile double bytesRate = -1;
+        private volatile double objectsRate = -1;
+        private volatile boolean stalled = false;
+
+        ProgressEstimator(long now) {
+            this.lastSampleTime = now;
+            this.lastProgressTime = now;
+        }
+
+        /**
+         * 列举出一个待迁移对象
+         * @param size 对象大小，未知时为 null
+         */
+        public void discovered(Long size) {
+            discoveredObjects.increment();
+            if (size != null) {
+                discoveredBytes.add(size);
+            }
+        }
+
+        /** 列举结束，发现的总数不再增加 */
+        public void listFinished() {
+            listEnd = true;
+        }
+
+        /**
+         * 大对象的一个分段传输成功，只计入吞吐，对象结束时才计入完成量
+         */
+        public void transferred(long bytes) {
+            transferredBytes.add(bytes);
+        }
+
+        /**
+         * 一个对象迁移结束，成功或失败都不再计入剩余量
+         * @param size 对象大小，未知时为 null
+         * @param transferred 计入吞吐的字节数：成功且未按分段计入时为对象大小，否则为 0
+         */
+        public void finished(Long size, long transferred) {
+            doneObjects.increment();
+            if (size != null) {
+                doneBytes.add(size);
+            }
+            if (transferred > 0) {
+                transferredBytes.add(transferred);
+            }
+        }
+
+        /**
+         * 按采样间隔内的增量更新指数加权平均吞吐，第一次采样直接取该间隔的吞吐
+         */
+        synchronized void sample(long now) {
+            double seconds = (now - lastSampleTime) / 1e9;
+            if (seconds <= 0) {
+                return;
+            }
+            long transferred = transferredBytes.sum();
+            long done = doneObjects.sum();
+            long discovered = discoveredObjects.sum();
+            double currentBytesRate = (transferred - lastTransferredBytes) / seconds;
+            double currentObjectsRate = (done - lastDoneObjects) / seconds;
+            double alpha = 1 - Math.exp(-seconds / Constant.PROGRESS_EWMA_WINDOW);
+            bytesRate = bytesRate < 0 ? currentBytesRate : bytesRate + alpha * (currentBytesRate - bytesRate);
+            objectsRate = objectsRate < 0 ? currentObjectsRate : objectsRate + alpha * (currentObjectsRate - objectsRate);
+            if (transferred != lastTransferredBytes || done != lastDoneObjects || discovered != lastDiscoveredObjects) {
+                lastProgressTime = now;
+            }
+            // 还有未完成的对象或列举未结束，却长时间既没有传输也没有列举出新对象
+            boolean pending = !listEnd || done < discovered;
+            stalled = pending && now - lastProgressTime >= TimeUnit.SECONDS.toNanos(Constant.PROGRESS_STALL_TIME);
+            lastSampleTime = now;
+            lastTransferredBytes = transferred;
+            lastDoneObjects = done;
+            lastDiscoveredObjects = discovered;
+        }
+
+        public Estimate estimate() {
+            return new Estimate(discoveredObjects.sum(), discoveredBytes.sum(), doneObjects.sum(), doneBytes.sum(),
+                    Math.max(0, bytesRate), Math.max(0, objectsRate), listEnd, stalled);
+        }
+    }
+
+    /**
+     * 某一时刻的进度估计。列举未结束时剩余量只含已发现的部分，剩余时间是下限
+     */
+    public static class Estimate {
+        private final long discoveredObjects;
+        private final long discoveredBytes;
+        private final long doneObjects;
+        private final long doneBytes;
+        private final double bytesRate;
+        private final double objectsRate;
+        private final boolean listEnd;
+        private final boolean stalled;
+
+        Estimate(long discoveredObjects, long discoveredBytes, long doneObjects, long doneBytes,
+                 double bytesRate, double objectsRate, boolean listEnd, boolean stalled) {
+            this.discoveredObjects = discoveredObjects;
+            this.discoveredBytes = discoveredBytes;
+            this.doneObjects = doneObjects;
+            this.doneBytes = doneBytes;
+            this.bytesRate = bytesRate;
+            this.objectsRate = objectsRate;
+            this.listEnd = listEnd;
+            this.stalled = stalled;
+        }
+
+        public long getDiscoveredObjects() {
+            return discoveredObjects;
+        }
+
+        public long getDiscoveredBytes() {
+            return discoveredBytes;
+        }
+
+        public long getDoneObjects() {
+            return doneObjects;
+        }
+
+        public long getDoneBytes() {
+            return doneBytes;
+        }
+
+        public long getRemainingObjects() {
+            return Math.max(0, discoveredObjects - doneObjects);
+        }
+
+        public long getRemainingBytes() {
+            return Math.max(0, discoveredBytes - doneBytes);
+        }
+
+        /** 平均吞吐，单位 字节/秒 */
+        public double getBytesRate() {
+            return bytesRate;
+        }
+
+        /** 平均吞吐，单位 对象数/秒 */
+        public double getObjectsRate() {
+            return objectsRate;
+        }
+
+        /**
+         * 按剩余字节数估计的剩余时间
+         * @return 秒，吞吐为 0 无法估计时为 -1
+         */
+        public long getEtaSecondsByBytes() {
+            return eta(getRemainingBytes(), bytesRate);
+        }
+
+        /**
+         * 按剩余对象数估计的剩余时间
+         * @return 秒，吞吐为 0 无法估计时为 -1
+         */
+        public long getEtaSecondsByObjects() {
+            return eta(getRemainingObjects(), objectsRate);
+        }
+
+        private static long eta(long remaining, double rate) {
+            if (remaining == 0) {
+                return 0;
+            }
+            return rate > 0 ? (long) Math.ceil(remaining / rate) : -1;
+        }
+
+        /** 列举是否结束，结束前剩余时间只是下限 */
+        public boolean isListEnd() {
+            return listEnd;
+        }
+
+        /** 有未完成的对象但长时间没有进展 */
+        public boolean isStalled() {
+            return stalled;
+        }
+
+        @Override
+        public String toString() {
+            return "objects:" + doneObjects + "/" + discoveredObjects + " bytes:" + doneBytes + "/" + discoveredBytes
+                    + " rate:" + (long) bytesRate + "B/s " + String.format("%.1f", objectsRate) + "obj/s"
+                    + " eta:" + getEtaSecondsByBytes() + "s/" + getEtaSecondsByObjects() + "s"
+                    + (listEnd ? "" : " listing") + (stalled ? " stalled" : "");
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.rocks.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+/**
+ * 以 Prometheus 文本格式输出所有正在进行的迁移的指标，地址为 http://host:port/metrics。
+ * 请求耗时按 summary 输出，单位秒
+ * @author zhuang
+ */
+public class PrometheusExporter {
+    private static final Logger logger = Logger.getLogger("PrometheusExporter.class");
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static HttpServer server;
+
+    private PrometheusExporter() {
+    }
+
+    /**
+     * 启动 HTTP 接口，已启动时不重复启动
+     * @param host 监听地址，如 127.0.0.1 只允许本机访问
+     */
+    public static synchronized void start(String host, int port) throws IOException {
+        if (server != null) {
+            return;
+        }
+        HttpServer httpServer = HttpServer.create(new InetSocketAddress(host, port), 16);
+        httpServer.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-exporter");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        httpServer.createContext("/metrics", PrometheusExporter::handle);
+        httpServer.start();
+        server = httpServer;
+        logger.info("metrics exporter started at " + host + ":" + httpServer.getAddress().getPort());
+    }
+
+    public static synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (RuntimeException e) {
+            logger.error("metrics scrape error.", e);
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * 当前所有迁移的指标文本
+     */
+    public static String scrape() {
+        List<JobMetrics> jobs = new ArrayList<>(MetricsCache.getAll());
+        StringBuilder text = new StringBuilder(1024 + jobs.size() * 2048);
+        header(text, "migrate_bytes_transferred_total", "counter", "Bytes of successfully migrated objects.");
+        for (JobMetrics job : jobs) {
+            sample(text, "migrate_bytes_transferred_total", job, null, job.getBytesTransferred());
+        }
+        header(text, "migrate_objects_total", "counter", "Migrated objects by result.");
+        for (JobMetrics job : jobs) {
+            sample(text, "migrate_objects_total", job, "result=\"success\"", job.getObjectsTransferred());
+            sample(text, "migrate_objects_total", job, "result=\"failed\"", job.getObjectsFailed());
+        }
+        header(text, "migrate_in_flight", "gauge", "Objects being migrated.");
+        for (JobMetrics job : jobs) {
+            sample(text, "migrate_in_flight", job, null, job.getInFlight());
+        }
+        header(text, "migrate_queue_depth", "gauge", "Objects queued in the transfer lanes.");
+        for (JobMetrics job : jobs) {
+            sample(text, "migrate_queue_depth", job, null, job.getQueueDepth());
+        }
+        header(text, "migrate_request_duration_seconds", "summary", "Request latency by operation; get is time to first byte.");
+        for (JobMetrics job : jobs) {
+            for (JobMetrics.Operation operation : JobMetrics.Operation.values()) {
+                LatencyHistogram histogram = job.getLatency(operation);
+                String op = "op=\"" + operation.getLabel() + "\"";
+                long[] values = histogram.getPercentilesMicros(toPercentiles(QUANTILES));
+                for (int i = 0; i < QUANTILES.length; i++) {
+                    sample(text, "migrate_request_duration_seconds", job, op + ",quantile=\"" + QUANTILES[i] + "\"", values[i] / 1e6);
+                }
+                sample(text, "migrate_request_duration_seconds_sum", job, op, histogram.getTotalMicros() / 1e6);
+                sample(text, "migrate_request_duration_seconds_count", job, op, histogram.getCount());
+            }
+        }
+        return text.toString();
+    }
+
+    private static double[] toPercentiles(double[] quantiles) {
+        double[] percentiles = new double[quantiles.length];
+        for (int i = 0; i < quantiles.length; i++) {
+            percentiles[i] = quantiles[i] * 100;
+        }
+        return percentiles;
+    }
+
+    private static void header(StringBuilder text, String name, String type, String help) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder text, String name, JobMetrics job, String labels, Object value) {
+        text.append(name).append("{uuid=\"").append(escape(job.getUuid())).append('"');
+        if (labels != null) {
+            text.append(',').append(labels);
+        }
+        text.append("} ").append(value).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,72 @@
+package com.rocks.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * 受带宽限制的输入流：读出的字节累计到一定数量后再向各限制器获取许可，
+ * 高带宽下每秒获取许可的次数也只有数万次，不会成为瓶颈
+ * @author zhuang
+ */
+public class ThrottledInputStream extends FilterInputStream {
+    /** 累计多少字节获取一次许可 */
+    private static final int ACQUIRE_BYTES = 64 * 1024;
+
+    private final BandwidthLimiter[] limiters;
+    private long pending;
+
+    /**
+     * @param limiters 同时生效的限制器，如迁移自己的限制和全局限制
+     */
+    public ThrottledInputStream(InputStream in, BandwidthLimiter... limiters) {
+        super(in);
+        this.limiters = limiters;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            throttle(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            throttle(n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        if (skipped > 0) {
+            throttle(skipped);
+        }
+        return skipped;
+    }
+
+    private void throttle(long bytes) throws InterruptedIOException {
+        pending += bytes;
+        if (pending < ACQUIRE_BYTES) {
+            return;
+        }
+        try {
+            for (BandwidthLimiter limiter : limiters) {
+                if (limiter != null) {
+                    limiter.acquire(pending);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+        pending = 0;
+    }
+}
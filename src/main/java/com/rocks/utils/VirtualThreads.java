@@ -0,0 +1,67 @@
+package com.rocks.utils;
+
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 虚拟线程（Java 21）。通过反射创建，运行在低版本 JDK 上时不可用，调用方回退到平台线程。
+ * JDK 21~23 上虚拟线程在 synchronized 内阻塞会占住载体线程，可用 -Djdk.tracePinnedThreads=full 打印占住时的栈。
+ * 迁移路径上：本项目锁内有 I/O 的地方（断点推进、迁移日志、失败对象日志）都用 ReentrantLock 而不是 synchronized；AWS/OSS SDK 的 httpclient 4.5 连接池和 JDK 17+ 的 SSLSocket 用的是 ReentrantLock，
+ * 不会占住；log4j 1.x 的 AppenderSkeleton.doAppend 是 synchronized 且在锁内写文件，会占住。
+ * 日志配置属于宿主应用，这里不修改：开启虚拟线程模式时在 log4j.xml 中用 AsyncAppender 包装根日志的 appender，
+ * 并设置 Blocking=true，缓冲区满时等待而不是丢弃日志
+ * @author zhuang
+ */
+public class VirtualThreads {
+    private static final Logger logger = Logger.getLogger("VirtualThreads.class");
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null, name = null, factory = null, newExecutor = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            newExecutor = java.util.concurrent.Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (ReflectiveOperationException e) {
+            logger.info("virtual threads are not supported by this JVM: " + System.getProperty("java.version"));
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newExecutor;
+    }
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isSupported() {
+        return NEW_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * 每个任务一个虚拟线程的线程池
+     * @param namePrefix 线程名前缀，线程名为 namePrefix + 序号
+     * @return 不支持虚拟线程时为 null
+     */
+    public static ExecutorService newExecutor(String namePrefix) {
+        if (!isSupported()) {
+            return null;
+        }
+        try {
+            Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), namePrefix, 0L);
+            ThreadFactory threadFactory = (ThreadFactory) FACTORY.invoke(builder);
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, threadFactory);
+        } catch (ReflectiveOperationException e) {
+            logger.error("create virtual thread executor failed. namePrefix:" + namePrefix, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.rocks.vo;
+
+import com.aliyun.oss.model.OSSObjectSummary;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 待迁移的对象，携带列举得到的大小、ETag、最后修改时间，迁移时不必再 HEAD 一次
+ * @author zhuang
+ */
+@Getter
+public class ObjectInfo {
+    private final String bucket;
+    private final String key;
+    /** 对象大小，null 表示没有列举元数据（如重试失败文件），迁移时需 HEAD 获取 */
+    private final Long size;
+    private final String eTag;
+    private final Date lastModified;
+
+    public ObjectInfo(String bucket, String key, Long size, String eTag, Date lastModified) {
+        this.bucket = bucket;
+        this.key = key;
+        this.size = size;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+    }
+
+    public static ObjectInfo of(S3ObjectSummary summary) {
+        return new ObjectInfo(summary.getBucketName(), summary.getKey(), summary.getSize(), summary.getETag(), summary.getLastModified());
+    }
+
+    public static ObjectInfo of(OSSObjectSummary summary) {
+        return new ObjectInfo(summary.getBucketName(), summary.getKey(), summary.getSize(), summary.getETag(), summary.getLastModified());
+    }
+
+    /** 只有对象名，没有列举元数据 */
+    public static ObjectInfo of(String bucket, String key) {
+        return new ObjectInfo(bucket, key, null, null, null);
+    }
+
+    public static List<ObjectInfo> fromS3Summaries(List<S3ObjectSummary> summaryList) {
+        List<ObjectInfo> objects = new ArrayList<>(summaryList.size());
+        for (S3ObjectSummary summary : summaryList) {
+            objects.add(of(summary));
+        }
+        return objects;
+    }
+
+    public static List<ObjectInfo> fromOssSummaries(List<OSSObjectSummary> summaryList) {
+        List<ObjectInfo> objects = new ArrayList<>(summaryList.size());
+        for (OSSObjectSummary summary : summaryList) {
+            objects.add(of(summary));
+        }
+        return objects;
+    }
+
+    public static List<ObjectInfo> fromKeys(String bucket, List<String> keys) {
+        List<ObjectInfo> objects = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            objects.add(of(bucket, key));
+        }
+        return objects;
+    }
+
+    /** 是否有列举元数据 */
+    public boolean hasSummary() {
+        return size != null;
+    }
+}
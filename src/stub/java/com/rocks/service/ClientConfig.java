@@ -0,0 +1,27 @@
+package com.rocks.service;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.Protocol;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+
+/**
+ * 宿主应用的类，源码不在本仓库。这里只保留迁移代码用到的签名，供独立编译和单元测试，不打入 migrate.jar。
+ * 占位实现按协议创建路径风格访问的客户端，供 benchmark 对本地模拟服务运行
+ * @author zhuang
+ */
+public class ClientConfig {
+    public static AmazonS3Client getS3Client(String address, String ak, String sk, boolean option, String protocol) {
+        ClientConfiguration configuration = new ClientConfiguration();
+        configuration.setProtocol("https".equalsIgnoreCase(protocol) ? Protocol.HTTPS : Protocol.HTTP);
+        return (AmazonS3Client) AmazonS3ClientBuilder.standard()
+                .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials(ak, sk)))
+                .withClientConfiguration(configuration)
+                .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(address, null))
+                .withPathStyleAccessEnabled(true)
+                .build();
+    }
+}
@@ -0,0 +1,34 @@
+package com.rocks.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 宿主应用的类，源码不在本仓库。这里只保留迁移代码用到的签名，供独立编译和单元测试，不打入 migrate.jar
+ * @author zhuang
+ */
+public class CountMapCache {
+    private static final CountMapCache INSTANCE = new CountMapCache();
+
+    public static CountMapCache getInstance() {
+        return INSTANCE;
+    }
+
+    public Map<String, Object> getCache(String uuid) {
+        return new HashMap<>();
+    }
+
+    public static void countNum(String uuid, String key) {
+    }
+
+    public static void addTotalNumToMap(String uuid, int totalNum) {
+    }
+
+    public static int getSuccessSize(String uuid) {
+        return 0;
+    }
+
+    public static int getFailedSize(String uuid) {
+        return 0;
+    }
+}
@@ -0,0 +1,10 @@
+package com.rocks.utils;
+
+/**
+ * 宿主应用的类，源码不在本仓库。这里只保留迁移代码用到的签名，供独立编译和单元测试，不打入 migrate.jar
+ * @author zhuang
+ */
+public class FailedDocsCache {
+    public static void addFailedDocs(String uuid, String key, int errorType) {
+    }
+}
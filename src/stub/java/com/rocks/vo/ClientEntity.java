@@ -0,0 +1,11 @@
+package com.rocks.vo;
+
+/**
+ * 宿主应用的类，源码不在本仓库。这里只保留迁移代码用到的签名，供独立编译和单元测试，不打入 migrate.jar
+ * @author zhuang
+ */
+public class ClientEntity {
+    public ClientEntity(String originalAddress, String originalAk, String originalSk, String originalProtocol,
+                        String targetAddress, String targetAk, String targetSk, String targetProtocol) {
+    }
+}
@@ -0,0 +1,154 @@
+package com.rocks.service.oto;
+
+import com.aliyun.oss.common.utils.CRC64;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 分段校验：分段 MD5 与目的端分段 ETag 对比，各分段 CRC64 合并后与源端整体 CRC64 对比
+ * @author zhuang
+ */
+public class MultipartChecksumTest {
+    private static final String KEY = "dir/object";
+    private static final int TOTAL = 10000;
+    private static final int PART_SIZE = 3000;
+
+    private final byte[] data = newData();
+
+    @Test
+    public void combinesPartCrcsInPartOrder() throws IOException {
+        MultipartChecksum checksum = new MultipartChecksum(true, true, TOTAL, PART_SIZE);
+        checksum.setSourceCrc64(crc64(data));
+        // 分段并发完成，结束顺序与分段编号无关
+        for (int partNumber : new int[]{3, 1, 4, 2}) {
+            migratePart(checksum, partNumber, etagOf(part(partNumber)));
+        }
+        checksum.verify(KEY);
+    }
+
+    @Test
+    public void rejectsCombinedCrcDifferentFromSource() throws IOException {
+        MultipartChecksum checksum = new MultipartChecksum(true, true, TOTAL, PART_SIZE);
+        checksum.setSourceCrc64(crc64(data) ^ 1);
+        for (int partNumber = 1; partNumber <= 4; partNumber++) {
+            migratePart(checksum, partNumber, etagOf(part(partNumber)));
+        }
+        expectMismatch(() -> checksum.verify(KEY), "crc64");
+    }
+
+    @Test
+    public void skipsWholeObjectCheckWithoutSourceCrc() throws IOException {
+        MultipartChecksum checksum = new MultipartChecksum(true, true, TOTAL, PART_SIZE);
+        checksum.setSourceCrc64(null);
+        for (int partNumber = 1; partNumber <= 4; partNumber++) {
+            migratePart(checksum, partNumber, etagOf(part(partNumber)));
+        }
+        checksum.verify(KEY);
+    }
+
+    @Test
+    public void rejectsPartWithDifferentMd5() throws IOException {
+        MultipartChecksum checksum = new MultipartChecksum(true, false, TOTAL, PART_SIZE);
+        String otherETag = etagOf(part(2));
+        expectMismatch(() -> migratePart(checksum, 1, otherETag), "part md5");
+    }
+
+    @Test
+    public void rejectsShortPart() throws IOException {
+        MultipartChecksum checksum = new MultipartChecksum(true, false, TOTAL, PART_SIZE);
+        byte[] part = Arrays.copyOf(part(1), PART_SIZE - 1);
+        InputStream input = checksum.wrap(new ByteArrayInputStream(part));
+        readFully(input);
+        expectMismatch(() -> checksum.verifyPart(KEY, 1, PART_SIZE, input, etagOf(part)), "part length");
+    }
+
+    @Test
+    public void skipsPartETagThatIsNotMd5() throws IOException {
+        MultipartChecksum checksum = new MultipartChecksum(true, false, TOTAL, PART_SIZE);
+        // 目的端返回的 ETag 不是 32 位十六进制 MD5 或没有返回时不对比
+        migratePart(checksum, 1, "\"" + md5Hex(part(1)).substring(0, 16) + "-1\"");
+        migratePart(checksum, 2, null);
+    }
+
+    @Test
+    public void disabledChecksumLeavesStreamUntouched() {
+        MultipartChecksum checksum = new MultipartChecksum(false, true, TOTAL, PART_SIZE);
+        InputStream input = new ByteArrayInputStream(data);
+        assertSame(input, checksum.wrap(input));
+        checksum.verifyPart(KEY, 1, PART_SIZE, input, "\"bad\"");
+        checksum.setSourceCrc64(0L);
+        checksum.verify(KEY);
+    }
+
+    private void migratePart(MultipartChecksum checksum, int partNumber, String targetETag) throws IOException {
+        byte[] part = part(partNumber);
+        InputStream input = checksum.wrap(new ByteArrayInputStream(part));
+        readFully(input);
+        checksum.verifyPart(KEY, partNumber, part.length, input, targetETag);
+    }
+
+    private byte[] part(int partNumber) {
+        int start = (partNumber - 1) * PART_SIZE;
+        return Arrays.copyOfRange(data, start, Math.min(TOTAL, start + PART_SIZE));
+    }
+
+    private static byte[] newData() {
+        byte[] bytes = new byte[TOTAL];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void readFully(InputStream input) throws IOException {
+        byte[] buffer = new byte[1024];
+        while (input.read(buffer) >= 0) {
+            // 只为计算校验值
+        }
+    }
+
+    static long crc64(byte[] bytes) {
+        CRC64 crc = new CRC64();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+
+    static String md5Hex(byte[] bytes) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("MD5").digest(bytes)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** 目的端返回的分段 ETag：带引号的大写 MD5 */
+    static String etagOf(byte[] bytes) {
+        return "\"" + md5Hex(bytes).toUpperCase() + "\"";
+    }
+
+    static void expectMismatch(CheckedRunnable runnable, String reason) throws IOException {
+        try {
+            runnable.run();
+            fail("expected checksum mismatch: " + reason);
+        } catch (ChecksumMismatchException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(reason));
+        }
+    }
+
+    interface CheckedRunnable {
+        void run() throws IOException;
+    }
+}
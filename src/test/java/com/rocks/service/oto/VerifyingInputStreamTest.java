@@ -0,0 +1,95 @@
+package com.rocks.service.oto;
+
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static com.rocks.service.oto.MultipartChecksumTest.crc64;
+import static com.rocks.service.oto.MultipartChecksumTest.expectMismatch;
+import static com.rocks.service.oto.MultipartChecksumTest.md5Hex;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 普通迁移的校验，以及哪些源端 ETag 可以作为内容 MD5
+ * @author zhuang
+ */
+public class VerifyingInputStreamTest {
+    private static final String KEY = "dir/object";
+    private static final byte[] DATA = "migrate checksum".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void normalizesQuotedUpperCaseETag() {
+        String md5 = md5Hex(DATA);
+        assertEquals(md5, VerifyingInputStream.toMd5("\"" + md5.toUpperCase() + "\""));
+    }
+
+    @Test
+    public void skipsMultipartAndNonHexETags() {
+        assertNull(VerifyingInputStream.toMd5(null));
+        // 分段上传对象的 ETag 带 -N
+        assertNull(VerifyingInputStream.toMd5("\"d41d8cd98f00b204e9800998ecf8427e-3\""));
+        assertNull(VerifyingInputStream.toMd5("zzzzzzzzzzzzzzzzzzzzzzzzzzzzzzzz"));
+    }
+
+    @Test
+    public void skipsETagOfEncryptedObjects() {
+        String etag = "\"" + md5Hex(DATA) + "\"";
+        ObjectMetadata plain = metadata(etag);
+        assertEquals(etag, MossObjectService.contentETag(plain));
+
+        ObjectMetadata kms = metadata(etag);
+        kms.setHeader(Headers.SERVER_SIDE_ENCRYPTION_AWS_KMS_KEYID, "kms-key");
+        assertNull(MossObjectService.contentETag(kms));
+
+        ObjectMetadata customerKey = metadata(etag);
+        customerKey.setSSECustomerAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+        assertNull(MossObjectService.contentETag(customerKey));
+    }
+
+    @Test
+    public void acceptsMatchingLengthMd5AndCrc() throws IOException {
+        VerifyingInputStream input = new VerifyingInputStream(new ByteArrayInputStream(DATA), DATA.length, md5Hex(DATA), crc64(DATA));
+        readFully(input);
+        input.verify(KEY);
+    }
+
+    @Test
+    public void rejectsDifferentMd5() throws IOException {
+        VerifyingInputStream input = new VerifyingInputStream(new ByteArrayInputStream(DATA), DATA.length, md5Hex(new byte[1]), null);
+        readFully(input);
+        expectMismatch(() -> input.verify(KEY), "md5");
+    }
+
+    @Test
+    public void rejectsDifferentCrc() throws IOException {
+        VerifyingInputStream input = new VerifyingInputStream(new ByteArrayInputStream(DATA), DATA.length, null, crc64(DATA) + 1);
+        readFully(input);
+        expectMismatch(() -> input.verify(KEY), "crc64");
+    }
+
+    @Test
+    public void rejectsTruncatedStream() throws IOException {
+        VerifyingInputStream input = new VerifyingInputStream(new ByteArrayInputStream(DATA), DATA.length + 1, null, null);
+        readFully(input);
+        expectMismatch(() -> input.verify(KEY), "length");
+    }
+
+    private static ObjectMetadata metadata(String etag) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setHeader(Headers.ETAG, etag);
+        return metadata;
+    }
+
+    private static void readFully(InputStream input) throws IOException {
+        byte[] buffer = new byte[8];
+        while (input.read(buffer) >= 0) {
+            // 只为计算校验值
+        }
+    }
+}
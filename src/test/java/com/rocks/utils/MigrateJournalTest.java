@@ -0,0 +1,99 @@
+package com.rocks.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 迁移日志的回放、换段、压缩和大小上限
+ * @author zhuang
+ */
+public class MigrateJournalTest {
+    private static final String UUID = "job-1";
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysFinishedObjectsAndMarkers() throws IOException {
+        String dir = folder.getRoot().getPath();
+        MigrateJournal journal = MigrateJournal.open(UUID, dir);
+        journal.completed("a/1");
+        journal.failed("a/2", 3);
+        journal.marker(0, "a/2");
+        journal.prefixMarker("b/", "b/9");
+        journal.prefixMarker("b/", "b/10");
+        journal.close(false);
+
+        MigrateJournal replayed = MigrateJournal.open(UUID, dir);
+        assertTrue(replayed.isFinished("a/1"));
+        assertTrue(replayed.isFinished("a/2"));
+        assertFalse(replayed.isFinished("a/3"));
+        assertEquals("a/2", replayed.getMarker(0));
+        assertEquals("b/10", replayed.getPrefixMarker("b/"));
+        assertNull(replayed.getMarker(1));
+
+        // 回放后继续追加
+        replayed.completed("a/3");
+        replayed.close(false);
+        assertTrue(MigrateJournal.open(UUID, dir).isFinished("a/3"));
+    }
+
+    @Test
+    public void rollsSegmentsAndCompactsCoveredObjects() throws IOException {
+        String dir = folder.getRoot().getPath();
+        MigrateJournal journal = MigrateJournal.open(UUID, dir, SEGMENT_SIZE, 4);
+        // 断点之前的对象已被覆盖
+        journal.setCovered(key -> key.compareTo("key-09900") <= 0);
+        for (int i = 0; i < 10000; i++) {
+            journal.completed(String.format("key-%05d", i));
+        }
+        assertTrue(segmentCount() <= 4);
+        // 内存中只保留未被覆盖的对象和最近一段
+        assertTrue(journal.getFinishedSize() < 500);
+        assertTrue(journal.isFinished("key-09999"));
+        journal.close(false);
+
+        MigrateJournal replayed = MigrateJournal.open(UUID, dir, SEGMENT_SIZE, 4);
+        for (int i = 9901; i < 10000; i++) {
+            assertTrue(replayed.isFinished(String.format("key-%05d", i)));
+        }
+        replayed.close(true);
+        assertEquals(0, segmentCount());
+    }
+
+    @Test
+    public void stopsRecordingWhenLiveStateExceedsLimit() throws IOException {
+        String dir = folder.getRoot().getPath();
+        MigrateJournal journal = MigrateJournal.open(UUID, dir, SEGMENT_SIZE, 4);
+        // 没有断点覆盖，存活状态一直增长
+        for (int i = 0; i < 10000; i++) {
+            journal.completed(String.format("key-%05d", i));
+        }
+        assertTrue(segmentCount() <= 4);
+        assertTrue(journal.isFinished("key-00000"));
+        // 停止记录后不再占用内存
+        assertFalse(journal.isFinished("key-09999"));
+        journal.failed("key-10000", 1);
+        journal.close(false);
+
+        MigrateJournal replayed = MigrateJournal.open(UUID, dir, SEGMENT_SIZE, 4);
+        assertTrue(replayed.isFinished("key-00000"));
+        assertFalse(replayed.isFinished("key-10000"));
+        replayed.close(true);
+    }
+
+    private int segmentCount() {
+        File[] files = folder.getRoot().listFiles((d, name) -> name.startsWith(UUID + ".") && name.endsWith(".journal"));
+        return files == null ? 0 : files.length;
+    }
+}